@@ -0,0 +1,141 @@
+package matcher.bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import matcher.Matcher;
+import matcher.ProjectConfig;
+import matcher.mapping.IMappingAcceptor;
+import matcher.type.ClassEnvironment;
+import matcher.type.ClassInstance;
+import matcher.type.MethodInstance;
+
+/**
+ * Matcher and class environment loaded with a generated jar pair, shared by the benchmarks.
+ */
+public class BenchmarkFixture implements AutoCloseable {
+	/**
+	 * @param matchClasses whether to match all classes according to the generator's ground truth, as required for
+	 * ranking members
+	 */
+	public static BenchmarkFixture create(long seed, int classCount, boolean matchClasses) {
+		try {
+			return new BenchmarkFixture(new CorpusGenerator(seed, classCount), matchClasses);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private BenchmarkFixture(CorpusGenerator generator, boolean matchClasses) throws IOException {
+		this.generator = generator;
+		this.dir = Files.createTempDirectory("matcher-bench");
+
+		Path jarA = dir.resolve("a.jar");
+		Path jarB = dir.resolve("b.jar");
+		generator.write(jarA, jarB);
+
+		Matcher.init();
+
+		ProjectConfig config = new ProjectConfig();
+		config.getPathsA().add(jarA);
+		config.getPathsB().add(jarB);
+
+		env = new ClassEnvironment();
+		env.setFeatureCacheEnabled(false);
+		matcher = new Matcher(env);
+		matcher.init(config, progress -> { });
+
+		for (Map.Entry<String, String> entry : generator.getClassMapping().entrySet()) {
+			ClassInstance a = env.getLocalClsByNameA(entry.getKey());
+			ClassInstance b = env.getLocalClsByNameB(entry.getValue());
+			if (a == null || b == null) throw new IllegalStateException("missing generated class "+entry.getKey()+" / "+entry.getValue());
+
+			classPairs.add(new ClassInstance[] { a, b });
+			if (matchClasses) matcher.match(a, b);
+		}
+
+		generator.acceptGroundTruth(new IMappingAcceptor() {
+			@Override
+			public void acceptMethod(String srcClsName, String srcName, String srcDesc, String dstClsName, String dstName, String dstDesc) {
+				MethodInstance a = env.getLocalClsByNameA(srcClsName).getMethod(srcName, srcDesc);
+				MethodInstance b = env.getLocalClsByNameB(dstClsName).getMethod(dstName, dstDesc);
+
+				if (a != null && b != null) methodPairs.add(new MethodInstance[] { a, b });
+			}
+
+			@Override
+			public void acceptClass(String srcName, String dstName) { }
+			@Override
+			public void acceptClassComment(String srcName, String comment) { }
+			@Override
+			public void acceptMethodComment(String srcClsName, String srcName, String srcDesc, String comment) { }
+			@Override
+			public void acceptMethodArg(String srcClsName, String srcName, String srcDesc, int argIndex, int lvtIndex, String dstArgName) { }
+			@Override
+			public void acceptField(String srcClsName, String srcName, String srcDesc, String dstClsName, String dstName, String dstDesc) { }
+			@Override
+			public void acceptFieldComment(String srcClsName, String srcName, String srcDesc, String comment) { }
+		});
+	}
+
+	public CorpusGenerator getGenerator() {
+		return generator;
+	}
+
+	public ClassEnvironment getEnv() {
+		return env;
+	}
+
+	public Matcher getMatcher() {
+		return matcher;
+	}
+
+	/**
+	 * @return the ground truth class pairs as { a, b } arrays in generation order
+	 */
+	public List<ClassInstance[]> getClassPairs() {
+		return classPairs;
+	}
+
+	/**
+	 * @return the ground truth method pairs as { a, b } arrays
+	 */
+	public List<MethodInstance[]> getMethodPairs() {
+		return methodPairs;
+	}
+
+	public ClassInstance[] getClassesB() {
+		ClassInstance[] ret = new ClassInstance[classPairs.size()];
+
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = classPairs.get(i)[1];
+		}
+
+		return ret;
+	}
+
+	@Override
+	public void close() {
+		env.reset();
+
+		try (Stream<Path> stream = Files.walk(dir)) {
+			stream.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private final CorpusGenerator generator;
+	private final Path dir;
+	private final ClassEnvironment env;
+	private final Matcher matcher;
+	private final List<ClassInstance[]> classPairs = new ArrayList<>();
+	private final List<MethodInstance[]> methodPairs = new ArrayList<>();
+}
@@ -0,0 +1,654 @@
+package matcher.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import matcher.mapping.IMappingAcceptor;
+
+/**
+ * Generates a reproducible pair of synthetic class file jars from a seed.
+ *
+ * <p>Both versions contain the same classes with the same code, but all class and member names are obfuscated
+ * independently per version. The classes form hierarchies with overridden methods and interfaces, call each other's
+ * static methods, use lambdas and string and numeric constants.
+ *
+ * <p>Version B can additionally be mutated: static methods get moved to other classes, fields get added and the
+ * members get reordered. The ground truth mapping accounts for all of it.
+ */
+public class CorpusGenerator {
+	public CorpusGenerator(long seed, int classCount) {
+		this(seed, classCount, 0);
+	}
+
+	/**
+	 * @param mutationRate probability for each static method to get moved and for each class to get added fields and
+	 * reordered members in version B
+	 */
+	public CorpusGenerator(long seed, int classCount, double mutationRate) {
+		if (classCount <= 0) throw new IllegalArgumentException("invalid class count: "+classCount);
+		if (mutationRate < 0 || mutationRate > 1) throw new IllegalArgumentException("invalid mutation rate: "+mutationRate);
+
+		Random random = new Random(seed);
+
+		for (int i = 0; i < stringPoolSize; i++) {
+			strings.add(createWord(random)+" "+createWord(random));
+		}
+
+		for (int i = 0; i < classCount; i++) {
+			classes.add(createClass(i, random));
+		}
+
+		for (ClassSpec cls : classes) {
+			for (MethodSpec method : cls.methods) {
+				if (method.isStatic && !method.isLambda) staticMethods.add(method);
+			}
+		}
+
+		mutate(new Random(seed * 41), mutationRate);
+
+		for (int version = 0; version < 2; version++) {
+			classNames[version] = createNames(classes.size(), new Random(seed * 31 + version));
+			memberNames[version] = createNames(memberNameCount, new Random(seed * 37 + version));
+		}
+	}
+
+	private ClassSpec createClass(int index, Random random) {
+		ClassSpec ret = new ClassSpec(index);
+		ret.isInterface = index > 0 && random.nextInt(10) == 0;
+
+		if (ret.isInterface) {
+			int methodCount = 1 + random.nextInt(3);
+
+			for (int i = 0; i < methodCount; i++) {
+				ret.methods.add(new MethodSpec(ret, memberNameCount++, false, true, createDesc(random), random.nextLong()));
+			}
+
+			return ret;
+		}
+
+		if (random.nextInt(10) < 4) {
+			ret.superClass = pickClass(random, index, false);
+		}
+
+		if (random.nextInt(10) < 3) {
+			ClassSpec iface = pickClass(random, index, true);
+
+			if (iface != null) {
+				ret.interfaces.add(iface);
+
+				for (MethodSpec method : iface.methods) { // implement all interface methods
+					ret.methods.add(new MethodSpec(ret, method.nameId, false, false, method.desc, random.nextLong()));
+				}
+			}
+		}
+
+		int fieldCount = 1 + random.nextInt(6);
+
+		for (int i = 0; i < fieldCount; i++) {
+			FieldSpec field = new FieldSpec(memberNameCount++, random.nextBoolean());
+
+			switch (random.nextInt(4)) {
+			case 0:
+				field.desc = "I";
+				if (field.isStatic) field.value = random.nextInt(100000);
+				break;
+			case 1:
+				field.desc = "J";
+				if (field.isStatic) field.value = random.nextLong();
+				break;
+			case 2:
+				field.desc = "Ljava/lang/String;";
+				if (field.isStatic) field.value = strings.get(random.nextInt(strings.size()));
+				break;
+			default:
+				field.type = pickClass(random, index, false);
+				if (field.type == null) field.desc = "Ljava/lang/Object;";
+			}
+
+			ret.fields.add(field);
+		}
+
+		int lambdaCount = random.nextInt(10) < 3 ? 1 + random.nextInt(2) : 0;
+
+		for (int i = 0; i < lambdaCount; i++) {
+			MethodSpec lambda = new MethodSpec(ret, memberNameCount++, true, false, "(I)I", random.nextLong());
+			lambda.isLambda = true;
+			ret.methods.add(lambda);
+		}
+
+		int methodCount = 2 + random.nextInt(11);
+
+		for (int i = 0; i < methodCount; i++) {
+			boolean isStatic = random.nextBoolean();
+			MethodSpec overridden = !isStatic && ret.superClass != null && random.nextInt(10) < 3 ? pickInstanceMethod(ret.superClass, random) : null;
+
+			if (overridden != null && !ret.hasMethod(overridden.nameId)) {
+				ret.methods.add(new MethodSpec(ret, overridden.nameId, false, false, overridden.desc, random.nextLong()));
+			} else {
+				ret.methods.add(new MethodSpec(ret, memberNameCount++, isStatic, false, createDesc(random), random.nextLong()));
+			}
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Derive version B's member lists from version A's, applying the mutations.
+	 */
+	private void mutate(Random random, double rate) {
+		for (ClassSpec cls : classes) {
+			cls.fieldsB.addAll(cls.fields);
+		}
+
+		for (ClassSpec cls : classes) {
+			for (MethodSpec method : cls.methods) {
+				if (method.isStatic && !method.isLambda && random.nextDouble() < rate) {
+					ClassSpec target = pickClass(random, classes.size(), false);
+					if (target != null) method.ownerB = target;
+				}
+
+				method.ownerB.methodsB.add(method);
+			}
+		}
+
+		for (ClassSpec cls : classes) {
+			if (cls.isInterface) continue;
+
+			if (random.nextDouble() < rate) {
+				int count = 1 + random.nextInt(2);
+
+				for (int i = 0; i < count; i++) {
+					FieldSpec field = new FieldSpec(memberNameCount++, random.nextBoolean());
+					field.desc = valueDescs[random.nextInt(valueDescs.length)];
+					cls.fieldsB.add(random.nextInt(cls.fieldsB.size() + 1), field);
+				}
+			}
+
+			if (random.nextDouble() < rate) {
+				Collections.shuffle(cls.fieldsB, random);
+				Collections.shuffle(cls.methodsB, random);
+			}
+		}
+	}
+
+	private ClassSpec pickClass(Random random, int limit, boolean isInterface) {
+		limit = Math.min(limit, classes.size());
+
+		for (int attempt = 0; attempt < 8 && limit > 0; attempt++) {
+			ClassSpec ret = classes.get(random.nextInt(limit));
+			if (ret.isInterface == isInterface) return ret;
+		}
+
+		return null;
+	}
+
+	private static MethodSpec pickInstanceMethod(ClassSpec cls, Random random) {
+		List<MethodSpec> candidates = new ArrayList<>();
+
+		for (ClassSpec c = cls; c != null; c = c.superClass) {
+			for (MethodSpec method : c.methods) {
+				if (!method.isStatic) candidates.add(method);
+			}
+		}
+
+		return candidates.isEmpty() ? null : candidates.get(random.nextInt(candidates.size()));
+	}
+
+	private static String createDesc(Random random) {
+		StringBuilder ret = new StringBuilder("(");
+		int argCount = random.nextInt(4);
+
+		for (int i = 0; i < argCount; i++) {
+			ret.append(valueDescs[random.nextInt(valueDescs.length)]);
+		}
+
+		ret.append(')');
+		ret.append(random.nextInt(4) == 0 ? "V" : valueDescs[random.nextInt(valueDescs.length)]);
+
+		return ret.toString();
+	}
+
+	private static String createWord(Random random) {
+		char[] ret = new char[3 + random.nextInt(8)];
+
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = (char) ('a' + random.nextInt(26));
+		}
+
+		return new String(ret);
+	}
+
+	/**
+	 * Create count distinct obfuscated style names in random order.
+	 */
+	private static String[] createNames(int count, Random random) {
+		List<String> names = new ArrayList<>(count);
+
+		for (int i = 0; i < count; i++) {
+			names.add(getObfName(i));
+		}
+
+		Collections.shuffle(names, random);
+
+		return names.toArray(new String[0]);
+	}
+
+	private static String getObfName(int index) {
+		StringBuilder ret = new StringBuilder();
+
+		do {
+			ret.append((char) ('a' + index % 26));
+			index = index / 26 - 1;
+		} while (index >= 0);
+
+		return ret.reverse().toString();
+	}
+
+	public int getClassCount() {
+		return classes.size();
+	}
+
+	/**
+	 * @param version 0 for version A, 1 for version B
+	 */
+	public String getClassName(int version, int classIndex) {
+		return classNames[version][classIndex];
+	}
+
+	/**
+	 * Ground truth class mapping from version A names to version B names.
+	 */
+	public Map<String, String> getClassMapping() {
+		Map<String, String> ret = new LinkedHashMap<>();
+
+		for (ClassSpec cls : classes) {
+			ret.put(getClassName(0, cls.index), getClassName(1, cls.index));
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Supply the ground truth mapping from version A to version B for all classes, methods and fields.
+	 */
+	public void acceptGroundTruth(IMappingAcceptor acceptor) {
+		for (ClassSpec cls : classes) {
+			String nameA = getClassName(0, cls.index);
+			String nameB = getClassName(1, cls.index);
+			acceptor.acceptClass(nameA, nameB);
+
+			for (MethodSpec method : cls.methods) {
+				acceptor.acceptMethod(nameA, memberNames[0][method.nameId], method.desc,
+						getClassName(1, method.ownerB.index), memberNames[1][method.nameId], method.desc);
+			}
+
+			for (FieldSpec field : cls.fields) {
+				acceptor.acceptField(nameA, memberNames[0][field.nameId], getDesc(field, 0), nameB, memberNames[1][field.nameId], getDesc(field, 1));
+			}
+		}
+	}
+
+	public void write(Path jarA, Path jarB) throws IOException {
+		writeJar(jarA, 0);
+		writeJar(jarB, 1);
+	}
+
+	private void writeJar(Path file, int version) throws IOException {
+		try (OutputStream os = Files.newOutputStream(file);
+				JarOutputStream jos = new JarOutputStream(os)) {
+			for (ClassSpec cls : classes) {
+				jos.putNextEntry(new JarEntry(getClassName(version, cls.index)+".class"));
+				jos.write(emitClass(cls, version));
+				jos.closeEntry();
+			}
+		}
+	}
+
+	private byte[] emitClass(ClassSpec cls, int version) {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+			@Override
+			protected String getCommonSuperClass(String type1, String type2) {
+				return "java/lang/Object"; // the generated code never merges distinct reference types
+			}
+		};
+
+		String name = getClassName(version, cls.index);
+		String superName = cls.superClass != null ? getClassName(version, cls.superClass.index) : "java/lang/Object";
+		String[] interfaces = new String[cls.interfaces.size()];
+
+		for (int i = 0; i < interfaces.length; i++) {
+			interfaces[i] = getClassName(version, cls.interfaces.get(i).index);
+		}
+
+		int access = Opcodes.ACC_PUBLIC | (cls.isInterface ? Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT : Opcodes.ACC_SUPER);
+		cw.visit(Opcodes.V1_8, access, name, null, superName, interfaces);
+
+		for (FieldSpec field : version == 0 ? cls.fields : cls.fieldsB) {
+			cw.visitField(Opcodes.ACC_PUBLIC | (field.isStatic ? Opcodes.ACC_STATIC : 0),
+					memberNames[version][field.nameId], getDesc(field, version), null, field.value).visitEnd();
+		}
+
+		if (!cls.isInterface) {
+			MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+			mv.visitCode();
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			mv.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+			mv.visitInsn(Opcodes.RETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		}
+
+		for (MethodSpec method : version == 0 ? cls.methods : cls.methodsB) {
+			emitMethod(cw, method, version);
+		}
+
+		cw.visitEnd();
+
+		return cw.toByteArray();
+	}
+
+	private String getDesc(FieldSpec field, int version) {
+		return field.type != null ? "L"+getClassName(version, field.type.index)+";" : field.desc;
+	}
+
+	private void emitMethod(ClassWriter cw, MethodSpec method, int version) {
+		int access = (method.isLambda ? Opcodes.ACC_PRIVATE | Opcodes.ACC_SYNTHETIC : Opcodes.ACC_PUBLIC)
+				| (method.isStatic ? Opcodes.ACC_STATIC : 0) | (method.isAbstract ? Opcodes.ACC_ABSTRACT : 0);
+		MethodVisitor mv = cw.visitMethod(access, memberNames[version][method.nameId], method.desc, null, null);
+
+		if (!method.isAbstract) {
+			mv.visitCode();
+			emitBody(mv, method, version);
+			mv.visitMaxs(0, 0);
+		}
+
+		mv.visitEnd();
+	}
+
+	/**
+	 * Emit a random but version independent method body, the int local acc accumulates all intermediate results.
+	 *
+	 * <p>The body only references its class' private lambdas and instance methods from instance methods, static methods
+	 * remain valid when moved to another class.
+	 */
+	private void emitBody(MethodVisitor mv, MethodSpec method, int version) {
+		Random random = new Random(method.bodySeed);
+		ClassSpec cls = method.owner;
+		String owner = getClassName(version, cls.index);
+		int acc = 0;
+
+		if (!method.isStatic) acc++;
+
+		for (Type arg : Type.getArgumentTypes(method.desc)) {
+			acc += arg.getSize();
+		}
+
+		mv.visitInsn(Opcodes.ICONST_0);
+		mv.visitVarInsn(Opcodes.ISTORE, acc);
+
+		int statements = 2 + random.nextInt(8);
+
+		for (int i = 0; i < statements; i++) {
+			switch (random.nextInt(7)) {
+			case 0: // arithmetic
+				mv.visitVarInsn(Opcodes.ILOAD, acc);
+				mv.visitLdcInsn(random.nextInt(1000));
+				mv.visitInsn(arithmeticOps[random.nextInt(arithmeticOps.length)]);
+				mv.visitVarInsn(Opcodes.ISTORE, acc);
+				break;
+			case 1: // string constant
+				mv.visitLdcInsn(strings.get(random.nextInt(strings.size())));
+				mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+				addToAcc(mv, acc);
+				break;
+			case 2: { // static call
+				MethodSpec target = staticMethods.isEmpty() ? null : staticMethods.get(random.nextInt(staticMethods.size()));
+				if (target == null) break;
+
+				pushArgs(mv, target.desc, random);
+				mv.visitMethodInsn(Opcodes.INVOKESTATIC, getClassName(version, target.getOwner(version).index), memberNames[version][target.nameId], target.desc, false);
+				consumeResult(mv, Type.getReturnType(target.desc), acc);
+				break;
+			}
+			case 3: { // static int field access
+				FieldSpec field = pickField(cls, true, random);
+				if (field == null) break;
+
+				mv.visitFieldInsn(Opcodes.GETSTATIC, owner, memberNames[version][field.nameId], "I");
+				mv.visitVarInsn(Opcodes.ILOAD, acc);
+				mv.visitInsn(Opcodes.IADD);
+				mv.visitFieldInsn(Opcodes.PUTSTATIC, owner, memberNames[version][field.nameId], "I");
+				break;
+			}
+			case 4: { // counting loop
+				int counter = acc + 1;
+				Label start = new Label();
+				Label end = new Label();
+
+				mv.visitInsn(Opcodes.ICONST_0);
+				mv.visitVarInsn(Opcodes.ISTORE, counter);
+				mv.visitLabel(start);
+				mv.visitVarInsn(Opcodes.ILOAD, counter);
+				mv.visitLdcInsn(2 + random.nextInt(100));
+				mv.visitJumpInsn(Opcodes.IF_ICMPGE, end);
+				mv.visitVarInsn(Opcodes.ILOAD, acc);
+				mv.visitVarInsn(Opcodes.ILOAD, counter);
+				mv.visitInsn(Opcodes.IADD);
+				mv.visitVarInsn(Opcodes.ISTORE, acc);
+				mv.visitIincInsn(counter, 1);
+				mv.visitJumpInsn(Opcodes.GOTO, start);
+				mv.visitLabel(end);
+				break;
+			}
+			case 5: { // instance call on this
+				if (method.isStatic) break;
+
+				MethodSpec target = pickInstanceMethod(cls, random);
+				if (target == null || target == method) break;
+
+				mv.visitVarInsn(Opcodes.ALOAD, 0);
+				pushArgs(mv, target.desc, random);
+				mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, owner, memberNames[version][target.nameId], target.desc, false);
+				consumeResult(mv, Type.getReturnType(target.desc), acc);
+				break;
+			}
+			default: { // lambda application
+				if (method.isStatic) break;
+
+				MethodSpec lambda = pickLambda(cls, random);
+				if (lambda == null) break;
+
+				mv.visitInvokeDynamicInsn("applyAsInt", "()Ljava/util/function/IntUnaryOperator;", lambdaBootstrap,
+						Type.getType("(I)I"),
+						new Handle(Opcodes.H_INVOKESTATIC, owner, memberNames[version][lambda.nameId], lambda.desc, false),
+						Type.getType("(I)I"));
+				mv.visitVarInsn(Opcodes.ILOAD, acc);
+				mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/function/IntUnaryOperator", "applyAsInt", "(I)I", true);
+				mv.visitVarInsn(Opcodes.ISTORE, acc);
+			}
+			}
+		}
+
+		emitReturn(mv, Type.getReturnType(method.desc), acc, random);
+	}
+
+	private static MethodSpec pickLambda(ClassSpec cls, Random random) {
+		int count = 0;
+
+		for (MethodSpec method : cls.methods) {
+			if (method.isLambda) count++;
+		}
+
+		if (count == 0) return null;
+
+		int index = random.nextInt(count);
+
+		for (MethodSpec method : cls.methods) {
+			if (method.isLambda && index-- == 0) return method;
+		}
+
+		throw new IllegalStateException();
+	}
+
+	private static FieldSpec pickField(ClassSpec cls, boolean isStatic, Random random) {
+		for (int attempt = 0; attempt < 4; attempt++) {
+			FieldSpec field = cls.fields.get(random.nextInt(cls.fields.size()));
+			if (field.isStatic == isStatic && "I".equals(field.desc)) return field;
+		}
+
+		return null;
+	}
+
+	private void pushArgs(MethodVisitor mv, String desc, Random random) {
+		for (Type arg : Type.getArgumentTypes(desc)) {
+			pushValue(mv, arg, random);
+		}
+	}
+
+	private void pushValue(MethodVisitor mv, Type type, Random random) {
+		switch (type.getSort()) {
+		case Type.INT:
+			mv.visitLdcInsn(random.nextInt(1000));
+			break;
+		case Type.LONG:
+			mv.visitLdcInsn((long) random.nextInt(100000));
+			break;
+		default:
+			mv.visitLdcInsn(strings.get(random.nextInt(strings.size())));
+		}
+	}
+
+	private static void consumeResult(MethodVisitor mv, Type type, int acc) {
+		switch (type.getSort()) {
+		case Type.VOID:
+			break;
+		case Type.INT:
+			addToAcc(mv, acc);
+			break;
+		case Type.LONG:
+			mv.visitInsn(Opcodes.L2I);
+			addToAcc(mv, acc);
+			break;
+		default:
+			mv.visitInsn(Opcodes.POP);
+		}
+	}
+
+	private static void addToAcc(MethodVisitor mv, int acc) {
+		mv.visitVarInsn(Opcodes.ILOAD, acc);
+		mv.visitInsn(Opcodes.IADD);
+		mv.visitVarInsn(Opcodes.ISTORE, acc);
+	}
+
+	private void emitReturn(MethodVisitor mv, Type type, int acc, Random random) {
+		switch (type.getSort()) {
+		case Type.VOID:
+			mv.visitInsn(Opcodes.RETURN);
+			break;
+		case Type.INT:
+			mv.visitVarInsn(Opcodes.ILOAD, acc);
+			mv.visitInsn(Opcodes.IRETURN);
+			break;
+		case Type.LONG:
+			mv.visitVarInsn(Opcodes.ILOAD, acc);
+			mv.visitInsn(Opcodes.I2L);
+			mv.visitInsn(Opcodes.LRETURN);
+			break;
+		default:
+			mv.visitLdcInsn(strings.get(random.nextInt(strings.size())));
+			mv.visitInsn(Opcodes.ARETURN);
+		}
+	}
+
+	private static final class ClassSpec {
+		ClassSpec(int index) {
+			this.index = index;
+		}
+
+		boolean hasMethod(int nameId) {
+			for (MethodSpec method : methods) {
+				if (method.nameId == nameId) return true;
+			}
+
+			return false;
+		}
+
+		final int index;
+		boolean isInterface;
+		ClassSpec superClass;
+		final List<ClassSpec> interfaces = new ArrayList<>();
+		final List<FieldSpec> fields = new ArrayList<>();
+		final List<MethodSpec> methods = new ArrayList<>();
+		final List<FieldSpec> fieldsB = new ArrayList<>();
+		final List<MethodSpec> methodsB = new ArrayList<>();
+	}
+
+	private static final class FieldSpec {
+		FieldSpec(int nameId, boolean isStatic) {
+			this.nameId = nameId;
+			this.isStatic = isStatic;
+		}
+
+		final int nameId;
+		final boolean isStatic;
+		String desc;
+		ClassSpec type;
+		Object value;
+	}
+
+	private static final class MethodSpec {
+		MethodSpec(ClassSpec owner, int nameId, boolean isStatic, boolean isAbstract, String desc, long bodySeed) {
+			this.owner = owner;
+			this.nameId = nameId;
+			this.isStatic = isStatic;
+			this.isAbstract = isAbstract;
+			this.desc = desc;
+			this.bodySeed = bodySeed;
+			this.ownerB = owner;
+		}
+
+		ClassSpec getOwner(int version) {
+			return version == 0 ? owner : ownerB;
+		}
+
+		final ClassSpec owner;
+		final int nameId;
+		final boolean isStatic;
+		final boolean isAbstract;
+		final String desc;
+		final long bodySeed;
+		ClassSpec ownerB;
+		boolean isLambda;
+	}
+
+	private static final int stringPoolSize = 512;
+	private static final String[] valueDescs = { "I", "J", "Ljava/lang/String;" };
+	private static final int[] arithmeticOps = { Opcodes.IADD, Opcodes.ISUB, Opcodes.IMUL, Opcodes.IXOR, Opcodes.IOR };
+	private static final Handle lambdaBootstrap = new Handle(Opcodes.H_INVOKESTATIC, "java/lang/invoke/LambdaMetafactory", "metafactory",
+			"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;",
+			false);
+
+	private final List<String> strings = new ArrayList<>();
+	private final List<ClassSpec> classes = new ArrayList<>();
+	private final List<MethodSpec> staticMethods = new ArrayList<>();
+	private final String[][] classNames = new String[2][];
+	private final String[][] memberNames = new String[2][];
+	private int memberNameCount;
+}
@@ -0,0 +1,258 @@
+package matcher.bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
+import java.util.stream.Stream;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import matcher.Matcher;
+import matcher.ProjectConfig;
+import matcher.classifier.ClassifierLevel;
+import matcher.mapping.IMappingAcceptor;
+import matcher.type.ClassEnvironment;
+import matcher.type.ClassInstance;
+import matcher.type.FieldInstance;
+import matcher.type.MethodInstance;
+
+/**
+ * End to end benchmark of the console matcher's initial pass on a generated corpus.
+ *
+ * <p>Times the class environment init, each auto match stage and saving/loading the matches, then reports the
+ * throughput together with precision and recall against the generator's ground truth, so speedups that hurt the
+ * matching quality show up. Every run uses a fresh environment, the first runs include JIT warmup.
+ */
+public class MacroBenchmark {
+	public static void main(String[] args) throws IOException {
+		OptionParser parser = new OptionParser();
+		OptionSpec<Integer> classesOpt = parser.accepts("classes", "Generated class count").withRequiredArg().ofType(Integer.class).defaultsTo(1000);
+		OptionSpec<Long> seedOpt = parser.accepts("seed", "Generator seed").withRequiredArg().ofType(Long.class).defaultsTo(1L);
+		OptionSpec<Double> mutationOpt = parser.accepts("mutation-rate", "Version B mutation rate").withRequiredArg().ofType(Double.class).defaultsTo(0.1);
+		OptionSpec<Integer> runsOpt = parser.accepts("runs", "Number of runs").withRequiredArg().ofType(Integer.class).defaultsTo(3);
+		OptionSpec<?> help = parser.accepts("help").forHelp();
+
+		OptionSet options = parser.parse(args);
+
+		if (options.has(help)) {
+			parser.printHelpOn(System.out);
+			return;
+		}
+
+		CorpusGenerator generator = new CorpusGenerator(options.valueOf(seedOpt), options.valueOf(classesOpt), options.valueOf(mutationOpt));
+		Path dir = Files.createTempDirectory("matcher-macro");
+
+		try {
+			ProjectConfig config = new ProjectConfig();
+			config.getPathsA().add(dir.resolve("a.jar"));
+			config.getPathsB().add(dir.resolve("b.jar"));
+			generator.write(config.getPathsA().get(0), config.getPathsB().get(0));
+
+			Matcher.init();
+
+			int runs = options.valueOf(runsOpt);
+
+			for (int run = 1; run <= runs; run++) {
+				MacroBenchmark benchmark = new MacroBenchmark(generator, config, dir.resolve("matches.txt"));
+				benchmark.run();
+				benchmark.printReport(run);
+			}
+		} finally {
+			try (Stream<Path> stream = Files.walk(dir)) {
+				stream.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+			}
+		}
+	}
+
+	private MacroBenchmark(CorpusGenerator generator, ProjectConfig config, Path matchesFile) {
+		this.generator = generator;
+		this.config = config;
+		this.matchesFile = matchesFile;
+	}
+
+	private void run() {
+		ClassEnvironment env = new ClassEnvironment();
+		env.setFeatureCacheEnabled(false); // init has to time the cold class processing
+		Matcher matcher = new Matcher(env);
+
+		time("init", () -> {
+			matcher.init(config, progress);
+			return true;
+		});
+
+		time("perfect enums", () -> {
+			matcher.autoMatchPerfectEnums(progress);
+			return true;
+		});
+		if (matcher.isAnchorMatchingEnabled()) time("anchors", () -> matcher.autoMatchAnchors(progress));
+
+		// same stages and thresholds as ConsoleMatcher's initial pass
+		if (time("classes", () -> matcher.autoMatchClasses(ClassifierLevel.Initial, absThreshold, relThreshold, progress))) {
+			time("classes", () -> matcher.autoMatchClasses(ClassifierLevel.Initial, absThreshold, relThreshold, progress));
+		}
+
+		autoMatchLevel(matcher, ClassifierLevel.Intermediate);
+		autoMatchLevel(matcher, ClassifierLevel.Full);
+		autoMatchLevel(matcher, ClassifierLevel.Extra);
+
+		while (time("method args", () -> matcher.autoMatchMethodArgs(ClassifierLevel.Full, absThreshold, relThreshold, progress))) { }
+
+		env.getCache().clear();
+
+		time("duds", () -> {
+			matcher.unMatchDuds(absThreshold, relThreshold, progress);
+			return true;
+		});
+		time("propagate names", () -> matcher.propagateNames(progress));
+
+		evaluate(env);
+
+		time("save", () -> {
+			try {
+				return matcher.saveMatches(matchesFile);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+
+		env.reset();
+
+		// the fresh environment's init isn't part of the load time
+		ClassEnvironment loadEnv = new ClassEnvironment();
+		loadEnv.setFeatureCacheEnabled(false);
+		Matcher loadMatcher = new Matcher(loadEnv);
+		loadMatcher.init(config, progress);
+
+		time("load", () -> {
+			loadMatcher.readMatches(matchesFile, null, progress);
+			return true;
+		});
+
+		int loadedClasses = loadMatcher.getStatus(true).matchedClassCount;
+		loadEnv.reset();
+
+		if (loadedClasses != classes.matched) {
+			throw new IllegalStateException("loaded "+loadedClasses+" class matches, saved "+classes.matched);
+		}
+	}
+
+	private void autoMatchLevel(Matcher matcher, ClassifierLevel level) {
+		boolean matchedAny;
+		boolean matchedClassesBefore = true;
+
+		do {
+			matchedAny = time("methods", () -> matcher.autoMatchMethods(level, absThreshold, relThreshold, progress));
+			matchedAny |= time("fields", () -> matcher.autoMatchFields(level, absThreshold, relThreshold, progress));
+
+			if (!matchedAny && !matchedClassesBefore) {
+				break;
+			}
+
+			matchedAny |= matchedClassesBefore = time("classes", () -> matcher.autoMatchClasses(level, absThreshold, relThreshold, progress));
+		} while (matchedAny);
+	}
+
+	private boolean time(String stage, BooleanSupplier op) {
+		long start = System.nanoTime();
+		boolean ret = op.getAsBoolean();
+		stageNanos.merge(stage, System.nanoTime() - start, Long::sum);
+
+		return ret;
+	}
+
+	/**
+	 * Compare the matches of all A side entities with the ground truth.
+	 */
+	private void evaluate(ClassEnvironment env) {
+		generator.acceptGroundTruth(new IMappingAcceptor() {
+			@Override
+			public void acceptClass(String srcName, String dstName) {
+				ClassInstance a = env.getLocalClsByNameA(srcName);
+				classes.add(a.getMatch(), env.getLocalClsByNameB(dstName));
+			}
+
+			@Override
+			public void acceptMethod(String srcClsName, String srcName, String srcDesc, String dstClsName, String dstName, String dstDesc) {
+				MethodInstance a = env.getLocalClsByNameA(srcClsName).getMethod(srcName, srcDesc);
+				methods.add(a.getMatch(), env.getLocalClsByNameB(dstClsName).getMethod(dstName, dstDesc));
+			}
+
+			@Override
+			public void acceptField(String srcClsName, String srcName, String srcDesc, String dstClsName, String dstName, String dstDesc) {
+				FieldInstance a = env.getLocalClsByNameA(srcClsName).getField(srcName, srcDesc);
+				fields.add(a.getMatch(), env.getLocalClsByNameB(dstClsName).getField(dstName, dstDesc));
+			}
+
+			@Override
+			public void acceptClassComment(String srcName, String comment) { }
+			@Override
+			public void acceptMethodComment(String srcClsName, String srcName, String srcDesc, String comment) { }
+			@Override
+			public void acceptMethodArg(String srcClsName, String srcName, String srcDesc, int argIndex, int lvtIndex, String dstArgName) { }
+			@Override
+			public void acceptFieldComment(String srcClsName, String srcName, String srcDesc, String comment) { }
+		});
+	}
+
+	private void printReport(int run) {
+		long matchNanos = 0;
+
+		for (Map.Entry<String, Long> entry : stageNanos.entrySet()) {
+			if (!nonMatchingStages.contains(entry.getKey())) matchNanos += entry.getValue();
+		}
+
+		System.out.printf("run %d: %d classes, %.1f classes/s matching throughput%n", run, generator.getClassCount(), generator.getClassCount() / (matchNanos / 1e9));
+
+		for (Map.Entry<String, Long> entry : stageNanos.entrySet()) {
+			System.out.printf("  %-16s %10.1f ms%n", entry.getKey(), entry.getValue() / 1e6);
+		}
+
+		classes.print("classes");
+		methods.print("methods");
+		fields.print("fields");
+	}
+
+	private static final class Accuracy {
+		void add(Object match, Object expected) {
+			if (expected == null) throw new IllegalStateException("missing ground truth entity");
+
+			total++;
+
+			if (match != null) {
+				matched++;
+				if (match == expected) correct++;
+			}
+		}
+
+		void print(String kind) {
+			System.out.printf("  %-8s precision %6.2f%%, recall %6.2f%% (%d correct, %d matched, %d total)%n",
+					kind, matched == 0 ? 100 : 100. * correct / matched, total == 0 ? 100 : 100. * correct / total, correct, matched, total);
+		}
+
+		int total;
+		int matched;
+		int correct;
+	}
+
+	private static final double absThreshold = 0.9;
+	private static final double relThreshold = 0.045;
+	private static final Collection<String> nonMatchingStages = Arrays.asList("init", "save", "load");
+	private static final DoubleConsumer progress = ignore -> { };
+
+	private final CorpusGenerator generator;
+	private final ProjectConfig config;
+	private final Path matchesFile;
+	private final Map<String, Long> stageNanos = new LinkedHashMap<>();
+	private final Accuracy classes = new Accuracy();
+	private final Accuracy methods = new Accuracy();
+	private final Accuracy fields = new Accuracy();
+}
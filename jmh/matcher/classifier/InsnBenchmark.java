@@ -0,0 +1,68 @@
+package matcher.classifier;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import matcher.CancelToken;
+import matcher.bench.BenchmarkFixture;
+import matcher.type.MethodInstance;
+
+/**
+ * Instruction comparison and mapping for the matched method pair with the most instructions, bypassing the cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InsnBenchmark {
+	@Setup(Level.Trial)
+	public void setup() {
+		fixture = BenchmarkFixture.create(seed, classCount, true);
+
+		for (MethodInstance[] pair : fixture.getMethodPairs()) {
+			if (methodA == null || pair[0].getInsnTokens().size() > methodA.getInsnTokens().size()) {
+				methodA = pair[0];
+				methodB = pair[1];
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		fixture.close();
+	}
+
+	@Benchmark
+	public double compareInsns() {
+		return ClassifierUtil.compareInsns(methodA.getInsnTokens(), methodB.getInsnTokens(), CancelToken.NONE);
+	}
+
+	@Benchmark
+	public int[] mapInsns() {
+		return ClassifierUtil.mapInsnsUncached(methodA, methodB, CancelToken.NONE);
+	}
+
+	@Param("200")
+	public int classCount;
+	@Param("1")
+	public long seed;
+
+	private BenchmarkFixture fixture;
+	private MethodInstance methodA;
+	private MethodInstance methodB;
+}
@@ -0,0 +1,83 @@
+package matcher.classifier;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import matcher.bench.BenchmarkFixture;
+import matcher.classifier.MatchingCache.CacheToken;
+import matcher.type.ClassInstance;
+
+/**
+ * MatchingCache.compute overhead with a trivial value function.
+ *
+ * <p>The hit path repeatedly looks up one resident pair, the miss path cycles through all class pair combinations
+ * with a cache too small to hold them, so every call loads, inserts and evicts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatchingCacheBenchmark {
+	@Setup(Level.Trial)
+	public void setup() {
+		fixture = BenchmarkFixture.create(seed, classCount, false);
+		classesA = new ClassInstance[fixture.getClassPairs().size()];
+
+		for (int i = 0; i < classesA.length; i++) {
+			classesA[i] = fixture.getClassPairs().get(i)[0];
+		}
+
+		hitCache.compute(token, classesA[0], classesA[1], MatchingCacheBenchmark::load);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		fixture.close();
+	}
+
+	@Benchmark
+	public Integer hit() {
+		return hitCache.compute(token, classesA[0], classesA[1], MatchingCacheBenchmark::load);
+	}
+
+	@Benchmark
+	public Integer miss() {
+		ClassInstance a = classesA[next % classesA.length];
+		ClassInstance b = classesA[next / classesA.length];
+		next = (next + 1) % (classesA.length * classesA.length);
+
+		return missCache.compute(token, a, b, MatchingCacheBenchmark::load);
+	}
+
+	private static Integer load(ClassInstance a, ClassInstance b) {
+		return a.getIntId() ^ b.getIntId();
+	}
+
+	private static final CacheToken<Integer> token = new CacheToken<>("benchmark");
+
+	@Param("200")
+	public int classCount;
+	@Param("1")
+	public long seed;
+
+	private BenchmarkFixture fixture;
+	private ClassInstance[] classesA;
+	private final MatchingCache hitCache = new MatchingCache();
+	private final MatchingCache missCache = new MatchingCache(64 << 10);
+	private int next;
+}
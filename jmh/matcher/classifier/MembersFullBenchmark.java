@@ -0,0 +1,64 @@
+package matcher.classifier;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import matcher.CancelToken;
+import matcher.bench.BenchmarkFixture;
+import matcher.type.ClassInstance;
+
+/**
+ * The "members full" class classifier, which ranks all methods and fields of a class pair, cycling through the
+ * matched class pairs with an empty cache per iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MembersFullBenchmark {
+	@Setup(Level.Trial)
+	public void setup() {
+		fixture = BenchmarkFixture.create(seed, classCount, true);
+	}
+
+	@Setup(Level.Iteration)
+	public void clearCache() {
+		fixture.getEnv().getCache().clear();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		fixture.close();
+	}
+
+	@Benchmark
+	public double membersFull() {
+		ClassInstance[] pair = fixture.getClassPairs().get(next);
+		next = (next + 1) % fixture.getClassPairs().size();
+
+		return ClassClassifier.membersFull.getScore(pair[0], pair[1], fixture.getEnv(), CancelToken.NONE);
+	}
+
+	@Param("200")
+	public int classCount;
+	@Param("1")
+	public long seed;
+
+	private BenchmarkFixture fixture;
+	private int next;
+}
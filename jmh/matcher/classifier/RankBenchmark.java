@@ -0,0 +1,81 @@
+package matcher.classifier;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import matcher.CancelToken;
+import matcher.bench.BenchmarkFixture;
+import matcher.type.ClassInstance;
+import matcher.type.MethodInstance;
+
+/**
+ * Ranks one source class or method against all candidates per operation, cycling through the generated classes.
+ *
+ * <p>The matching cache is cleared before every iteration, later invocations within an iteration may hit it like they
+ * would during auto matching.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RankBenchmark {
+	@Setup(Level.Trial)
+	public void setup() {
+		fixture = BenchmarkFixture.create(seed, classCount, true);
+		dstClasses = fixture.getClassesB();
+	}
+
+	@Setup(Level.Iteration)
+	public void clearCache() {
+		fixture.getEnv().getCache().clear();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		fixture.close();
+	}
+
+	@Benchmark
+	public List<RankResult<ClassInstance>> rankClass() {
+		ClassInstance src = fixture.getClassPairs().get(nextClass)[0];
+		nextClass = (nextClass + 1) % dstClasses.length;
+
+		return ClassClassifier.rank(src, dstClasses, level, fixture.getEnv(), true, CancelToken.NONE);
+	}
+
+	@Benchmark
+	public List<RankResult<MethodInstance>> rankMethod() {
+		MethodInstance src = fixture.getMethodPairs().get(nextMethod)[0];
+		nextMethod = (nextMethod + 1) % fixture.getMethodPairs().size();
+
+		return MethodClassifier.rank(src, src.getCls().getMatch().getMethods(), level, fixture.getEnv(), CancelToken.NONE);
+	}
+
+	@Param({ "Initial", "Intermediate", "Full", "Extra" })
+	public ClassifierLevel level;
+	@Param("200")
+	public int classCount;
+	@Param("1")
+	public long seed;
+
+	private BenchmarkFixture fixture;
+	private ClassInstance[] dstClasses;
+	private int nextClass;
+	private int nextMethod;
+}
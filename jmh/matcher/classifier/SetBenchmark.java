@@ -0,0 +1,86 @@
+package matcher.classifier;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import matcher.bench.BenchmarkFixture;
+import matcher.type.ClassInstance;
+
+/**
+ * Set comparisons on the generated classes: exact and sketched string sets and the identity based class set
+ * comparison of the matched class pair with the most outgoing references.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SetBenchmark {
+	@Setup(Level.Trial)
+	public void setup() {
+		fixture = BenchmarkFixture.create(seed, classCount, true);
+
+		for (ClassInstance[] pair : fixture.getClassPairs()) {
+			stringsA.addAll(pair[0].getStrings());
+			stringsB.addAll(pair[1].getStrings());
+
+			if (clsA == null || pair[0].getOutRefs().size() > clsA.getOutRefs().size()) {
+				clsA = pair[0];
+				clsB = pair[1];
+			}
+		}
+
+		stringsB.removeIf(s -> (s.hashCode() & 7) == 0); // make the sets differ a bit
+		sketchA = ClassifierUtil.createSetSketch(stringsA);
+		sketchB = ClassifierUtil.createSetSketch(stringsB);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		fixture.close();
+	}
+
+	@Benchmark
+	public double compareSets() {
+		return ClassifierUtil.compareSets(stringsA, stringsB, true);
+	}
+
+	@Benchmark
+	public double compareSetSketches() {
+		return ClassifierUtil.compareSetSketches(stringsA, stringsB, sketchA, sketchB);
+	}
+
+	@Benchmark
+	public double compareClassSets() {
+		return ClassifierUtil.compareClassSets(clsA.getOutRefs(), clsB.getOutRefs(), true, true);
+	}
+
+	@Param("200")
+	public int classCount;
+	@Param("1")
+	public long seed;
+
+	private BenchmarkFixture fixture;
+	private final Set<String> stringsA = new HashSet<>();
+	private final Set<String> stringsB = new HashSet<>();
+	private int[] sketchA;
+	private int[] sketchB;
+	private ClassInstance clsA;
+	private ClassInstance clsB;
+}
@@ -0,0 +1,31 @@
+package matcher;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative cancellation flag for long running matching and ranking operations.
+ *
+ * <p>Workers poll {@link #checkCancelled} at convenient points, which aborts the operation with a CancellationException.
+ */
+public class CancelToken {
+	public void cancel() {
+		if (this == NONE) throw new UnsupportedOperationException("the NONE token can't be cancelled");
+
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public void checkCancelled() {
+		if (cancelled) throw new CancellationException();
+	}
+
+	/**
+	 * Token for operations that can't be cancelled.
+	 */
+	public static final CancelToken NONE = new CancelToken();
+
+	private volatile boolean cancelled;
+}
@@ -5,8 +5,10 @@ import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import joptsimple.util.PathConverter;
 import joptsimple.util.PathProperties;
+import matcher.Matcher.MatchingStatus;
 import matcher.classifier.ClassifierLevel;
 import matcher.classifier.FieldClassifier;
+import matcher.classifier.MatchingCache;
 import matcher.classifier.MethodClassifier;
 import matcher.classifier.RankResult;
 import matcher.type.ClassEnvironment;
@@ -41,6 +43,7 @@ public class ConsoleMatcher {
 		OptionSpec<Path> seedFileOpt = parser.accepts("seed", "matches base file to load").withRequiredArg().withValuesConvertedBy(converterReadable);
 		OptionSpec help = parser.accepts("help").forHelp();
 		OptionSpec allowRematches = parser.accepts("allow-rematch");
+		OptionSpec speculativeOpt = parser.accepts("speculative", "Roll back lower threshold passes that reduce the matched count");
 
 		final OptionSet options = parser.parse(args);
 
@@ -101,6 +104,11 @@ public class ConsoleMatcher {
 		System.out.println("Matching perfect enums");
 		matcher.autoMatchPerfectEnums(simpleProgressListener);
 
+		if (matcher.isAnchorMatchingEnabled()) {
+			System.out.println("Matching unique features");
+			matcher.autoMatchAnchors(simpleProgressListener);
+		}
+
 		System.out.println("Performing initial match (0.9, 0.045)");
 		//matcher.autoMatchAll(simpleProgressListener);
 		autoMatchAll(env, matcher, 0.9, 0.045, simpleProgressListener);
@@ -125,12 +133,24 @@ public class ConsoleMatcher {
 				saveMatches(matcher, outFile);
 				System.out.printf("Performing pass %d at %.2f & %.3f\r\n", pass++, threshold, relThreshold);
 				status = matcher.getStringStatusSummary(true);
-				//matcher.autoMatchAll(simpleProgressListener);
-				autoMatchAll(env, matcher, threshold, relThreshold, simpleProgressListener);
-				System.out.println("Checking duds");
-				matcher.unMatchDuds(threshold, relThreshold, simpleProgressListener);
-				System.out.println("Attempting to match perfect members");
-				env.getClassesA().forEach(cls->matchPerfectMembers(cls, matcher, env));
+				double absPassThreshold = threshold;
+				double relPassThreshold = relThreshold;
+				Runnable matchPass = () -> {
+					//matcher.autoMatchAll(simpleProgressListener);
+					autoMatchAll(env, matcher, absPassThreshold, relPassThreshold, simpleProgressListener);
+					System.out.println("Checking duds");
+					matcher.unMatchDuds(absPassThreshold, relPassThreshold, simpleProgressListener);
+					System.out.println("Attempting to match perfect members");
+					env.getClassesA().forEach(cls->matchPerfectMembers(cls, matcher, env));
+				};
+
+				if (options.has(speculativeOpt)) {
+					// lower thresholds may let in bad matches that unmatch good ones as duds, discard such passes as a whole
+					matcher.runSpeculatively(matchPass, ConsoleMatcher::getMatchedCount);
+				} else {
+					matchPass.run();
+				}
+
 				System.out.println("Propagating names");
 				matcher.propagateNames(simpleProgressListener);
 				System.out.println();
@@ -143,6 +163,12 @@ public class ConsoleMatcher {
 		saveMatches(matcher, outFile);
 	}
 
+	private static double getMatchedCount(Matcher matcher) {
+		MatchingStatus status = matcher.getStatus(true);
+
+		return status.matchedClassCount + status.matchedMethodCount + status.matchedFieldCount + status.matchedMethodArgCount;
+	}
+
 	private static void saveMatches(Matcher matcher, Path outFile){
 		try {
 			matcher.saveMatches(outFile);
@@ -190,7 +216,7 @@ public class ConsoleMatcher {
 		for (MethodInstance m : clsA.getMethods()) {
 			if (m.hasMatch()) continue;
 
-			List<RankResult<MethodInstance>> results = MethodClassifier.rank(m, clsB.getMethods(), ClassifierLevel.Full, env);
+			List<RankResult<MethodInstance>> results = MethodClassifier.rank(m, clsB.getMethods(), ClassifierLevel.Full, env, CancelToken.NONE);
 
 			if (!results.isEmpty() && results.get(0).getScore() >= minScore && (results.size() == 1 || results.get(1).getScore() < minScore)) {
 				MethodInstance match = results.get(0).getSubject();
@@ -215,7 +241,7 @@ public class ConsoleMatcher {
 		for (FieldInstance m : clsA.getFields()) {
 			if (m.hasMatch()) continue;
 
-			List<RankResult<FieldInstance>> results = FieldClassifier.rank(m, clsB.getFields(), ClassifierLevel.Full, env);
+			List<RankResult<FieldInstance>> results = FieldClassifier.rank(m, clsB.getFields(), ClassifierLevel.Full, env, CancelToken.NONE);
 
 			if (!results.isEmpty() && results.get(0).getScore() >= minScore && (results.size() == 1 || results.get(1).getScore() < minScore)) {
 				FieldInstance match = results.get(0).getSubject();
@@ -250,6 +276,7 @@ public class ConsoleMatcher {
 			matchedAny = matcher.autoMatchMethodArgs(ClassifierLevel.Full, absThreshold, relThreshold, progressReceiver);
 		} while (matchedAny);
 
+		if (MatchingCache.isStatsEnabled()) env.getCache().printStats();
 		env.getCache().clear();
 	}
 
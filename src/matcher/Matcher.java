@@ -10,10 +10,12 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.List;
@@ -25,16 +27,26 @@ import java.util.function.Consumer;
 import java.util.function.DoubleConsumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import matcher.classifier.AnchorIndex;
+import matcher.classifier.AnchorIndex.FeatureType;
+import matcher.classifier.ClassCandidateIndex;
+import matcher.classifier.ClassLshIndex;
 import matcher.classifier.ClassClassifier;
 import matcher.classifier.ClassifierLevel;
+import matcher.classifier.ClassifierProfiler;
 import matcher.classifier.FieldClassifier;
 import matcher.classifier.IRanker;
+import matcher.classifier.MatchingCache;
 import matcher.classifier.MethodArgClassifier;
 import matcher.classifier.MethodClassifier;
 import matcher.classifier.RankResult;
+import matcher.classifier.StructuralHash;
+import matcher.classifier.TopRankResult;
 import matcher.mapping.IMappingAcceptor;
 import matcher.mapping.MappingFormat;
 import matcher.mapping.MappingReader;
@@ -45,10 +57,12 @@ import matcher.type.FieldInstance;
 import matcher.type.IClassEnv;
 import matcher.type.IMatchable;
 import matcher.type.InputFile;
+import matcher.type.MatchState;
 import matcher.type.MemberInstance;
 import matcher.type.MethodInstance;
 import matcher.type.MethodVarInstance;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.MethodNode;
 
 public class Matcher {
 	public static void init() {
@@ -63,6 +77,9 @@ public class Matcher {
 	}
 
 	public void init(ProjectConfig config, DoubleConsumer progressReceiver) {
+		classIndex = null;
+		lshIndex = null;
+		checkpoints.clear();
 		env.init(config, progressReceiver);
 
 		matchUnobfuscated();
@@ -82,6 +99,9 @@ public class Matcher {
 
 	public void reset() {
 		env.reset();
+		classIndex = null;
+		lshIndex = null;
+		checkpoints.clear();
 	}
 
 	public ClassifierLevel getAutoMatchLevel() {
@@ -89,6 +109,8 @@ public class Matcher {
 	}
 
 	public void readMatches(Path path, List<Path> inputDirs, DoubleConsumer progressReceiver) {
+		beginBatch();
+
 		try (BufferedReader reader = Files.newBufferedReader(path)) {
 			ParserState state = ParserState.START;
 			List<InputFile> cpFiles = new ArrayList<>();
@@ -272,6 +294,8 @@ public class Matcher {
 			if (state != ParserState.CONTENT) throw new IOException("invalid matches file");
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
+		} finally {
+			commitBatch();
 		}
 	}
 
@@ -695,19 +719,28 @@ public class Matcher {
 		if (Util.DEBUG)
 			System.out.println("match class "+a+" -> "+b+(mappedName != null ? " ("+mappedName+")" : ""));
 
-		if (a.getMatch() != null) {
-			a.getMatch().setMatch(null);
+		ClassInstance prevA = a.getMatch();
+		ClassInstance prevB = b.getMatch();
+		invalidateCache(a, b, prevA, prevB);
+
+		if (prevA != null) {
+			prevA.setMatch(null);
 			unmatchMembers(a);
 		}
 
-		if (b.getMatch() != null) {
-			b.getMatch().setMatch(null);
+		if (prevB != null) {
+			prevB.setMatch(null);
 			unmatchMembers(b);
 		}
 
 		a.setMatch(b);
 		b.setMatch(a);
 
+		updateClassIndex(a);
+		updateClassIndex(b);
+		if (prevA != null) updateClassIndex(prevA);
+		if (prevB != null) updateClassIndex(prevB);
+
 		// match array classes
 
 		if (a.isArray()) {
@@ -729,8 +762,17 @@ public class Matcher {
 			}
 		}
 
-		// match methods that are matched via parents/children
+		if (batchDepth > 0) {
+			pendingClasses.add(a);
+		} else {
+			propagateClassMatch(a, b);
+		}
+	}
 
+	/**
+	 * Match methods that are matched via parents/children.
+	 */
+	private void propagateClassMatch(ClassInstance a, ClassInstance b) {
 		for (MethodInstance src : a.getMethods()) {
 			MethodInstance matchedSrc = src.getMatchedHierarchyMember();
 			if (matchedSrc == null) continue;
@@ -745,18 +787,18 @@ public class Matcher {
 				}
 			}
 		}
-
-		env.getCache().clear();
 	}
 
-	private static void unmatchMembers(ClassInstance cls) {
+	private void unmatchMembers(ClassInstance cls) {
 		for (MethodInstance m : cls.getMethods()) {
 			if (m.getMatch() != null) {
+				invalidateCache(m, m.getMatch());
 				m.getMatch().setMatch(null);
 				m.setMatch(null);
 
 				for (MethodVarInstance arg : m.getArgs()) {
 					if (arg.getMatch() != null) {
+						invalidateCache(arg, arg.getMatch());
 						arg.getMatch().setMatch(null);
 						arg.setMatch(null);
 					}
@@ -766,12 +808,108 @@ public class Matcher {
 
 		for (FieldInstance m : cls.getFields()) {
 			if (m.getMatch() != null) {
+				invalidateCache(m, m.getMatch());
 				m.getMatch().setMatch(null);
 				m.setMatch(null);
 			}
 		}
 	}
 
+	/**
+	 * Evict the cache entries depending on the match state of the supplied entities, null entries are ignored.
+	 */
+	private void invalidateCache(IMatchable<?>... matchables) {
+		for (IMatchable<?> matchable : matchables) {
+			if (batchDepth > 0) {
+				if (matchable != null) pendingInvalidations.add(matchable);
+			} else {
+				env.getCache().invalidate(matchable);
+			}
+		}
+	}
+
+	/**
+	 * Apply many matches at once, hierarchy propagation and cache invalidation run once after all pairs got matched.
+	 */
+	public <T extends IMatchable<T>> void applyMatches(Map<T, T> matches) {
+		if (matches.isEmpty()) return;
+
+		beginBatch();
+
+		try {
+			for (Map.Entry<T, T> entry : matches.entrySet()) {
+				T a = entry.getKey();
+				T b = entry.getValue();
+
+				if (a instanceof ClassInstance) {
+					match((ClassInstance) a, (ClassInstance) b);
+				} else if (a instanceof MethodInstance) {
+					match((MethodInstance) a, (MethodInstance) b);
+				} else if (a instanceof FieldInstance) {
+					match((FieldInstance) a, (FieldInstance) b);
+				} else if (a instanceof MethodVarInstance) {
+					match((MethodVarInstance) a, (MethodVarInstance) b);
+				} else {
+					throw new IllegalArgumentException("unsupported matchable: "+a);
+				}
+			}
+		} finally {
+			commitBatch();
+		}
+	}
+
+	/**
+	 * Start deferring hierarchy propagation and cache invalidation for subsequent match/unmatch calls until the
+	 * matching {@link #commitBatch} call. Batches may be nested, only the outermost commit does the actual work.
+	 */
+	public void beginBatch() {
+		batchDepth++;
+	}
+
+	public void commitBatch() {
+		if (batchDepth <= 0) throw new IllegalStateException("no active batch");
+
+		if (batchDepth > 1) {
+			batchDepth--;
+			return;
+		}
+
+		try {
+			Set<Set<MethodInstance>> propagatedHierarchies = Util.newIdentityHashSet();
+
+			// propagation may match further classes/methods, which get queued again while the batch is still active
+			while (!pendingClasses.isEmpty() || !pendingMethods.isEmpty()) {
+				if (!pendingClasses.isEmpty()) {
+					List<ClassInstance> classes = new ArrayList<>(pendingClasses);
+					pendingClasses.clear();
+
+					for (ClassInstance cls : classes) {
+						if (cls.getMatch() != null) propagateClassMatch(cls, cls.getMatch());
+					}
+				} else {
+					List<MethodInstance> methods = new ArrayList<>(pendingMethods);
+					pendingMethods.clear();
+
+					for (MethodInstance method : methods) {
+						if (method.getMatch() != null && propagatedHierarchies.add(method.getAllHierarchyMembers())) {
+							propagateMethodMatch(method, method.getMatch());
+						}
+					}
+				}
+			}
+		} finally {
+			batchDepth = 0;
+			pendingClasses.clear();
+			pendingMethods.clear();
+
+			for (IMatchable<?> matchable : pendingInvalidations) {
+				env.getCache().invalidate(matchable);
+			}
+
+			pendingInvalidations.clear();
+		}
+	}
+
 	public void match(MethodInstance a, MethodInstance b) {
 		if (a == null) throw new NullPointerException("null method A");
 		if (b == null) throw new NullPointerException("null method B");
@@ -782,6 +920,8 @@ public class Matcher {
 		if (Util.DEBUG)
 			System.out.println("match method "+a+" -> "+b+(mappedName != null ? " ("+mappedName+")" : ""));
 
+		invalidateCache(a, b, a.getMatch(), b.getMatch());
+
 		if (a.getMatch() != null) a.getMatch().setMatch(null);
 		if (b.getMatch() != null) b.getMatch().setMatch(null);
 		// TODO: unmatch vars
@@ -789,11 +929,20 @@ public class Matcher {
 		a.setMatch(b);
 		b.setMatch(a);
 
-		// match parent/child methods
+		if (a.getAllHierarchyMembers().size() <= 1) return;
 
-		Set<MethodInstance> srcHierarchyMembers = a.getAllHierarchyMembers();
-		if (srcHierarchyMembers.size() <= 1) return;
+		if (batchDepth > 0) {
+			pendingMethods.add(a);
+		} else {
+			propagateMethodMatch(a, b);
+		}
+	}
 
+	/**
+	 * Match parent/child methods.
+	 */
+	private void propagateMethodMatch(MethodInstance a, MethodInstance b) {
+		Set<MethodInstance> srcHierarchyMembers = a.getAllHierarchyMembers();
 		IClassEnv reqEnv = a.getCls().getEnv();
 		Set<MethodInstance> dstHierarchyMembers = null;
 
@@ -809,8 +958,6 @@ public class Matcher {
 				}
 			}
 		}
-
-		env.getCache().clear();
 	}
 
 	public void match(FieldInstance a, FieldInstance b) {
@@ -823,13 +970,13 @@ public class Matcher {
 		if (Util.DEBUG)
 			System.out.println("match field "+a+" -> "+b+(mappedName != null ? " ("+mappedName+")" : ""));
 
+		invalidateCache(a, b, a.getMatch(), b.getMatch());
+
 		if (a.getMatch() != null) a.getMatch().setMatch(null);
 		if (b.getMatch() != null) b.getMatch().setMatch(null);
 
 		a.setMatch(b);
 		b.setMatch(a);
-
-		env.getCache().clear();
 	}
 
 	public void match(MethodVarInstance a, MethodVarInstance b) {
@@ -843,13 +990,13 @@ public class Matcher {
 		if (Util.DEBUG)
 			System.out.println("match method arg "+a+" -> "+b+(mappedName != null ? " ("+mappedName+")" : ""));
 
+		invalidateCache(a, b, a.getMatch(), b.getMatch());
+
 		if (a.getMatch() != null) a.getMatch().setMatch(null);
 		if (b.getMatch() != null) b.getMatch().setMatch(null);
 
 		a.setMatch(b);
 		b.setMatch(a);
-
-		env.getCache().clear();
 	}
 
 	public void unmatch(ClassInstance cls) {
@@ -860,9 +1007,14 @@ public class Matcher {
 		if (Util.DEBUG)
 			System.out.println("unmatch class "+cls+" (was "+cls.getMatch()+")"+(mappedName != null ? " ("+mappedName+")" : ""));
 
-		cls.getMatch().setMatch(null);
+		ClassInstance prev = cls.getMatch();
+		invalidateCache(cls, prev);
+		prev.setMatch(null);
 		cls.setMatch(null);
 
+		updateClassIndex(cls);
+		updateClassIndex(prev);
+
 		unmatchMembers(cls);
 
 		if (cls.isArray()) {
@@ -872,8 +1024,159 @@ public class Matcher {
 				unmatch(array);
 			}
 		}
+	}
+
+	/**
+	 * Copy the current matches of both sides, O(entity count).
+	 */
+	public MatchSnapshot createSnapshot() {
+		return new MatchSnapshot(env.getEnvA().getMatchState().createSnapshot(), env.getEnvB().getMatchState().createSnapshot());
+	}
+
+	/**
+	 * Replace all matches with the ones from snapshot in bulk, the mappings are left as-is.
+	 */
+	public void restoreSnapshot(MatchSnapshot snapshot) {
+		if (batchDepth > 0) throw new IllegalStateException("can't restore a snapshot within a batch");
+
+		env.getEnvA().getMatchState().restore(snapshot.a);
+		env.getEnvB().getMatchState().restore(snapshot.b);
 
 		env.getCache().clear();
+		classIndex = null;
+	}
+
+	/**
+	 * Store the current matches under name, replacing any previous checkpoint with the same name.
+	 */
+	public void createCheckpoint(String name) {
+		checkpoints.put(name, createSnapshot());
+	}
+
+	public boolean hasCheckpoint(String name) {
+		return checkpoints.containsKey(name);
+	}
+
+	/**
+	 * Restore the matches stored under name, the checkpoint is kept for further restores.
+	 *
+	 * @return false if there is no such checkpoint
+	 */
+	public boolean restoreCheckpoint(String name) {
+		MatchSnapshot snapshot = checkpoints.get(name);
+		if (snapshot == null) return false;
+
+		restoreSnapshot(snapshot);
+
+		return true;
+	}
+
+	public void removeCheckpoint(String name) {
+		checkpoints.remove(name);
+	}
+
+	/**
+	 * Run pass and roll its changes back in bulk if it lowers the quality as determined by quality.
+	 *
+	 * @return whether the pass' changes were kept
+	 */
+	public boolean runSpeculatively(Runnable pass, ToDoubleFunction<Matcher> quality) {
+		double qualityBefore = quality.applyAsDouble(this);
+		MatchSnapshot snapshot = createSnapshot();
+
+		pass.run();
+
+		double qualityAfter = quality.applyAsDouble(this);
+		if (qualityAfter >= qualityBefore) return true;
+
+		System.out.printf("Rolling back pass, quality %.4f -> %.4f%n", qualityBefore, qualityAfter);
+		restoreSnapshot(snapshot);
+
+		return false;
+	}
+
+	/**
+	 * Keep the candidate index in sync with the match state of a B class, matched classes are only candidates with rematching enabled.
+	 */
+	private void updateClassIndex(ClassInstance cls) {
+		if (classIndex == null || cls.getEnv() != env.getEnvB()) return;
+
+		if (enableRematches || cls.getMatch() == null) {
+			classIndex.add(cls);
+		} else {
+			classIndex.remove(cls);
+		}
+	}
+
+	private ClassCandidateIndex getClassIndex() {
+		if (classIndex == null) {
+			classIndex = new ClassCandidateIndex(env.getClassesB().stream()
+					.filter(cls -> enableRematches || cls.getMatch() == null)
+					.collect(Collectors.toList()));
+		}
+
+		return classIndex;
+	}
+
+	/**
+	 * Whether class ranking at the Initial level and in the gui is limited to the most similar LSH candidates.
+	 */
+	public boolean isLshEnabled() {
+		return lshRecall > 0;
+	}
+
+	/**
+	 * Configure LSH candidate selection, see ClassLshIndex.
+	 *
+	 * @param recall probability to find candidates with a feature similarity of at least 0.5, 0 to disable LSH
+	 * @param maxCandidates max. number of candidates to rank per class
+	 */
+	public void setLsh(double recall, int maxCandidates) {
+		if (recall < 0 || recall >= 1) throw new IllegalArgumentException("invalid recall: "+recall);
+		if (maxCandidates <= 0) throw new IllegalArgumentException("invalid max candidates: "+maxCandidates);
+
+		lshRecall = recall;
+		lshMaxCandidates = maxCandidates;
+		lshIndex = null;
+	}
+
+	private ClassLshIndex getLshIndex() {
+		if (!isLshEnabled()) return null;
+
+		if (lshIndex == null) {
+			lshIndex = new ClassLshIndex(env.getClassesB().stream()
+					.filter(cls -> cls.getUri() != null)
+					.collect(Collectors.toList()), lshRecall, lshMaxCandidates);
+		}
+
+		return lshIndex;
+	}
+
+	/**
+	 * Get the classes from cmpClasses to rank cls against, only the LSH candidates if enabled.
+	 */
+	public ClassInstance[] getClassRankCandidates(ClassInstance cls, Collection<ClassInstance> cmpClasses) {
+		ClassLshIndex index = getLshIndex();
+		List<ClassInstance> candidates = index != null ? index.getCandidates(cls) : null;
+		if (candidates == null) return cmpClasses.toArray(new ClassInstance[0]);
+
+		return candidates.stream()
+				.filter(cmpClasses::contains)
+				.toArray(ClassInstance[]::new);
+	}
+
+	private static double getDefaultLshRecall() {
+		String value = System.getProperty("matcher.lshRecall");
+		if (value == null) return 0;
+
+		try {
+			double ret = Double.parseDouble(value);
+			if (ret >= 0 && ret < 1) return ret;
+		} catch (NumberFormatException e) { }
+
+		System.out.println("invalid matcher.lshRecall value: "+value);
+
+		return 0;
 	}
 
 	public void unmatch(MemberInstance<?> m) {
@@ -890,6 +1193,7 @@ public class Matcher {
 			}
 		}
 
+		invalidateCache(m, m.getMatch());
 		m.getMatch().setMatch(null);
 		m.setMatch(null);
 
@@ -898,8 +1202,6 @@ public class Matcher {
 				unmatch(member);
 			}
 		}
-
-		env.getCache().clear();
 	}
 
 	public void unmatch(MethodVarInstance a) {
@@ -910,10 +1212,9 @@ public class Matcher {
 		if (Util.DEBUG)
 			System.out.println("unmatch method var "+a+" (was "+a.getMatch()+")"+(mappedName != null ? " ("+mappedName+")" : ""));
 
+		invalidateCache(a, a.getMatch());
 		a.getMatch().setMatch(null);
 		a.setMatch(null);
-
-		env.getCache().clear();
 	}
 
 	public void autoMatchPerfectEnums(DoubleConsumer progressReceiver){
@@ -923,43 +1224,227 @@ public class Matcher {
 				.filter(filter)
 				.collect(Collectors.toList());
 
-		ClassInstance[] cmpClasses = env.getClassesB().stream()
-				.filter(filter).toArray(ClassInstance[]::new);
+		// an enum pairs with the last of the enums with the same value set on the other side
+		Map<Set<String>, ClassInstance> cmpClasses = new HashMap<>();
 
-		Map<ClassInstance, ClassInstance> matches = new ConcurrentHashMap<>(classes.size());
+		env.getClassesB().stream()
+				.filter(filter)
+				.forEach(cls -> cmpClasses.put(new HashSet<>(cls.getEnumValues().values()), cls));
+
+		Map<ClassInstance, ClassInstance> matches = new IdentityHashMap<>(classes.size());
+
+		for (ClassInstance cls : classes) {
+			ClassInstance match = cmpClasses.get(new HashSet<>(cls.getEnumValues().values()));
+			if (match != null) matches.put(cls, match);
+		}
+
+		sanitizeMatches(matches);
+		applyAnchorMatches(matches);
+		progressReceiver.accept(1);
+
+		System.out.println("Auto matched "+matches.size()+" enums");
+	}
+
+	/**
+	 * Whether autoMatchAll runs autoMatchAnchors, defaults to the matcher.anchorMatch system property.
+	 */
+	public boolean isAnchorMatchingEnabled() {
+		return anchorMatching;
+	}
 
-		runInParallel(classes, cls -> {
-			Collection<String> valuesA = cls.getEnumValues().values();
-			for (ClassInstance b : cmpClasses){
-				Collection<String> valuesB = b.getEnumValues().values();
-				if (valuesA.containsAll(valuesB) && valuesB.containsAll(valuesA)){
-					matches.put(cls, b);
+	public void setAnchorMatching(boolean enabled) {
+		anchorMatching = enabled;
+	}
+
+	/**
+	 * Match classes sharing a string, enum value set, annotation or numeric constant that occurs in only one input class per side.
+	 */
+	public boolean autoMatchAnchors(DoubleConsumer progressReceiver) {
+		Predicate<ClassInstance> filter = cls -> cls.getUri() != null;
+
+		List<ClassInstance> classesA = env.getClassesA().stream()
+				.filter(filter)
+				.collect(Collectors.toList());
+
+		List<ClassInstance> classesB = env.getClassesB().stream()
+				.filter(filter)
+				.collect(Collectors.toList());
+
+		// the index covers all input classes to tell which features are really unique, only unmatched obfuscated ones are paired
+		Map<ClassInstance, ClassInstance> matches = new AnchorIndex(classesA, classesB, FeatureType.ALL).getAnchors();
+		matches.entrySet().removeIf(e -> !isAnchorCandidate(e.getKey()) || !isAnchorCandidate(e.getValue()));
+
+		sanitizeMatches(matches);
+		applyAnchorMatches(matches);
+		progressReceiver.accept(1);
+
+		System.out.println("Auto matched "+matches.size()+" classes by unique features");
+
+		return !matches.isEmpty();
+	}
+
+	private static boolean isAnchorCandidate(ClassInstance cls) {
+		return cls.isNameObfuscated(false) && !cls.hasMatch() && !cls.isArray();
+	}
+
+	/**
+	 * Match the supplied classes and the fields corresponding to their enum values.
+	 */
+	private void applyAnchorMatches(Map<ClassInstance, ClassInstance> matches) {
+		beginBatch();
+
+		try {
+			for (Map.Entry<ClassInstance, ClassInstance> classEntry : matches.entrySet()) {
+				match(classEntry.getKey(), classEntry.getValue());
+				if (!classEntry.getKey().isEnum() || !classEntry.getValue().isEnum()) continue;
+
+				//for each match, match their fields that correspond to the enum values
+				Map<String,String> valuesA = classEntry.getKey().getEnumValues();
+				Map<String,String> valuesB = classEntry.getValue().getEnumValues();
+				for (Map.Entry<String,String> fieldAEntry : valuesA.entrySet()){
+					if (!valuesB.containsValue(fieldAEntry.getValue())){
+						System.out.println(classEntry.getKey()+" -> "+classEntry.getValue()+" did not contain match for "+fieldAEntry.getValue());
+						continue;
+					}
+					FieldInstance fieldA = classEntry.getKey().getField(fieldAEntry.getKey(), classEntry.getKey().getId());
+					FieldInstance fieldB = classEntry.getValue().getField(valuesB.entrySet().stream().filter(e->e.getValue().equals(fieldAEntry.getValue())).findFirst().orElseThrow(IllegalStateException::new).getKey(), classEntry.getValue().getId());
+					match(fieldA, fieldB);
 				}
 			}
-		}, progressReceiver);
+		} finally {
+			commitBatch();
+		}
+	}
 
-		sanitizeMatches(matches);
+	/**
+	 * Whether autoMatchAll starts with autoMatchIdentical, defaults to the matcher.structuralMatch system property.
+	 */
+	public boolean isStructuralMatchingEnabled() {
+		return structuralMatching;
+	}
+
+	public void setStructuralMatching(boolean enabled) {
+		structuralMatching = enabled;
+	}
+
+	/**
+	 * Match classes and methods whose structural hash is unique on both sides, see StructuralHash.
+	 *
+	 * <p>New matches change the hashes of the classes referencing the matched entities, those get rehashed until no
+	 * further matches are found.
+	 */
+	public boolean autoMatchIdentical(DoubleConsumer progressReceiver) {
+		IClassEnv envA = env.getEnvA();
+		Map<ClassInstance, Long> classHashes = new ConcurrentHashMap<>();
+		Set<ClassInstance> dirty = Util.newIdentityHashSet();
+		dirty.addAll(env.getClassesA());
+		dirty.addAll(env.getClassesB());
+		int classCount = 0;
+		int methodCount = 0;
+		boolean first = true;
+
+		while (!dirty.isEmpty()) {
+			List<ClassInstance> toHash = dirty.stream()
+					.filter(Matcher::isStructuralMatchCandidate)
+					.collect(Collectors.toList());
+
+			runInParallel("structural class hashing", toHash, cls -> 1 + cls.getMethods().length + cls.getFields().length,
+					cls -> classHashes.put(cls, StructuralHash.get(cls, envA)),
+					first ? progressReceiver : ignore -> { });
+			first = false;
+
+			Map<ClassInstance, ClassInstance> classMatches = getUniqueHashMatches(classHashes, envA);
+			applyMatches(classMatches);
+
+			// members of matched class pairs whose hashes may have changed
+			Set<ClassInstance> pairs = Util.newIdentityHashSet();
+
+			for (ClassInstance cls : dirty) {
+				ClassInstance clsA = cls.getEnv() == envA ? cls : cls.getMatch();
+				if (clsA != null && clsA.getUri() != null && clsA.hasMatch()) pairs.add(clsA);
+			}
 
-		//for each match, match their fields that correspond to the enum values
-		for (Map.Entry<ClassInstance, ClassInstance> classEntry : matches.entrySet()) {
-			match(classEntry.getKey(), classEntry.getValue());
-			Map<String,String> valuesA = classEntry.getKey().getEnumValues();
-			Map<String,String> valuesB = classEntry.getValue().getEnumValues();
-			for (Map.Entry<String,String> fieldAEntry : valuesA.entrySet()){
-				if (!valuesB.containsValue(fieldAEntry.getValue())){
-					System.out.println(classEntry.getKey()+" -> "+classEntry.getValue()+" did not contain match for "+fieldAEntry.getValue()+", THIS SHOULD NOT HAPPEN");
-					continue;
+			pairs.addAll(classMatches.keySet());
+
+			Map<MethodInstance, MethodInstance> methodMatches = new ConcurrentHashMap<>();
+
+			runInParallel("structural method hashing", new ArrayList<>(pairs), cls -> cls.getMethods().length + cls.getMatch().getMethods().length, cls -> {
+				Map<MethodInstance, Long> methodHashes = new IdentityHashMap<>();
+
+				for (ClassInstance c : new ClassInstance[] { cls, cls.getMatch() }) {
+					for (MethodInstance method : c.getMethods()) {
+						if (!method.hasMatch() && method.isNameObfuscated(false)) methodHashes.put(method, StructuralHash.get(method, envA));
+					}
 				}
-				FieldInstance fieldA = classEntry.getKey().getField(fieldAEntry.getKey(), classEntry.getKey().getId());
-				FieldInstance fieldB = classEntry.getValue().getField(valuesB.entrySet().stream().filter(e->e.getValue().equals(fieldAEntry.getValue())).findFirst().orElseThrow(IllegalStateException::new).getKey(), classEntry.getValue().getId());
-				fieldA.setMatch(fieldB);
+
+				methodMatches.putAll(getUniqueHashMatches(methodHashes, envA));
+			}, ignore -> { });
+
+			applyMatches(methodMatches);
+
+			classCount += classMatches.size();
+			methodCount += methodMatches.size();
+			dirty.clear();
+
+			// referencing classes have to be rehashed with the new anchors
+			for (Map.Entry<ClassInstance, ClassInstance> entry : classMatches.entrySet()) {
+				dirty.addAll(entry.getKey().getInRefs());
+				dirty.addAll(entry.getValue().getInRefs());
+			}
+
+			for (Map.Entry<MethodInstance, MethodInstance> entry : methodMatches.entrySet()) {
+				for (MethodInstance method : entry.getKey().getRefsIn()) dirty.add(method.getCls());
+				for (MethodInstance method : entry.getValue().getRefsIn()) dirty.add(method.getCls());
 			}
 		}
 
-		System.out.println("Auto matched "+matches.size()+" enums");
+		System.out.println("Auto matched "+classCount+" classes and "+methodCount+" methods by structural hash");
+
+		return classCount > 0 || methodCount > 0;
+	}
+
+	private static boolean isStructuralMatchCandidate(ClassInstance cls) {
+		return cls.getUri() != null
+				&& cls.isNameObfuscated(false)
+				&& !cls.hasMatch()
+				&& (cls.getMethods().length > 0 || cls.getFields().length > 0);
+	}
+
+	/**
+	 * Pair all unmatched entities whose hash occurs exactly once on each side.
+	 */
+	private static <T extends IMatchable<T>> Map<T, T> getUniqueHashMatches(Map<T, Long> hashes, IClassEnv envA) {
+		Map<Long, T> hashesA = new HashMap<>();
+		Map<Long, T> hashesB = new HashMap<>();
+		Set<Long> duplicates = new HashSet<>();
+
+		for (Map.Entry<T, Long> entry : hashes.entrySet()) {
+			T subject = entry.getKey();
+			if (subject.hasMatch()) continue;
+
+			Map<Long, T> sideHashes = subject.getEnv() == envA ? hashesA : hashesB;
+
+			if (sideHashes.putIfAbsent(entry.getValue(), subject) != null) {
+				duplicates.add(entry.getValue());
+			}
+		}
+
+		Map<T, T> ret = new IdentityHashMap<>();
+
+		for (Map.Entry<Long, T> entry : hashesA.entrySet()) {
+			if (duplicates.contains(entry.getKey())) continue;
+
+			T match = hashesB.get(entry.getKey());
+			if (match != null) ret.put(entry.getValue(), match);
+		}
+
+		return ret;
 	}
 
 	public void autoMatchAll(DoubleConsumer progressReceiver) {
+		if (structuralMatching) autoMatchIdentical(progressReceiver);
+		if (anchorMatching) autoMatchAnchors(progressReceiver);
+
 		if (autoMatchClasses(ClassifierLevel.Initial, absClassAutoMatchThreshold, relClassAutoMatchThreshold, progressReceiver)) {
 			autoMatchClasses(ClassifierLevel.Initial, absClassAutoMatchThreshold, relClassAutoMatchThreshold, progressReceiver);
 		}
@@ -974,6 +1459,7 @@ public class Matcher {
 			matchedAny = autoMatchMethodArgs(ClassifierLevel.Full, absMethodArgAutoMatchThreshold, relMethodArgAutoMatchThreshold, progressReceiver);
 		} while (matchedAny);
 
+		if (MatchingCache.isStatsEnabled()) env.getCache().printStats();
 		env.getCache().clear();
 	}
 
@@ -1021,48 +1507,125 @@ public class Matcher {
 				.filter(filter)
 				.collect(Collectors.toList());
 
-		ClassInstance[] cmpClasses = env.getClassesB().stream()
-				.filter(filter).toArray(ClassInstance[]::new);
+		Set<ClassInstance> cmpClasses = env.getClassesB().stream()
+				.filter(filter).collect(Collectors.toCollection(Util::newIdentityHashSet));
 
 		Map<ClassInstance, ClassInstance> matches = new ConcurrentHashMap<>(classes.size());
+		ClassCandidateIndex index = getClassIndex();
+		// anything below can neither pass checkRank's absolute threshold nor prevent the best candidate from passing the relative one
+		double minScore = absThreshold * (1 - relThreshold);
+
+		Map<ClassInstance, ClassInstance[]> candidates = new ConcurrentHashMap<>(classes.size());
+		ClassLshIndex lshIndex = level == ClassifierLevel.Initial ? getLshIndex() : null;
+
+		runInParallel("class candidate lookup", classes, cls -> 1, cls -> {
+			List<ClassInstance> lshCandidates = lshIndex != null ? lshIndex.getCandidates(cls) : null;
+			Set<ClassInstance> lshCandidateSet = lshCandidates != null ? Util.newIdentityHashSet(lshCandidates) : null;
 
-		runInParallel(classes, cls -> {
-			List<RankResult<ClassInstance>> ranking = ClassClassifier.rank(cls, cmpClasses, level, env, enableRematches);
+			candidates.put(cls, index.getCandidates(cls, level, minScore, env).stream()
+					.filter(cmpClasses::contains)
+					.filter(c -> lshCandidateSet == null || lshCandidateSet.contains(c))
+					.toArray(ClassInstance[]::new));
+		}, ignore -> { });
+
+		// split classes with many or expensive candidates into chunks ranked independently, merged afterwards
+		List<ClassRankTask> tasks = new ArrayList<>(classes.size());
+		long totalCost = 0;
+
+		for (ClassInstance cls : classes) {
+			totalCost += getClassRankCost(cls, candidates.get(cls).length);
+		}
+
+		long chunkCost = Math.max(1, totalCost / (env.getScheduler().getParallelism() * 8L));
+
+		for (ClassInstance cls : classes) {
+			ClassInstance[] clsCandidates = candidates.get(cls);
+			if (clsCandidates.length == 0) continue;
+
+			int chunks = (int) Math.min(clsCandidates.length, (getClassRankCost(cls, clsCandidates.length) + chunkCost - 1) / chunkCost);
+			TopRankResult<ClassInstance> result = new TopRankResult<>(2);
+
+			for (int i = 0; i < chunks; i++) {
+				tasks.add(new ClassRankTask(cls, clsCandidates, (int) ((long) clsCandidates.length * i / chunks), (int) ((long) clsCandidates.length * (i + 1) / chunks), result));
+			}
+		}
+
+		runInParallel("class ranking", tasks, task -> getClassRankCost(task.cls, task.end - task.start), task -> {
+			TopRankResult<ClassInstance> ranking = ClassClassifier.rankTopK(task.cls, Arrays.copyOfRange(task.candidates, task.start, task.end), level, env, enableRematches, absThreshold, relThreshold, cancelToken);
+
+			synchronized (task.result) {
+				task.result.addAll(ranking);
+			}
+		}, progressReceiver);
+
+		for (ClassRankTask task : tasks) {
+			if (task.start != 0) continue; // first chunk of each class
+
+			ClassInstance cls = task.cls;
+			TopRankResult<ClassInstance> ranking = task.result;
 
 			if (checkRank(ranking, absThreshold, relThreshold)) {
-				ClassInstance match = ranking.get(0).getSubject();
+				ClassInstance match = ranking.getSubject(0);
 
 				if (!enableRematches || cls.getMatch() != match)
 					matches.put(cls, match);
 			}
-		}, progressReceiver);
+		}
 
 		sanitizeMatches(matches);
-
-		for (Map.Entry<ClassInstance, ClassInstance> entry : matches.entrySet()) {
-			match(entry.getKey(), entry.getValue());
-		}
+		applyMatches(matches);
 
 		System.out.println("Auto matched "+matches.size()+" classes ("+(env.getClassesA().stream().filter(c->c.getMatch()==null).count())+" unmatched, "+env.getClassesA().size()+" total)");
+		ClassifierProfiler.dump("class matching at "+level);
 
 		return !matches.isEmpty();
 	}
 
-	private <T, C> void runInParallel(List<T> workSet, Consumer<T> worker, DoubleConsumer progressReceiver) {
+	private static long getClassRankCost(ClassInstance cls, int candidateCount) {
+		return (long) candidateCount * (1 + cls.getMethods().length + cls.getFields().length);
+	}
+
+	private static long getMemberRankCost(MemberInstance<?> member, int candidateCount) {
+		long cost = 1;
+
+		if (member instanceof MethodInstance) {
+			MethodNode asmNode = ((MethodInstance) member).getAsmNode();
+			if (asmNode != null) cost += asmNode.instructions.size();
+		}
+
+		return candidateCount * cost;
+	}
+
+	private <T> void runInParallel(String name, List<T> workSet, ToLongFunction<? super T> costEstimator, Consumer<? super T> worker, DoubleConsumer progressReceiver) {
 		if (workSet.isEmpty()) return;
 
-		AtomicInteger itemsDone = new AtomicInteger();
-		int updateRate = Math.max(1, workSet.size() / 200);
+		env.getScheduler().run(name, workSet, costEstimator, worker, progressReceiver, cancelToken);
+	}
 
-		workSet.parallelStream().forEach(workItem -> {
-			worker.accept(workItem);
+	public CancelToken getCancelToken() {
+		return cancelToken;
+	}
 
-			int cItemsDone = itemsDone.incrementAndGet();
+	/**
+	 * Set the token checked by the auto-matching operations started afterwards, cancelling it aborts them with a
+	 * CancellationException. Matches applied before the cancellation are kept.
+	 */
+	public void setCancelToken(CancelToken cancelToken) {
+		if (cancelToken == null) throw new NullPointerException("null cancel token");
 
-			if ((cItemsDone % updateRate) == 0) {
-				progressReceiver.accept((double) cItemsDone / workSet.size());
-			}
-		});
+		this.cancelToken = cancelToken;
+	}
+
+	public int getParallelism() {
+		return env.getScheduler().getParallelism();
+	}
+
+	/**
+	 * Set the number of worker threads used for class processing and auto-matching, defaults to the matcher.parallelism
+	 * system property or the number of available processors.
+	 */
+	public void setParallelism(int parallelism) {
+		env.getScheduler().setParallelism(parallelism);
 	}
 
 	public boolean autoMatchMethods(DoubleConsumer progressReceiver) {
@@ -1071,13 +1634,12 @@ public class Matcher {
 
 	public boolean autoMatchMethods(ClassifierLevel level, double absThreshold, double relThreshold, DoubleConsumer progressReceiver) {
 		AtomicInteger totalUnmatched = new AtomicInteger();
-		Map<MethodInstance, MethodInstance> matches = match(level, absThreshold, relThreshold, cls -> cls.getMethods(), MethodClassifier::rank, progressReceiver, totalUnmatched);
+		Map<MethodInstance, MethodInstance> matches = match(level, absThreshold, relThreshold, cls -> cls.getMethods(), MethodClassifier::rankTopK, progressReceiver, totalUnmatched);
 
-		for (Map.Entry<MethodInstance, MethodInstance> entry : matches.entrySet()) {
-			match(entry.getKey(), entry.getValue());
-		}
+		applyMatches(matches);
 
 		System.out.println("Auto matched "+matches.size()+" methods ("+totalUnmatched.get()+" unmatched)");
+		ClassifierProfiler.dump("method matching at "+level);
 
 		return !matches.isEmpty();
 	}
@@ -1088,13 +1650,12 @@ public class Matcher {
 
 	public boolean autoMatchFields(ClassifierLevel level, double absThreshold, double relThreshold, DoubleConsumer progressReceiver) {
 		AtomicInteger totalUnmatched = new AtomicInteger();
-		Map<FieldInstance, FieldInstance> matches = match(level, absThreshold, relThreshold, cls -> cls.getFields(), FieldClassifier::rank, progressReceiver, totalUnmatched);
+		Map<FieldInstance, FieldInstance> matches = match(level, absThreshold, relThreshold, cls -> cls.getFields(), FieldClassifier::rankTopK, progressReceiver, totalUnmatched);
 
-		for (Map.Entry<FieldInstance, FieldInstance> entry : matches.entrySet()) {
-			match(entry.getKey(), entry.getValue());
-		}
+		applyMatches(matches);
 
 		System.out.println("Auto matched "+matches.size()+" fields ("+totalUnmatched.get()+" unmatched)");
+		ClassifierProfiler.dump("field matching at "+level);
 
 		return !matches.isEmpty();
 	}
@@ -1102,38 +1663,26 @@ public class Matcher {
 	private <T extends MemberInstance<T>> Map<T, T> match(ClassifierLevel level, double absThreshold, double relThreshold,
 			Function<ClassInstance, T[]> memberGetter, IRanker<T> ranker,
 			DoubleConsumer progressReceiver, AtomicInteger totalUnmatched) {
-		List<ClassInstance> classes = env.getClassesA().stream()
+		// scheduled per member to avoid classes with many members becoming stragglers
+		List<T> members = env.getClassesA().stream()
 				.filter(cls -> cls.getUri() != null && cls.getMatch() != null && memberGetter.apply(cls).length > 0)
-				.filter(cls -> {
-					for (T member : memberGetter.apply(cls)) {
-						if (member.getMatch() == null) return true;
-					}
-
-					return false;
-				})
+				.flatMap(cls -> Stream.of(memberGetter.apply(cls)))
+				.filter(member -> member.getMatch() == null)
 				.collect(Collectors.toList());
-		if (classes.isEmpty()) return Collections.emptyMap();
+		if (members.isEmpty()) return Collections.emptyMap();
 
 		Map<T, T> ret = new ConcurrentHashMap<>(512);
 
-		runInParallel(classes, cls -> {
-			int unmatched = 0;
-
-			for (T member : memberGetter.apply(cls)) {
-				if (member.getMatch() != null) continue;
+		runInParallel("member ranking", members, member -> getMemberRankCost(member, memberGetter.apply(member.getCls().getMatch()).length), member -> {
+			TopRankResult<T> ranking = ranker.rankTopK(member, memberGetter.apply(member.getCls().getMatch()), level, env, absThreshold, relThreshold, cancelToken);
 
-				List<RankResult<T>> ranking = ranker.rank(member, memberGetter.apply(cls.getMatch()), level, env);
-
-				if (checkRank(ranking, absThreshold, relThreshold)) {
-					T match = ranking.get(0).getSubject();
+			if (checkRank(ranking, absThreshold, relThreshold)) {
+				T match = ranking.getSubject(0);
 
-					ret.put(member, match);
-				} else {
-					unmatched++;
-				}
+				ret.put(member, match);
+			} else {
+				totalUnmatched.incrementAndGet();
 			}
-
-			if (unmatched > 0) totalUnmatched.addAndGet(unmatched);
 		}, progressReceiver);
 
 		sanitizeMatches(ret);
@@ -1166,16 +1715,16 @@ public class Matcher {
 		} else {
 			matches = new ConcurrentHashMap<>(512);
 
-			runInParallel(methods, m -> {
+			runInParallel("method arg ranking", methods, m -> (long) m.getArgs().length * m.getMatch().getArgs().length, m -> {
 				int unmatched = 0;
 
 				for (MethodVarInstance arg : m.getArgs()) {
 					if (arg.getMatch() != null) continue;
 
-					List<RankResult<MethodVarInstance>> ranking = MethodArgClassifier.rank(arg, m.getMatch().getArgs(), level, env);
+					TopRankResult<MethodVarInstance> ranking = MethodArgClassifier.rankTopK(arg, m.getMatch().getArgs(), level, env, absThreshold, relThreshold, cancelToken);
 
 					if (checkRank(ranking, absThreshold, relThreshold)) {
-						MethodVarInstance match = ranking.get(0).getSubject();
+						MethodVarInstance match = ranking.getSubject(0);
 
 						matches.put(arg, match);
 					} else {
@@ -1189,11 +1738,10 @@ public class Matcher {
 			sanitizeMatches(matches);
 		}
 
-		for (Map.Entry<MethodVarInstance, MethodVarInstance> entry : matches.entrySet()) {
-			match(entry.getKey(), entry.getValue());
-		}
+		applyMatches(matches);
 
 		System.out.println("Auto matched "+matches.size()+" method args ("+totalUnmatched.get()+" unmatched)");
+		ClassifierProfiler.dump("method arg matching at "+level);
 
 		return !matches.isEmpty();
 	}
@@ -1212,6 +1760,13 @@ public class Matcher {
 		}
 	}
 
+	public static boolean checkRank(TopRankResult<?> ranking, double absThreshold, double relThreshold) {
+		if (ranking.isEmpty()) return false;
+		if (ranking.getScore(0) < absThreshold) return false;
+
+		return ranking.size() == 1 || ranking.getScore(1) < ranking.getScore(0) * (1 - relThreshold);
+	}
+
 	private static <T> void sanitizeMatches(Map<T, T> matches) {
 		Set<T> matched = Collections.newSetFromMap(new IdentityHashMap<>(matches.size()));
 		Set<T> conflictingMatches = Collections.newSetFromMap(new IdentityHashMap<>());
@@ -1360,7 +1915,7 @@ public class Matcher {
 		int removedFields = 0;
 		for (int i = 0; i<classes.length; i++){
 			progressReceiver.accept(i/(double)classes.length);
-			List<RankResult<ClassInstance>> ranking = ClassClassifier.rank(classes[i], new ClassInstance[]{classes[i].getMatch()}, ClassifierLevel.Full, env, false);
+			List<RankResult<ClassInstance>> ranking = ClassClassifier.rank(classes[i], new ClassInstance[]{classes[i].getMatch()}, ClassifierLevel.Full, env, false, cancelToken);
 
 			if (!checkRank(ranking, absThreshold, relThreshold)) {
 				unmatch(classes[i]);
@@ -1370,7 +1925,7 @@ public class Matcher {
 					if (meth.getMatch() == null){
 						continue;
 					}
-					List<RankResult<MethodInstance>> methodMatches = MethodClassifier.rank(meth, classes[i].getMatch().getMethods(), ClassifierLevel.Full, env, false);
+					List<RankResult<MethodInstance>> methodMatches = MethodClassifier.rank(meth, classes[i].getMatch().getMethods(), ClassifierLevel.Full, env, false, cancelToken);
 					if (methodMatches.size() == 0 || methodMatches.get(0).getSubject() != meth.getMatch() || !checkRank(methodMatches, absThreshold, relThreshold)){
 						//System.out.printf("method unmatch: a %b, b %b, c %b\n", methodMatches.size() ==0, methodMatches.size() > 0 && methodMatches.get(0).getSubject() != meth.getMatch(), !checkRank(methodMatches, absThreshold, relThreshold));
 						unmatch(meth);
@@ -1382,7 +1937,7 @@ public class Matcher {
 					if (field.getMatch() == null){
 						continue;
 					}
-					List<RankResult<FieldInstance>> fieldMatches = FieldClassifier.rank(field, classes[i].getMatch().getFields(), ClassifierLevel.Full, env);
+					List<RankResult<FieldInstance>> fieldMatches = FieldClassifier.rank(field, classes[i].getMatch().getFields(), ClassifierLevel.Full, env, cancelToken);
 					if (fieldMatches.size() == 0 || fieldMatches.get(0).getSubject() != field.getMatch() || !checkRank(fieldMatches, absThreshold, relThreshold)){
 						//System.out.printf("field unmatch: a %b, b %b, c %b\n", fieldMatches.size() ==0, fieldMatches.size() > 0 && fieldMatches.get(0).getSubject() != field.getMatch(), !checkRank(fieldMatches, absThreshold, relThreshold));
 						unmatch(field);
@@ -1395,9 +1950,24 @@ public class Matcher {
 	}
 	
 	public void setAllowRematches(boolean newVal){
+		if (newVal != enableRematches) classIndex = null;
+
 		this.enableRematches = newVal;
 	}
 
+	/**
+	 * Matches of both sides at a point in time, see createSnapshot.
+	 */
+	public static final class MatchSnapshot {
+		MatchSnapshot(MatchState.Snapshot a, MatchState.Snapshot b) {
+			this.a = a;
+			this.b = b;
+		}
+
+		final MatchState.Snapshot a;
+		final MatchState.Snapshot b;
+	}
+
 	public static class MatchingStatus {
 		MatchingStatus(int totalClassCount, int matchedClassCount,
 				int totalMethodCount, int matchedMethodCount,
@@ -1423,6 +1993,22 @@ public class Matcher {
 		public final int matchedFieldCount;
 	}
 
+	private static class ClassRankTask {
+		ClassRankTask(ClassInstance cls, ClassInstance[] candidates, int start, int end, TopRankResult<ClassInstance> result) {
+			this.cls = cls;
+			this.candidates = candidates;
+			this.start = start;
+			this.end = end;
+			this.result = result;
+		}
+
+		final ClassInstance cls;
+		final ClassInstance[] candidates;
+		final int start;
+		final int end;
+		final TopRankResult<ClassInstance> result;
+	}
+
 	private final ClassEnvironment env;
 	private final ClassifierLevel autoMatchLevel = ClassifierLevel.Full;
 	private final double absClassAutoMatchThreshold = 0.85;
@@ -1434,4 +2020,16 @@ public class Matcher {
 	private final double absMethodArgAutoMatchThreshold = 0.85;
 	private final double relMethodArgAutoMatchThreshold = 0.085;
 	private boolean enableRematches = false;
+	private volatile CancelToken cancelToken = CancelToken.NONE;
+	private ClassCandidateIndex classIndex;
+	private double lshRecall = getDefaultLshRecall();
+	private boolean structuralMatching = Boolean.getBoolean("matcher.structuralMatch");
+	private boolean anchorMatching = Boolean.getBoolean("matcher.anchorMatch");
+	private int lshMaxCandidates = 64;
+	private ClassLshIndex lshIndex;
+	private int batchDepth;
+	private final List<ClassInstance> pendingClasses = new ArrayList<>();
+	private final List<MethodInstance> pendingMethods = new ArrayList<>();
+	private final Set<IMatchable<?>> pendingInvalidations = Util.newIdentityHashSet();
+	private final Map<String, MatchSnapshot> checkpoints = new HashMap<>();
 }
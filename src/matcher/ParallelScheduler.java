@@ -0,0 +1,255 @@
+package matcher;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Runs work lists on a dedicated fork/join pool, balancing the load by estimated item cost instead of item count.
+ *
+ * <p>The pool gets created by the first run and released by shutdown, a later run creates a new one.
+ *
+ * <p>Items are processed in descending cost order, so the most expensive items start first and the cheap ones fill the
+ * gaps at the end. The work list is recursively split by cumulative cost, idle workers steal the remaining halves.
+ */
+public class ParallelScheduler {
+	public ParallelScheduler() {
+		this(getDefaultParallelism());
+	}
+
+	public ParallelScheduler(int parallelism) {
+		if (parallelism <= 0) throw new IllegalArgumentException("invalid parallelism: "+parallelism);
+
+		this.parallelism = parallelism;
+	}
+
+	public static int getDefaultParallelism() {
+		String value = System.getProperty("matcher.parallelism");
+
+		if (value != null) {
+			try {
+				int ret = Integer.parseInt(value);
+				if (ret > 0) return ret;
+			} catch (NumberFormatException e) { }
+
+			System.out.println("invalid matcher.parallelism value: "+value);
+		}
+
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Change the worker count, the current pool finishes its runs and gets replaced for the next one.
+	 */
+	public synchronized void setParallelism(int parallelism) {
+		if (parallelism <= 0) throw new IllegalArgumentException("invalid parallelism: "+parallelism);
+		if (parallelism == this.parallelism) return;
+
+		shutdown();
+		this.parallelism = parallelism;
+	}
+
+	public static boolean isLogEnabled() {
+		return logEnabled;
+	}
+
+	/**
+	 * Enable printing the duration and throughput of every run, defaults to the matcher.logScheduler system property.
+	 */
+	public static void setLogEnabled(boolean enabled) {
+		logEnabled = enabled;
+	}
+
+	/**
+	 * Process all items with worker, reporting the progress as the fraction of the total estimated cost completed.
+	 *
+	 * @param name description for the throughput log, see setLogEnabled
+	 * @param costEstimator relative cost of processing an item, values below 1 are treated as 1
+	 * @param cancelToken token checked before each item, cancellation aborts the run with a CancellationException
+	 */
+	public <T> void run(String name, List<T> items, ToLongFunction<? super T> costEstimator, Consumer<? super T> worker, DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		if (items.isEmpty()) return;
+
+		long startTime = System.nanoTime();
+		int size = items.size();
+		long[] costs = new long[size];
+		Integer[] order = new Integer[size];
+
+		for (int i = 0; i < size; i++) {
+			costs[i] = Math.max(1, costEstimator.applyAsLong(items.get(i)));
+			order[i] = i;
+		}
+
+		Arrays.sort(order, (a, b) -> Long.compare(costs[b], costs[a]));
+
+		Object[] sortedItems = new Object[size];
+		long[] costSums = new long[size + 1]; // costSums[i] = total cost of the first i sorted items
+
+		for (int i = 0; i < size; i++) {
+			sortedItems[i] = items.get(order[i]);
+			costSums[i + 1] = costSums[i] + costs[order[i]];
+		}
+
+		long totalCost = costSums[size];
+		// aim for several tasks per worker to even out estimation errors
+		long splitCost = Math.max(1, totalCost / (getParallelism() * 8L));
+
+		getPool().invoke(new WorkTask<T>(sortedItems, costSums, 0, size, splitCost, worker, new Progress(totalCost, progressReceiver), cancelToken));
+
+		if (!logEnabled) return;
+
+		long duration = System.nanoTime() - startTime;
+		double seconds = Math.max(duration, 1) * 1e-9;
+
+		System.out.printf("%s: %d items in %.1f ms (%.0f items/s, %.0f cost units/s, parallelism %d)%n",
+				name, size, duration * 1e-6, size / seconds, totalCost / seconds, getParallelism());
+	}
+
+	private synchronized ForkJoinPool getPool() {
+		if (pool == null) pool = new ForkJoinPool(parallelism);
+
+		return pool;
+	}
+
+	/**
+	 * Stop the worker threads once the current runs are done.
+	 */
+	public synchronized void shutdown() {
+		if (pool == null) return;
+
+		pool.shutdown();
+		pool = null;
+	}
+
+	private static class WorkTask<T> extends RecursiveAction {
+		WorkTask(Object[] items, long[] costSums, int start, int end, long splitCost, Consumer<? super T> worker, Progress progress, CancelToken cancelToken) {
+			this.items = items;
+			this.costSums = costSums;
+			this.start = start;
+			this.end = end;
+			this.splitCost = splitCost;
+			this.worker = worker;
+			this.progress = progress;
+			this.cancelToken = cancelToken;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		protected void compute() {
+			int start = this.start;
+			int end = this.end;
+
+			try {
+				// split off the upper half by cost until the remainder is small enough to run directly
+				while (end - start > 1 && costSums[end] - costSums[start] > splitCost && !progress.aborted) {
+					int mid = findCostMidpoint(start, end);
+					WorkTask<T> fork = new WorkTask<>(items, costSums, mid, end, splitCost, worker, progress, cancelToken);
+					fork.fork();
+					forks = new Node(fork, forks);
+					end = mid;
+				}
+
+				for (int i = start; i < end; i++) {
+					if (progress.aborted) break;
+
+					cancelToken.checkCancelled();
+					worker.accept((T) items[i]);
+					progress.add(costSums[i + 1] - costSums[i]);
+				}
+			} catch (RuntimeException | Error e) {
+				progress.aborted = true;
+				throw e;
+			} finally {
+				// the forks may still be working on the caller's state, wait for them before returning in any case
+				// (cancelling instead would also complete forks that are already running), aborted ones exit early
+				for (Node node = forks; node != null; node = node.next) {
+					node.task.quietlyJoin();
+				}
+			}
+
+			// rethrow a fork's failure, preferring a worker exception over a cancellation
+			Throwable failure = null;
+
+			for (Node node = forks; node != null; node = node.next) {
+				Throwable e = node.task.getException();
+				if (e != null && (failure == null || failure instanceof CancellationException)) failure = e;
+			}
+
+			if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			} else if (failure instanceof Error) {
+				throw (Error) failure;
+			} else if (failure != null) {
+				throw new RuntimeException(failure);
+			}
+		}
+
+		private int findCostMidpoint(int start, int end) {
+			long target = (costSums[start] + costSums[end]) / 2;
+			int idx = Arrays.binarySearch(costSums, start + 1, end, target);
+			if (idx < 0) idx = -idx - 1;
+
+			return Math.max(start + 1, Math.min(end - 1, idx));
+		}
+
+		private static final long serialVersionUID = 1L;
+
+		private final Object[] items;
+		private final long[] costSums;
+		private final int start;
+		private final int end;
+		private final long splitCost;
+		private final Consumer<? super T> worker;
+		private final Progress progress;
+		private final CancelToken cancelToken;
+		private Node forks;
+	}
+
+	private static class Node {
+		Node(WorkTask<?> task, Node next) {
+			this.task = task;
+			this.next = next;
+		}
+
+		final WorkTask<?> task;
+		final Node next;
+	}
+
+	private static class Progress {
+		Progress(long totalCost, DoubleConsumer receiver) {
+			this.totalCost = totalCost;
+			this.receiver = receiver;
+			this.updateRate = Math.max(1, totalCost / 200);
+		}
+
+		void add(long cost) {
+			long prev = done.getAndAdd(cost);
+			long cur = prev + cost;
+
+			if (prev / updateRate != cur / updateRate) {
+				receiver.accept((double) cur / totalCost);
+			}
+		}
+
+		private final long totalCost;
+		private final DoubleConsumer receiver;
+		private final long updateRate;
+		private final AtomicLong done = new AtomicLong();
+		volatile boolean aborted; // set by the first failing task, the others stop at their next item
+	}
+
+	private static volatile boolean logEnabled = Boolean.getBoolean("matcher.logScheduler");
+
+	private volatile int parallelism;
+	private ForkJoinPool pool; // guarded by this
+}
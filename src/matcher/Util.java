@@ -37,6 +37,13 @@ public class Util {
 		return ret;//new IdentityHashSet<>(c);
 	}
 
+	/**
+	 * Wrap set as unmodifiable, replacing empty sets with the shared empty set.
+	 */
+	public static <T> Set<T> immutableSet(Set<T> set) {
+		return set.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(set);
+	}
+
 	public static <T> Set<T> copySet(Set<T> set) {
 		if (set instanceof HashSet) {
 			return new HashSet<>(set);
@@ -0,0 +1,138 @@
+package matcher.classifier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import matcher.Util;
+import matcher.type.ClassInstance;
+import matcher.type.NumericConstants;
+
+/**
+ * Inverted index from class feature values to the classes of both sides holding them.
+ *
+ * <p>A feature value occurring in exactly one class per side is an anchor pairing those 2 classes, which is a cheap
+ * and reliable match seed before running the classifiers.
+ */
+public class AnchorIndex {
+	public AnchorIndex(Collection<ClassInstance> classesA, Collection<ClassInstance> classesB, Set<FeatureType> types) {
+		this.types = types;
+
+		for (ClassInstance cls : classesA) {
+			add(cls, true);
+		}
+
+		for (ClassInstance cls : classesB) {
+			add(cls, false);
+		}
+	}
+
+	private void add(ClassInstance cls, boolean isA) {
+		if (types.contains(FeatureType.String)) {
+			for (String s : cls.getStrings()) {
+				add(FeatureType.String, s, cls, isA);
+			}
+		}
+
+		if (types.contains(FeatureType.EnumValues) && cls.isEnum()) {
+			List<String> values = new ArrayList<>(cls.getEnumValues().values());
+			Collections.sort(values);
+			add(FeatureType.EnumValues, values, cls, isA);
+		}
+
+		if (types.contains(FeatureType.Annotation)) {
+			for (String annotation : cls.getAnnotations()) {
+				add(FeatureType.Annotation, annotation, cls, isA);
+			}
+		}
+
+		if (types.contains(FeatureType.Number)) {
+			NumericConstants numbers = cls.getNumbers();
+
+			for (int v : numbers.getInts()) add(FeatureType.Number, v, cls, isA);
+			for (long v : numbers.getLongs()) add(FeatureType.Number, v, cls, isA);
+			for (int v : numbers.getFloats()) add(FeatureType.Number, Float.intBitsToFloat(v), cls, isA);
+			for (long v : numbers.getDoubles()) add(FeatureType.Number, Double.longBitsToDouble(v), cls, isA);
+		}
+	}
+
+	private void add(FeatureType type, Object value, ClassInstance cls, boolean isA) {
+		Holders holders = index.computeIfAbsent(new Feature(type, value), ignore -> new Holders());
+
+		if (isA) {
+			if (holders.a != cls) holders.countA++;
+			holders.a = cls;
+		} else {
+			if (holders.b != cls) holders.countB++;
+			holders.b = cls;
+		}
+	}
+
+	/**
+	 * Get all class pairs sharing a feature that occurs exactly once per side.
+	 *
+	 * <p>Classes with unique features pointing to different classes on the other side are left out. The result maps
+	 * side A classes to side B classes and may still contain multiple A classes mapping to the same B class.
+	 */
+	public Map<ClassInstance, ClassInstance> getAnchors() {
+		Map<ClassInstance, ClassInstance> ret = new IdentityHashMap<>();
+		Set<ClassInstance> conflicts = Util.newIdentityHashSet();
+
+		for (Holders holders : index.values()) {
+			if (holders.countA != 1 || holders.countB != 1) continue;
+
+			ClassInstance prev = ret.putIfAbsent(holders.a, holders.b);
+			if (prev != null && prev != holders.b) conflicts.add(holders.a);
+		}
+
+		ret.keySet().removeAll(conflicts);
+
+		return ret;
+	}
+
+	public enum FeatureType {
+		String, EnumValues, Annotation, Number;
+
+		public static final Set<FeatureType> ALL = Collections.unmodifiableSet(EnumSet.allOf(FeatureType.class));
+	}
+
+	private static final class Feature {
+		Feature(FeatureType type, Object value) {
+			this.type = type;
+			this.value = value;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Feature)) return false;
+
+			Feature o = (Feature) obj;
+
+			return type == o.type && value.equals(o.value);
+		}
+
+		@Override
+		public int hashCode() {
+			return value.hashCode() * 31 + type.ordinal();
+		}
+
+		final FeatureType type;
+		final Object value;
+	}
+
+	private static final class Holders {
+		ClassInstance a;
+		ClassInstance b;
+		int countA;
+		int countB;
+	}
+
+	private final Set<FeatureType> types;
+	private final Map<Feature, Holders> index = new HashMap<>();
+}
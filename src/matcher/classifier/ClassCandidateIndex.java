@@ -0,0 +1,127 @@
+package matcher.classifier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import matcher.type.ClassEnvironment;
+import matcher.type.ClassInstance;
+
+/**
+ * Blocking index over the obfuscated input classes of one side to limit class ranking to plausible candidates.
+ *
+ * <p>Classes are grouped by the invariants checked by checkPotentialEquality (array, anonymous, synthetic), their class
+ * type access bits and log2 buckets of their method/field counts. A query skips all blocks and candidates whose score
+ * upper bound from the class type check, member count and parent class classifiers can't reach the requested minimum.
+ */
+public class ClassCandidateIndex {
+	public ClassCandidateIndex(Collection<ClassInstance> classes) {
+		for (ClassInstance cls : classes) {
+			add(cls);
+		}
+	}
+
+	public static boolean isIndexable(ClassInstance cls) {
+		return cls.getUri() != null && cls.isNameObfuscated(false);
+	}
+
+	public void add(ClassInstance cls) {
+		if (!isIndexable(cls)) return;
+
+		long key = getKey(cls);
+		Block block = blocks.get(key);
+
+		if (block == null) {
+			block = new Block(ClassClassifier.getClassType(cls), getBucket(cls.getMethods().length), getBucket(cls.getFields().length));
+			blocks.put(key, block);
+			blocksByFlags.computeIfAbsent(getFlags(cls), ignore -> new ArrayList<>()).add(block);
+		}
+
+		block.classes.add(cls);
+	}
+
+	public void remove(ClassInstance cls) {
+		if (!isIndexable(cls)) return;
+
+		Block block = blocks.get(getKey(cls));
+
+		if (block != null) block.classes.remove(cls);
+	}
+
+	/**
+	 * Get all indexed classes that may reach minScore when being ranked against cls at the supplied level.
+	 */
+	public List<ClassInstance> getCandidates(ClassInstance cls, ClassifierLevel level, double minScore, ClassEnvironment env) {
+		List<Block> flagBlocks = blocksByFlags.get(getFlags(cls));
+		if (flagBlocks == null) return new ArrayList<>();
+
+		int methodCount = cls.getMethods().length;
+		int fieldCount = cls.getFields().length;
+		List<ClassInstance> ret = new ArrayList<>();
+
+		for (Block block : flagBlocks) {
+			if (block.classes.isEmpty()) continue;
+
+			// best case within the block: the count closest to the source class' count
+			int bestMethodCount = clamp(methodCount, getBucketMin(block.methodBucket), getBucketMax(block.methodBucket));
+			int bestFieldCount = clamp(fieldCount, getBucketMin(block.fieldBucket), getBucketMax(block.fieldBucket));
+
+			if (ClassClassifier.getScoreUpperBound(cls, null, block.classType, bestMethodCount, bestFieldCount, level, env) < minScore) continue;
+
+			for (ClassInstance candidate : block.classes) {
+				if (ClassClassifier.getScoreUpperBound(cls, candidate, block.classType, candidate.getMethods().length, candidate.getFields().length, level, env) >= minScore) {
+					ret.add(candidate);
+				}
+			}
+		}
+
+		return ret;
+	}
+
+	private static long getKey(ClassInstance cls) {
+		return (long) getFlags(cls) << 48
+				| (long) ClassClassifier.getClassType(cls) << 16
+				| getBucket(cls.getMethods().length) << 8
+				| getBucket(cls.getFields().length);
+	}
+
+	private static int getFlags(ClassInstance cls) {
+		return (cls.isArray() ? 1 : 0) | (cls.isAnonymous() ? 2 : 0) | (cls.isSynthetic() ? 4 : 0);
+	}
+
+	private static int getBucket(int count) {
+		return 31 - Integer.numberOfLeadingZeros(count + 1);
+	}
+
+	private static int getBucketMin(int bucket) {
+		return (1 << bucket) - 1;
+	}
+
+	private static int getBucketMax(int bucket) {
+		return (1 << (bucket + 1)) - 2;
+	}
+
+	private static int clamp(int value, int min, int max) {
+		return Math.max(min, Math.min(max, value));
+	}
+
+	private static class Block {
+		Block(int classType, int methodBucket, int fieldBucket) {
+			this.classType = classType;
+			this.methodBucket = methodBucket;
+			this.fieldBucket = fieldBucket;
+		}
+
+		final int classType;
+		final int methodBucket;
+		final int fieldBucket;
+		final Set<ClassInstance> classes = new LinkedHashSet<>();
+	}
+
+	private final Map<Long, Block> blocks = new HashMap<>();
+	private final Map<Integer, List<Block>> blocksByFlags = new HashMap<>();
+}
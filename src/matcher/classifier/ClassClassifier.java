@@ -5,7 +5,6 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -15,12 +14,12 @@ import java.util.TreeSet;
 
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AbstractInsnNode;
-import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 
+import matcher.CancelToken;
 import matcher.Matcher;
 import matcher.Util;
 import matcher.type.ClassEnvironment;
@@ -50,7 +49,8 @@ public class ClassClassifier {
 		addClassifier(methodInReferences, 6, ClassifierLevel.Intermediate, ClassifierLevel.Full, ClassifierLevel.Extra);
 		addClassifier(fieldReadReferences, 5, ClassifierLevel.Intermediate, ClassifierLevel.Full, ClassifierLevel.Extra);
 		addClassifier(fieldWriteReferences, 5, ClassifierLevel.Intermediate, ClassifierLevel.Full, ClassifierLevel.Extra);
-		addClassifier(stringConstants, 8);
+		addClassifier(stringConstantsSketch, 8, ClassifierLevel.Initial);
+		addClassifier(stringConstants, 8, ClassifierLevel.Intermediate, ClassifierLevel.Full, ClassifierLevel.Extra);
 		addClassifier(numericConstants, 6);
 		addClassifier(membersFull, 10, ClassifierLevel.Full, ClassifierLevel.Extra);
 		addClassifier(inRefsBci, 6, ClassifierLevel.Extra);
@@ -64,7 +64,7 @@ public class ClassClassifier {
 		classifier.weight = weight;
 
 		for (ClassifierLevel level : levels) {
-			classifiers.computeIfAbsent(level, ignore -> new ArrayList<>()).add(classifier);
+			ClassifierUtil.addClassifier(classifiers.computeIfAbsent(level, ignore -> new ArrayList<>()), classifier);
 			maxScore.put(level, getMaxScore(level) + weight);
 		}
 	}
@@ -73,29 +73,59 @@ public class ClassClassifier {
 		return maxScore.getOrDefault(level, 0.);
 	}
 
-	public static List<RankResult<ClassInstance>> rank(ClassInstance srcClass, ClassInstance[] dstClasses, ClassifierLevel level, ClassEnvironment env, boolean enableRematch) {
-		return ClassifierUtil.rank(srcClass, dstClasses, classifiers.getOrDefault(level, Collections.emptyList()), getMaxScore(level), (a,b)->ClassifierUtil.checkPotentialEquality(a,b,enableRematch), env);
+	public static List<RankResult<ClassInstance>> rank(ClassInstance srcClass, ClassInstance[] dstClasses, ClassifierLevel level, ClassEnvironment env, boolean enableRematch, CancelToken cancelToken) {
+		return ClassifierUtil.rank(srcClass, dstClasses, classifiers.getOrDefault(level, Collections.emptyList()), level, getMaxScore(level), (a,b)->ClassifierUtil.checkPotentialEquality(a,b,enableRematch), env, cancelToken);
+	}
+
+	public static TopRankResult<ClassInstance> rankTopK(ClassInstance srcClass, ClassInstance[] dstClasses, ClassifierLevel level, ClassEnvironment env, boolean enableRematch, double absThreshold, double relThreshold, CancelToken cancelToken) {
+		return ClassifierUtil.rankTopK(srcClass, dstClasses, classifiers.getOrDefault(level, Collections.emptyList()), level, getMaxScore(level), (a,b)->ClassifierUtil.checkPotentialEquality(a,b,enableRematch), env, 2, absThreshold, relThreshold, cancelToken);
+	}
+
+	/**
+	 * Upper bound for the rank score of clsA against a class with the supplied class type, member counts and super class,
+	 * assuming that all classifiers except class type check, member counts and parent class yield a perfect score.
+	 *
+	 * <p>The parent class check is skipped if clsB is null.
+	 */
+	static double getScoreUpperBound(ClassInstance clsA, ClassInstance clsB, int classTypeB, int methodCountB, int fieldCountB, ClassifierLevel level, ClassEnvironment env) {
+		double totalWeight = getMaxScore(level);
+		if (totalWeight <= 0) return 1;
+
+		double loss = classTypeCheck.weight * (1 - getClassTypeScore(getClassType(clsA), classTypeB))
+				+ methodCount.weight * (1 - ClassifierUtil.compareCounts(clsA.getMethods().length, methodCountB))
+				+ fieldCount.weight * (1 - ClassifierUtil.compareCounts(clsA.getFields().length, fieldCountB));
+
+		if (clsB != null) {
+			loss += parentClass.weight * (1 - parentClass.getScore(clsA, clsB, env, CancelToken.NONE));
+		}
+
+		return ClassifierUtil.adjustTotalScore(Math.max(0, 1 - loss / totalWeight));
+	}
+
+	static int getClassType(ClassInstance cls) {
+		return cls.getAccess() & classTypeMask;
+	}
+
+	private static double getClassTypeScore(int classTypeA, int classTypeB) {
+		//assert Integer.bitCount(classTypeA) <= 3 && Integer.bitCount(classTypeB) <= 3;
+
+		return 1 - Integer.bitCount(classTypeA ^ classTypeB) / 4.;
 	}
 
 	private static final Map<ClassifierLevel, List<IClassifier<ClassInstance>>> classifiers = new EnumMap<>(ClassifierLevel.class);
 	private static final Map<ClassifierLevel, Double> maxScore = new EnumMap<>(ClassifierLevel.class);
+	private static final int classTypeMask = Opcodes.ACC_ENUM | Opcodes.ACC_INTERFACE | Opcodes.ACC_ANNOTATION | Opcodes.ACC_ABSTRACT /*| Opcodes.ACC_SYNTHETIC*/;
 
 	private static AbstractClassifier classTypeCheck = new AbstractClassifier("class type check") {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
-			int mask = Opcodes.ACC_ENUM | Opcodes.ACC_INTERFACE | Opcodes.ACC_ANNOTATION | Opcodes.ACC_ABSTRACT /*| Opcodes.ACC_SYNTHETIC*/;
-			int resultA = clsA.getAccess() & mask;
-			int resultB = clsB.getAccess() & mask;
-
-			//assert Integer.bitCount(resultA) <= 3 && Integer.bitCount(resultB) <= 3;
-
-			return 1 - Integer.bitCount(resultA ^ resultB) / 4.;
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
+			return getClassTypeScore(getClassType(clsA), getClassType(clsB));
 		}
 	};
 
 	private static AbstractClassifier hierarchyDepth = new AbstractClassifier("hierarchy depth") {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.compareCounts(getHierarchDepth(clsA), getHierarchDepth(clsB));
 		}
 	};
@@ -112,14 +142,14 @@ public class ClassClassifier {
 
 	private static AbstractClassifier hierarchySiblings = new AbstractClassifier("hierarchy siblings") {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.compareCounts(clsA.getSuperClass().getChildClasses().size(), clsB.getSuperClass().getChildClasses().size());
 		}
 	};
 
 	private static AbstractClassifier parentClass = new AbstractClassifier("parent class") {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
 			if (clsA.getSuperClass() == null && clsB.getSuperClass() == null) return 1;
 			if (clsA.getSuperClass() == null || clsB.getSuperClass() == null) return 0;
 
@@ -129,28 +159,28 @@ public class ClassClassifier {
 
 	private static AbstractClassifier childClasses = new AbstractClassifier("child classes") {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.compareClassSets(clsA.getChildClasses(), clsB.getChildClasses(), true, false);
 		}
 	};
 
 	private static AbstractClassifier interfaces = new AbstractClassifier("interfaces") {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.compareClassSets(clsA.getInterfaces(), clsB.getInterfaces(), true, false);
 		}
 	};
 
 	private static AbstractClassifier implementers = new AbstractClassifier("implementers") {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.compareClassSets(clsA.getImplementers(), clsB.getImplementers(), true, false);
 		}
 	};
 
 	private static AbstractClassifier outerClass = new AbstractClassifier("outer class") {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
 			ClassInstance outerA = clsA.getOuterClass();
 			ClassInstance outerB = clsB.getOuterClass();
 
@@ -163,7 +193,7 @@ public class ClassClassifier {
 
 	private static AbstractClassifier innerClasses = new AbstractClassifier("inner classes") {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
 			Set<ClassInstance> innerA = clsA.getInnerClasses();
 			Set<ClassInstance> innerB = clsB.getInnerClasses();
 
@@ -176,21 +206,21 @@ public class ClassClassifier {
 
 	private static AbstractClassifier methodCount = new AbstractClassifier("method count") {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.compareCounts(clsA.getMethods().length, clsB.getMethods().length);
 		}
 	};
 
 	private static AbstractClassifier fieldCount = new AbstractClassifier("field count") {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.compareCounts(clsA.getFields().length, clsB.getFields().length);
 		}
 	};
 
-	private static AbstractClassifier similarMethods = new AbstractClassifier("similar methods") {
+	private static AbstractClassifier similarMethods = new AbstractClassifier("similar methods", ClassifierCost.High) {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
 			if (clsA.getMethods().length == 0 && clsB.getMethods().length == 0) return 1;
 			if (clsA.getMethods().length == 0 || clsB.getMethods().length == 0) return 0;
 
@@ -245,166 +275,90 @@ public class ClassClassifier {
 		}
 	};
 
-	private static AbstractClassifier outReferences = new AbstractClassifier("out references") {
+	private static AbstractClassifier outReferences = new AbstractClassifier("out references", ClassifierCost.Medium) {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
-			Set<ClassInstance> refsA = getOutRefs(clsA);
-			Set<ClassInstance> refsB = getOutRefs(clsB);
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
+			Set<ClassInstance> refsA = clsA.getOutRefs();
+			Set<ClassInstance> refsB = clsB.getOutRefs();
 
-			return ClassifierUtil.compareClassSets(refsA, refsB, false, false);
+			return ClassifierUtil.compareClassSets(refsA, refsB, true, false);
 		}
 	};
 
-	public static Set<ClassInstance> getOutRefs(ClassInstance cls) {
-		Set<ClassInstance> ret = Util.newIdentityHashSet();
-
-		for (MethodInstance method : cls.getMethods()) {
-			ret.addAll(method.getClassRefs());
-		}
-
-		for (FieldInstance field : cls.getFields()) {
-			ret.add(field.getType());
-		}
-
-		return ret;
-	}
-
-	private static AbstractClassifier inReferences = new AbstractClassifier("in references") {
+	private static AbstractClassifier inReferences = new AbstractClassifier("in references", ClassifierCost.Medium) {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
-			Set<ClassInstance> refsA = getInRefs(clsA);
-			Set<ClassInstance> refsB = getInRefs(clsB);
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
+			Set<ClassInstance> refsA = clsA.getInRefs();
+			Set<ClassInstance> refsB = clsB.getInRefs();
 
-			return ClassifierUtil.compareClassSets(refsA, refsB, false, false);
+			return ClassifierUtil.compareClassSets(refsA, refsB, true, false);
 		}
 	};
 
-	public static Set<ClassInstance> getInRefs(ClassInstance cls) {
-		Set<ClassInstance> ret = Util.newIdentityHashSet();
-
-		for (MethodInstance method : cls.getMethodTypeRefs()) {
-			ret.add(method.getCls());
-		}
-
-		for (FieldInstance field : cls.getFieldTypeRefs()) {
-			ret.add(field.getCls());
-		}
-
-		return ret;
-	}
-
-	private static AbstractClassifier methodOutReferences = new AbstractClassifier("method out references") {
+	private static AbstractClassifier methodOutReferences = new AbstractClassifier("method out references", ClassifierCost.Medium) {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
-			Set<MethodInstance> refsA = getMethodOutRefs(clsA);
-			Set<MethodInstance> refsB = getMethodOutRefs(clsB);
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
+			Set<MethodInstance> refsA = clsA.getMethodOutRefs();
+			Set<MethodInstance> refsB = clsB.getMethodOutRefs();
 
-			return ClassifierUtil.compareMethodSets(refsA, refsB, false);
+			return ClassifierUtil.compareMethodSets(refsA, refsB, true);
 		}
 	};
 
-	public static Set<MethodInstance> getMethodOutRefs(ClassInstance cls) {
-		Set<MethodInstance> ret = Util.newIdentityHashSet();
-
-		for (MethodInstance method : cls.getMethods()) {
-			ret.addAll(method.getRefsOut());
-		}
-
-		return ret;
-	}
-
-	private static AbstractClassifier methodInReferences = new AbstractClassifier("method in references") {
+	private static AbstractClassifier methodInReferences = new AbstractClassifier("method in references", ClassifierCost.Medium) {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
-			Set<MethodInstance> refsA = getMethodInRefs(clsA);
-			Set<MethodInstance> refsB = getMethodInRefs(clsB);
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
+			Set<MethodInstance> refsA = clsA.getMethodInRefs();
+			Set<MethodInstance> refsB = clsB.getMethodInRefs();
 
-			return ClassifierUtil.compareMethodSets(refsA, refsB, false);
+			return ClassifierUtil.compareMethodSets(refsA, refsB, true);
 		}
 	};
 
-	public static Set<MethodInstance> getMethodInRefs(ClassInstance cls) {
-		Set<MethodInstance> ret = Util.newIdentityHashSet();
-
-		for (MethodInstance method : cls.getMethods()) {
-			ret.addAll(method.getRefsIn());
-		}
-
-		return ret;
-	}
-
-	private static AbstractClassifier fieldReadReferences = new AbstractClassifier("field read references") {
+	private static AbstractClassifier fieldReadReferences = new AbstractClassifier("field read references", ClassifierCost.Medium) {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
-			Set<FieldInstance> refsA = getFieldReadRefs(clsA);
-			Set<FieldInstance> refsB = getFieldReadRefs(clsB);
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
+			Set<FieldInstance> refsA = clsA.getFieldReadRefs();
+			Set<FieldInstance> refsB = clsB.getFieldReadRefs();
 
-			return ClassifierUtil.compareFieldSets(refsA, refsB, false);
+			return ClassifierUtil.compareFieldSets(refsA, refsB, true);
 		}
 	};
 
-	public static Set<FieldInstance> getFieldReadRefs(ClassInstance cls) {
-		Set<FieldInstance> ret = Util.newIdentityHashSet();
-
-		for (MethodInstance method : cls.getMethods()) {
-			ret.addAll(method.getFieldReadRefs());
-		}
-
-		return ret;
-	}
-
-	private static AbstractClassifier fieldWriteReferences = new AbstractClassifier("field write references") {
+	private static AbstractClassifier fieldWriteReferences = new AbstractClassifier("field write references", ClassifierCost.Medium) {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
-			Set<FieldInstance> refsA = getFieldWriteRefs(clsA);
-			Set<FieldInstance> refsB = getFieldWriteRefs(clsB);
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
+			Set<FieldInstance> refsA = clsA.getFieldWriteRefs();
+			Set<FieldInstance> refsB = clsB.getFieldWriteRefs();
 
-			return ClassifierUtil.compareFieldSets(refsA, refsB, false);
+			return ClassifierUtil.compareFieldSets(refsA, refsB, true);
 		}
 	};
 
-	public static Set<FieldInstance> getFieldWriteRefs(ClassInstance cls) {
-		Set<FieldInstance> ret = Util.newIdentityHashSet();
-
-		for (MethodInstance method : cls.getMethods()) {
-			ret.addAll(method.getFieldWriteRefs());
+	private static AbstractClassifier stringConstants = new AbstractClassifier("string constants", ClassifierCost.Medium) {
+		@Override
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
+			return ClassifierUtil.compareSets(clsA.getStrings(), clsB.getStrings(), true);
 		}
+	};
 
-		return ret;
-	}
-
-	private static AbstractClassifier stringConstants = new AbstractClassifier("string constants") {
+	private static AbstractClassifier stringConstantsSketch = new AbstractClassifier("string constants", ClassifierCost.Low) {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
-			return ClassifierUtil.compareSets(clsA.getStrings(), clsB.getStrings(), true);
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
+			return ClassifierUtil.compareSetSketches(clsA.getStrings(), clsB.getStrings(), clsA.getStringSketch(), clsB.getStringSketch());
 		}
 	};
 
-	private static AbstractClassifier numericConstants = new AbstractClassifier("numeric constants") {
+	private static AbstractClassifier numericConstants = new AbstractClassifier("numeric constants", ClassifierCost.Medium) {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
-			Set<Integer> intsA = new HashSet<>();
-			Set<Integer> intsB = new HashSet<>();
-			Set<Long> longsA = new HashSet<>();
-			Set<Long> longsB = new HashSet<>();
-			Set<Float> floatsA = new HashSet<>();
-			Set<Float> floatsB = new HashSet<>();
-			Set<Double> doublesA = new HashSet<>();
-			Set<Double> doublesB = new HashSet<>();
-
-			extractNumbers(clsA, intsA, longsA, floatsA, doublesA);
-			extractNumbers(clsB, intsB, longsB, floatsB, doublesB);
-
-			return (ClassifierUtil.compareSets(intsA, intsB, false)
-					+ ClassifierUtil.compareSets(longsA, longsB, false)
-					+ ClassifierUtil.compareSets(floatsA, floatsB, false)
-					+ ClassifierUtil.compareSets(doublesA, doublesB, false)) / 4;
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
+			return ClassifierUtil.compareNumbers(clsA.getNumbers(), clsB.getNumbers());
 		}
 	};
 
-	private static AbstractClassifier membersFull = new AbstractClassifier("members full") {
+	static AbstractClassifier membersFull = new AbstractClassifier("members full", ClassifierCost.High) {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
 			/*if (clsA.getName().equals("agl") && clsB.getName().equals("aht")) {
 				System.out.println();
 			}*/
@@ -416,15 +370,15 @@ public class ClassClassifier {
 
 			if (clsA.getMethods().length > 0 && clsB.getMethods().length > 0) {
 				for (MethodInstance methodA : clsA.getMethods()) {
-					List<RankResult<MethodInstance>> ranking = MethodClassifier.rank(methodA, clsB.getMethods(), level, env);
-					if (Matcher.checkRank(ranking, absThreshold, relThreshold)) match += ranking.get(0).getScore();
+					TopRankResult<MethodInstance> ranking = MethodClassifier.rankTopK(methodA, clsB.getMethods(), level, env, absThreshold, relThreshold, cancelToken);
+					if (Matcher.checkRank(ranking, absThreshold, relThreshold)) match += ranking.getScore(0);
 				}
 			}
 
 			if (clsA.getFields().length > 0 && clsB.getFields().length > 0) {
 				for (FieldInstance fieldA : clsA.getFields()) {
-					List<RankResult<FieldInstance>> ranking = FieldClassifier.rank(fieldA, clsB.getFields(), level, env);
-					if (Matcher.checkRank(ranking, absThreshold, relThreshold)) match += ranking.get(0).getScore();
+					TopRankResult<FieldInstance> ranking = FieldClassifier.rankTopK(fieldA, clsB.getFields(), level, env, absThreshold, relThreshold, cancelToken);
+					if (Matcher.checkRank(ranking, absThreshold, relThreshold)) match += ranking.getScore(0);
 				}
 			}
 
@@ -441,9 +395,9 @@ public class ClassClassifier {
 		}
 	};
 
-	private static AbstractClassifier inRefsBci = new AbstractClassifier("in refs (bci)") {
+	private static AbstractClassifier inRefsBci = new AbstractClassifier("in refs (bci)", ClassifierCost.High) {
 		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env, CancelToken cancelToken) {
 			int matched = 0;
 			int mismatched = 0;
 
@@ -457,7 +411,7 @@ public class ClassClassifier {
 					continue;
 				}
 
-				int[] map = ClassifierUtil.mapInsns(src, dst);
+				int[] map = ClassifierUtil.mapInsns(src, dst, cancelToken);
 				if (map == null) continue;
 
 				InsnList ilA = src.getAsmNode().instructions;
@@ -496,31 +450,16 @@ public class ClassClassifier {
 
 	private static AbstractClassifier classAnnotations = new AbstractClassifier("class annotations") {
 		@Override
-		public double getScore(ClassInstance a, ClassInstance b, ClassEnvironment env) {
+		public double getScore(ClassInstance a, ClassInstance b, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.compareSets(a.getAnnotations(), b.getAnnotations(), true);
 		}
 	};
 
-	private static void extractNumbers(ClassInstance cls, Set<Integer> ints, Set<Long> longs, Set<Float> floats, Set<Double> doubles) {
-		for (MethodInstance method : cls.getMethods()) {
-			MethodNode asmNode = method.getAsmNode();
-			if (asmNode == null) continue;
-
-			ClassifierUtil.extractNumbers(asmNode, ints, longs, floats, doubles);
-		}
-
-		for (FieldInstance field : cls.getFields()) {
-			FieldNode asmNode = field.getAsmNode();
-			if (asmNode == null) continue;
-
-			ClassifierUtil.handleNumberValue(asmNode.value, ints, longs, floats, doubles);
-		}
-	}
 	
 	//short of a major refactor the letters wont shift drastically, so the closer they are, the better the chance
 	private static AbstractClassifier obfIndex = new AbstractClassifier("obfuscated index") {
 		@Override
-		public double getScore(ClassInstance a, ClassInstance b, ClassEnvironment env) {
+		public double getScore(ClassInstance a, ClassInstance b, ClassEnvironment env, CancelToken cancelToken) {
 			if (a.getName().contains("/") && b.getName().contains("/")){
 				return 1;
 			}
@@ -554,7 +493,12 @@ public class ClassClassifier {
 
 	static abstract class AbstractClassifier implements IClassifier<ClassInstance> {
 		AbstractClassifier(String name) {
+			this(name, ClassifierCost.Low);
+		}
+
+		AbstractClassifier(String name, ClassifierCost cost) {
 			this.name = name;
+			this.cost = cost;
 		}
 
 		@Override
@@ -567,7 +511,13 @@ public class ClassClassifier {
 			return weight;
 		}
 
+		@Override
+		public ClassifierCost getCost() {
+			return cost;
+		}
+
 		private final String name;
+		private final ClassifierCost cost;
 		private double weight;
 	}
 }
@@ -0,0 +1,191 @@
+package matcher.classifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import matcher.Util;
+import matcher.type.ClassInstance;
+import matcher.type.MethodInstance;
+import matcher.type.MethodVarInstance;
+import matcher.type.NumericConstants;
+
+/**
+ * MinHash/LSH index over the name independent features of one side's classes to quickly find likely candidates.
+ *
+ * <p>The features are a class' strings, numeric constants, referenced unobfuscated classes and the signatures of
+ * methods using only unobfuscated types. The band layout is chosen to find pairs with a Jaccard similarity of at least
+ * {@link #targetSimilarity} with the requested probability (recall), more bands increase recall and cost.
+ */
+public class ClassLshIndex {
+	public ClassLshIndex(Collection<ClassInstance> classes, double recall, int maxCandidates) {
+		if (recall <= 0 || recall >= 1) throw new IllegalArgumentException("invalid recall: "+recall);
+		if (maxCandidates <= 0) throw new IllegalArgumentException("invalid max candidates: "+maxCandidates);
+
+		this.rows = getRowsPerBand(recall);
+		this.bands = signatureSize / rows;
+		this.maxCandidates = maxCandidates;
+		this.buckets = new ArrayList<>(bands);
+
+		for (int i = 0; i < bands; i++) {
+			buckets.add(new HashMap<>());
+		}
+
+		for (ClassInstance cls : classes) {
+			int[] signature = getSignature(cls);
+			if (signature == null) continue;
+
+			signatures.put(cls, signature);
+
+			for (int band = 0; band < bands; band++) {
+				buckets.get(band).computeIfAbsent(getBandKey(signature, band), ignore -> new ArrayList<>()).add(cls);
+			}
+		}
+
+		System.out.printf("lsh index: %d classes, %d bands of %d rows%n", signatures.size(), bands, rows);
+	}
+
+	/**
+	 * Determine the max. rows per band that still achieve the recall for targetSimilarity.
+	 */
+	private static int getRowsPerBand(double recall) {
+		int ret = 1;
+
+		for (int rows = 2; rows <= signatureSize; rows++) {
+			int bands = signatureSize / rows;
+			double p = 1 - Math.pow(1 - Math.pow(targetSimilarity, rows), bands);
+
+			if (p >= recall) ret = rows;
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Get the indexed classes most similar to cls, sorted by descending estimated similarity.
+	 *
+	 * @return up to maxCandidates classes or null if cls has no usable features and thus can't be filtered
+	 */
+	public List<ClassInstance> getCandidates(ClassInstance cls) {
+		int[] signature = getSignature(cls);
+		if (signature == null) return null;
+
+		Set<ClassInstance> found = Util.newIdentityHashSet();
+
+		for (int band = 0; band < bands; band++) {
+			List<ClassInstance> bucket = buckets.get(band).get(getBandKey(signature, band));
+			if (bucket != null) found.addAll(bucket);
+		}
+
+		List<ClassInstance> ret = new ArrayList<>(found);
+		Map<ClassInstance, Integer> similarities = new IdentityHashMap<>(ret.size());
+
+		for (ClassInstance candidate : ret) {
+			int[] candidateSignature = signatures.get(candidate);
+			int equal = 0;
+
+			for (int i = 0; i < signatureSize; i++) {
+				if (signature[i] == candidateSignature[i]) equal++;
+			}
+
+			similarities.put(candidate, equal);
+		}
+
+		ret.sort((a, b) -> Integer.compare(similarities.get(b), similarities.get(a)));
+
+		return ret.size() > maxCandidates ? ret.subList(0, maxCandidates) : ret;
+	}
+
+	private static int[] getSignature(ClassInstance cls) {
+		int[] features = getFeatures(cls);
+		if (features.length == 0) return null;
+
+		int[] ret = new int[signatureSize];
+		Arrays.fill(ret, Integer.MAX_VALUE);
+
+		for (int feature : features) {
+			for (int i = 0; i < signatureSize; i++) {
+				int hash = (int) (mix(feature ^ seeds[i]) >>> 32);
+				if (hash < ret[i]) ret[i] = hash;
+			}
+		}
+
+		return ret;
+	}
+
+	private static int[] getFeatures(ClassInstance cls) {
+		List<Integer> ret = new ArrayList<>();
+
+		for (String s : cls.getStrings()) {
+			ret.add(s.hashCode() * 31 + 1);
+		}
+
+		NumericConstants numbers = cls.getNumbers();
+
+		for (int v : numbers.getInts()) ret.add(Integer.hashCode(v) * 31 + 2);
+		for (long v : numbers.getLongs()) ret.add(Long.hashCode(v) * 31 + 3);
+		for (int v : numbers.getFloats()) ret.add(v * 31 + 4);
+		for (long v : numbers.getDoubles()) ret.add(Long.hashCode(v) * 31 + 5);
+
+		for (ClassInstance ref : cls.getOutRefs()) {
+			if (ref != cls && !ref.isNameObfuscated(true)) ret.add(ref.getId().hashCode() * 31 + 6);
+		}
+
+		methodLoop: for (MethodInstance method : cls.getMethods()) {
+			if (method.getRetType().isNameObfuscated(true)) continue;
+
+			for (MethodVarInstance arg : method.getArgs()) {
+				if (arg.getType().isNameObfuscated(true)) continue methodLoop;
+			}
+
+			String name = method.isNameObfuscated(false) ? "" : method.getName();
+			ret.add((name + method.getDesc()).hashCode() * 31 + 7);
+		}
+
+		return ret.stream().mapToInt(Integer::intValue).distinct().toArray();
+	}
+
+	private long getBandKey(int[] signature, int band) {
+		long ret = band;
+
+		for (int i = band * rows, max = i + rows; i < max; i++) {
+			ret = mix(ret * 0x9e3779b97f4a7c15L + signature[i]);
+		}
+
+		return ret;
+	}
+
+	private static long mix(long v) {
+		// murmur3 fmix64
+		v ^= v >>> 33;
+		v *= 0xff51afd7ed558ccdL;
+		v ^= v >>> 33;
+		v *= 0xc4ceb9fe1a85ec53L;
+		v ^= v >>> 33;
+
+		return v;
+	}
+
+	private static final int signatureSize = 128;
+	private static final double targetSimilarity = 0.5;
+	private static final long[] seeds = new long[signatureSize];
+
+	static {
+		long seed = 0x5deece66dL;
+
+		for (int i = 0; i < signatureSize; i++) {
+			seeds[i] = seed = mix(seed + i);
+		}
+	}
+
+	private final int rows;
+	private final int bands;
+	private final int maxCandidates;
+	private final List<Map<Long, List<ClassInstance>>> buckets;
+	private final Map<ClassInstance, int[]> signatures = new IdentityHashMap<>();
+}
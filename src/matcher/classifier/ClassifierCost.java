@@ -0,0 +1,10 @@
+package matcher.classifier;
+
+/**
+ * Rough evaluation cost of a classifier, ranking evaluates cheap classifiers first to discard hopeless candidates early.
+ */
+public enum ClassifierCost {
+	Low,
+	Medium,
+	High;
+}
@@ -0,0 +1,163 @@
+package matcher.classifier;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in statistics about the classifier invocations done by ClassifierUtil.rank and rankTopK.
+ *
+ * <p>Records the call count, run time and score distribution per classifier, subject kind and level. The ranking code
+ * checks {@link #isEnabled} once per call, there is no further overhead while disabled. The statistics get reset by
+ * every {@link #dump} call, making each report cover one auto match step.
+ */
+public final class ClassifierProfiler {
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(boolean enabled) {
+		ClassifierProfiler.enabled = enabled;
+	}
+
+	static void record(IClassifier<?> classifier, Class<?> kind, ClassifierLevel level, long nanos, double score) {
+		stats.computeIfAbsent(new Key(classifier, kind, level), Stats::new).add(nanos, score);
+	}
+
+	/**
+	 * Print and store the report for the invocations since the last dump, does nothing if no invocations were recorded.
+	 */
+	public static void dump(String title) {
+		if (stats.isEmpty()) return;
+
+		List<Stats> entries = new ArrayList<>(stats.values());
+		stats.clear();
+		entries.sort(Comparator.comparingLong((Stats s) -> s.totalNanos.sum()).reversed());
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("Classifier profile for ").append(title).append(':');
+
+		for (Stats s : entries) {
+			long calls = s.calls.sum();
+			if (calls == 0) continue;
+
+			long totalNanos = s.totalNanos.sum();
+
+			sb.append(String.format("%n%-12s %-8s %-30s %9d calls, %10.1f ms total, %8.1f us mean, %8.1f us p99, %.3f mean score, scores ",
+					s.key.level, getKindName(s.key.kind), s.key.classifier.getName(), calls,
+					totalNanos / 1e6, totalNanos / 1e3 / calls, s.getTimePercentile(0.99) / 1e3, s.scoreSum.sum() / calls));
+
+			for (int i = 0; i < scoreBuckets; i++) {
+				sb.append(i == 0 ? '[' : ' ').append(Math.round(100. * s.scores.get(i) / calls));
+			}
+
+			sb.append("]%");
+		}
+
+		lastReport = sb.toString();
+		System.out.println(lastReport);
+	}
+
+	/**
+	 * @return the report printed by the last dump with recorded invocations or null if there was none yet
+	 */
+	public static String getLastReport() {
+		return lastReport;
+	}
+
+	private static String getKindName(Class<?> kind) {
+		String ret = kind.getSimpleName();
+
+		return ret.endsWith("Instance") ? ret.substring(0, ret.length() - "Instance".length()) : ret;
+	}
+
+	/**
+	 * Map nanos to a log-linear histogram bucket with 8 sub-buckets per power of 2, about 12.5% resolution.
+	 */
+	private static int getTimeBucket(long nanos) {
+		if (nanos < 16) return (int) Math.max(nanos, 0);
+
+		int exp = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int) (nanos >>> (exp - 3)) & 7;
+
+		return 16 + (exp - 4) * 8 + sub;
+	}
+
+	private static long getTimeBucketLimit(int bucket) {
+		if (bucket < 16) return bucket;
+
+		int exp = (bucket - 16) / 8 + 4;
+		int sub = (bucket - 16) % 8;
+
+		return (long) (9 + sub) << (exp - 3);
+	}
+
+	private static final class Key {
+		Key(IClassifier<?> classifier, Class<?> kind, ClassifierLevel level) {
+			this.classifier = classifier;
+			this.kind = kind;
+			this.level = level;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) return false;
+
+			Key o = (Key) obj;
+
+			return classifier == o.classifier && kind == o.kind && level == o.level;
+		}
+
+		@Override
+		public int hashCode() {
+			return (System.identityHashCode(classifier) * 31 + kind.hashCode()) * 31 + level.ordinal();
+		}
+
+		final IClassifier<?> classifier;
+		final Class<?> kind;
+		final ClassifierLevel level;
+	}
+
+	private static final class Stats {
+		Stats(Key key) {
+			this.key = key;
+		}
+
+		void add(long nanos, double score) {
+			calls.increment();
+			totalNanos.add(nanos);
+			times.incrementAndGet(getTimeBucket(nanos));
+			scoreSum.add(score);
+			scores.incrementAndGet(Math.max(0, Math.min(scoreBuckets - 1, (int) (score * scoreBuckets))));
+		}
+
+		long getTimePercentile(double percentile) {
+			long total = calls.sum();
+			long remaining = (long) Math.ceil(total * percentile);
+
+			for (int i = 0; i < times.length(); i++) {
+				remaining -= times.get(i);
+				if (remaining <= 0) return getTimeBucketLimit(i);
+			}
+
+			return getTimeBucketLimit(times.length() - 1);
+		}
+
+		final Key key;
+		final LongAdder calls = new LongAdder();
+		final LongAdder totalNanos = new LongAdder();
+		final AtomicLongArray times = new AtomicLongArray(getTimeBucket(Long.MAX_VALUE) + 1);
+		final DoubleAdder scoreSum = new DoubleAdder();
+		final AtomicLongArray scores = new AtomicLongArray(scoreBuckets);
+	}
+
+	private static final int scoreBuckets = 10;
+	private static final Map<Key, Stats> stats = new ConcurrentHashMap<>();
+	private static volatile boolean enabled = Boolean.getBoolean("matcher.profileClassifiers");
+	private static volatile String lastReport;
+}
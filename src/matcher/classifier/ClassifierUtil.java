@@ -4,8 +4,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
@@ -13,11 +15,8 @@ import java.util.function.Function;
 import java.util.function.ToIntBiFunction;
 import java.util.function.ToIntFunction;
 
-import org.objectweb.asm.Handle;
-import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
-import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.FrameNode;
 import org.objectweb.asm.tree.IincInsnNode;
 import org.objectweb.asm.tree.InsnList;
@@ -28,21 +27,23 @@ import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.LineNumberNode;
 import org.objectweb.asm.tree.LookupSwitchInsnNode;
-import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.MultiANewArrayInsnNode;
 import org.objectweb.asm.tree.TableSwitchInsnNode;
-import org.objectweb.asm.tree.TypeInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
 
+import matcher.CancelToken;
 import matcher.Util;
 import matcher.classifier.MatchingCache.CacheToken;
 import matcher.type.ClassEnvironment;
 import matcher.type.ClassInstance;
 import matcher.type.FieldInstance;
 import matcher.type.IMatchable;
+import matcher.type.InsnTokens;
+import matcher.type.MatchState;
 import matcher.type.MethodInstance;
 import matcher.type.MethodVarInstance;
+import matcher.type.NumericConstants;
 
 public class ClassifierUtil {
 	public static boolean checkPotentialEquality(ClassInstance a, ClassInstance b, boolean enableRematch) {
@@ -146,13 +147,128 @@ public class ClassifierUtil {
 	}
 
 	public static <T> double compareSets(Set<T> setA, Set<T> setB, boolean readOnly) {
-		if (readOnly) setB = Util.copySet(setB);
+		final int sizeB = setB.size();
+		int matched;
 
-		int oldSize = setB.size();
-		setB.removeAll(setA);
+		if (readOnly) { // count the common elements without copying, e.g. for the immutable precomputed sets
+			Set<T> small = setA.size() <= sizeB ? setA : setB;
+			Set<T> large = small == setA ? setB : setA;
+			matched = 0;
 
-		int matched = oldSize - setB.size();
-		int total = setA.size() - matched + oldSize;
+			for (T e : small) {
+				if (large.contains(e)) matched++;
+			}
+		} else {
+			setB.removeAll(setA);
+			matched = sizeB - setB.size();
+		}
+
+		int total = setA.size() - matched + sizeB;
+
+		return total == 0 ? 1 : (double) matched / total;
+	}
+
+	/**
+	 * Create a bottom-k MinHash sketch of set for compareSetSketches.
+	 *
+	 * @return sorted distinct hashes or null if the set is small enough to be compared exactly at a similar cost
+	 */
+	public static int[] createSetSketch(Set<?> set) {
+		if (set.size() <= setSketchSize) return null;
+
+		int[] hashes = new int[set.size()];
+		int i = 0;
+
+		for (Object e : set) {
+			int h = e.hashCode() * 0x9e3779b9; // spread the often clustered String hashes
+			hashes[i++] = h ^ h >>> 16;
+		}
+
+		Arrays.sort(hashes);
+
+		int[] ret = new int[setSketchSize];
+		int count = 0;
+
+		for (i = 0; i < hashes.length && count < setSketchSize; i++) {
+			if (count == 0 || hashes[i] != ret[count - 1]) ret[count++] = hashes[i];
+		}
+
+		return count == setSketchSize ? ret : null;
+	}
+
+	/**
+	 * Compare 2 sets like compareSets with readOnly, but estimate the result from their sketches if both are available.
+	 *
+	 * <p>The estimate has a standard error of about 1/sqrt(setSketchSize) and is only intended for the coarse initial
+	 * ranking, the more expensive levels should use the exact comparison.
+	 */
+	public static <T> double compareSetSketches(Set<T> setA, Set<T> setB, int[] sketchA, int[] sketchB) {
+		if (sketchA == null || sketchB == null) return compareSets(setA, setB, true);
+
+		// the k smallest hashes of the union are a uniform sample of it, count those present in both sets
+		int matched = 0;
+		int i = 0, j = 0;
+
+		for (int k = 0; k < setSketchSize; k++) {
+			if (sketchA[i] < sketchB[j]) {
+				i++;
+			} else if (sketchA[i] > sketchB[j]) {
+				j++;
+			} else {
+				matched++;
+				i++;
+				j++;
+			}
+
+			if (i == sketchA.length || j == sketchB.length) break;
+		}
+
+		return (double) matched / setSketchSize;
+	}
+
+	public static double compareNumbers(NumericConstants a, NumericConstants b) {
+		return (compareSortedSets(a.getInts(), b.getInts())
+				+ compareSortedSets(a.getLongs(), b.getLongs())
+				+ compareSortedSets(a.getFloats(), b.getFloats())
+				+ compareSortedSets(a.getDoubles(), b.getDoubles())) / 4;
+	}
+
+	private static double compareSortedSets(int[] a, int[] b) {
+		int matched = 0;
+
+		for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				matched++;
+				i++;
+				j++;
+			}
+		}
+
+		int total = a.length + b.length - matched;
+
+		return total == 0 ? 1 : (double) matched / total;
+	}
+
+	private static double compareSortedSets(long[] a, long[] b) {
+		int matched = 0;
+
+		for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				matched++;
+				i++;
+				j++;
+			}
+		}
+
+		int total = a.length + b.length - matched;
 
 		return total == 0 ? 1 : (double) matched / total;
 	}
@@ -169,56 +285,156 @@ public class ClassifierUtil {
 		return compareIdentitySets(setA, setB, readOnly, ClassifierUtil::checkPotentialEquality);
 	}
 
+	/**
+	 * Compare 2 sets by identity, matches and the comparator for potential matches between unmatched obfuscated elements.
+	 *
+	 * <p>Neither set is being modified regardless of readOnly. Larger sets of opposite sides are compared by merging the
+	 * sorted match ids of a with the sorted ids of b from MatchState.getIdSet, otherwise by identity hash lookups. The
+	 * O(n*m) comparator loops only run for the residual elements that aren't already resolved by identity, existing
+	 * matches or being unobfuscated, and only if both sets have some.
+	 */
 	private static <T extends IMatchable<T>> double compareIdentitySets(Set<T> setA, Set<T> setB, boolean readOnly, BiPredicate<T, T> comparator) {
 		if (setA.isEmpty() || setB.isEmpty()) {
 			return setA.isEmpty() && setB.isEmpty() ? 1 : 0;
 		}
 
-		if (readOnly) {
-			setA = Util.newIdentityHashSet(setA);
-			setB = Util.newIdentityHashSet(setB);
+		if (setA.size() + setB.size() >= minIdSetMergeSize) {
+			MatchState.IdSet<T> idsA = MatchState.getIdSet(setA);
+			MatchState.IdSet<T> idsB = idsA != null ? MatchState.getIdSet(setB) : null;
+
+			if (idsB != null && idsA.getOwner() != idsB.getOwner()) {
+				return compareIdSets(setA, setB, idsA, idsB, comparator);
+			}
 		}
 
 		final int total = setA.size() + setB.size();
 		int unmatched = 0;
+		List<T> residualA = null;
 
 		// precise matches, nameObfuscated a
-		for (Iterator<T> it = setA.iterator(); it.hasNext(); ) {
-			T a = it.next();
+		for (T a : setA) {
+			if (setB.contains(a)) continue;
 
-			if (setB.remove(a)) {
-				it.remove();
-			} else if (a.getMatch() != null) {
-				if (!setB.remove(a.getMatch())) {
-					unmatched++;
-				}
+			T match = a.getMatch();
 
-				it.remove();
+			if (match != null) {
+				// the match is only consumed if no identical element in a already consumed it
+				if (!setB.contains(match) || setA.contains(match)) unmatched++;
 			} else if (assumeBothOrNoneObfuscated && !a.isNameObfuscated(true)) {
 				unmatched++;
-				it.remove();
+			} else {
+				if (residualA == null) residualA = new ArrayList<>();
+				residualA.add(a);
 			}
 		}
 
-		// nameObfuscated b
-		if (assumeBothOrNoneObfuscated) {
-			for (Iterator<T> it = setB.iterator(); it.hasNext(); ) {
-				T b = it.next();
+		List<T> residualB = null;
 
-				if (!b.isNameObfuscated(true)) {
-					unmatched++;
-					it.remove();
-				}
+		// nameObfuscated b, skipping elements consumed by the a loop above
+		for (T b : setB) {
+			if (setA.contains(b)) continue;
+
+			T match = b.getMatch();
+			if (match != null && setA.contains(match) && !setB.contains(match)) continue;
+
+			if (assumeBothOrNoneObfuscated && !b.isNameObfuscated(true)) {
+				unmatched++;
+			} else {
+				if (residualB == null) residualB = new ArrayList<>();
+				residualB.add(b);
+			}
+		}
+
+		if (residualA == null || residualB == null) {
+			unmatched += (residualA != null ? residualA.size() : 0) + (residualB != null ? residualB.size() : 0);
+		} else {
+			unmatched += countUnpaired(residualA, residualB, comparator);
+		}
+
+		assert unmatched <= total;
+
+		return (double) (total - unmatched) / total;
+	}
+
+	/**
+	 * compareIdentitySets for sets of opposite sides with the same result as the hash lookups.
+	 *
+	 * <p>a's elements are resolved by being shared and contained in b or by their match's id being among b's ids, which
+	 * resolves the match in b as well. The remaining unmatched obfuscated elements of a and the unresolved obfuscated
+	 * elements of b form the residuals.
+	 */
+	private static <T extends IMatchable<T>> double compareIdSets(Set<T> setA, Set<T> setB, MatchState.IdSet<T> idsA, MatchState.IdSet<T> idsB, BiPredicate<T, T> comparator) {
+		final int total = setA.size() + setB.size();
+		int resolved = 0; // resolved elements of a, each resolves one element of b
+
+		for (T a : idsA.getShared()) {
+			if (setB.contains(a)) resolved++;
+		}
+
+		int residualCountA = assumeBothOrNoneObfuscated ? idsA.getObfuscatedUnmatchedCount() : idsA.getUnmatched().size();
+		int[] matchIdsA = idsA.getMatchIds();
+		int[] ids = idsB.getIds();
+		List<T> residualB = null;
+
+		for (int i = 0, j = 0; j < ids.length; j++) {
+			if (i == matchIdsA.length && residualCountA == 0) break;
+
+			int id = ids[j];
+			while (i < matchIdsA.length && matchIdsA[i] < id) i++;
+
+			if (i < matchIdsA.length && matchIdsA[i] == id) {
+				resolved++;
+				i++;
+			} else if (residualCountA > 0 && (!assumeBothOrNoneObfuscated || idsB.isObfuscated(j))) {
+				if (residualB == null) residualB = new ArrayList<>();
+				residualB.add(idsB.getElement(j));
+			}
+		}
+
+		// with either residual empty all residual elements count as unmatched
+		if (residualCountA == 0) return (double) (2 * resolved) / total;
+
+		for (T b : idsB.getUnmatched()) {
+			if (b.getIntId() < 0 && (!assumeBothOrNoneObfuscated || b.isNameObfuscated(true))) {
+				if (residualB == null) residualB = new ArrayList<>();
+				residualB.add(b);
 			}
 		}
 
-		for (Iterator<T> it = setA.iterator(); it.hasNext(); ) {
+		for (T b : idsB.getShared()) {
+			if (!setA.contains(b) && (!assumeBothOrNoneObfuscated || b.isNameObfuscated(true))) {
+				if (residualB == null) residualB = new ArrayList<>();
+				residualB.add(b);
+			}
+		}
+
+		if (residualB == null) return (double) (2 * resolved) / total;
+
+		List<T> residualA = new ArrayList<>(residualCountA);
+
+		for (T a : idsA.getUnmatched()) {
+			if (!assumeBothOrNoneObfuscated || a.isNameObfuscated(true)) residualA.add(a);
+		}
+
+		int unmatched = total - 2 * resolved - residualA.size() - residualB.size() + countUnpaired(residualA, residualB, comparator);
+		assert unmatched >= 0 && unmatched <= total;
+
+		return (double) (total - unmatched) / total;
+	}
+
+	/**
+	 * Count the residual elements without a potential match on the other side, residualA is being modified.
+	 */
+	private static <T extends IMatchable<T>> int countUnpaired(List<T> residualA, List<T> residualB, BiPredicate<T, T> comparator) {
+		int unmatched = 0;
+
+		for (Iterator<T> it = residualA.iterator(); it.hasNext(); ) {
 			T a = it.next();
 
 			assert a.getMatch() == null && a.isNameObfuscated(true);
 			boolean found = false;
 
-			for (T b : setB) {
+			for (T b : residualB) {
 				if (comparator.test(a, b)) {
 					found = true;
 					break;
@@ -231,10 +447,10 @@ public class ClassifierUtil {
 			}
 		}
 
-		for (T b : setB) {
+		for (T b : residualB) {
 			boolean found = false;
 
-			for (T a : setA) {
+			for (T a : residualA) {
 				if (comparator.test(a, b)) {
 					found = true;
 					break;
@@ -246,24 +462,172 @@ public class ClassifierUtil {
 			}
 		}
 
-		assert unmatched <= total;
-
-		return (double) (total - unmatched) / total;
+		return unmatched;
 	}
 
 	public static double compareClassLists(List<ClassInstance> listA, List<ClassInstance> listB, boolean enableRematch) {
-		return compareLists(listA, listB, List::get, List::size, (a,b)->ClassifierUtil.checkPotentialEquality(a,b,enableRematch));
+		return compareLists(listA, listB, List::get, List::size, (a,b)->ClassifierUtil.checkPotentialEquality(a,b,enableRematch), CancelToken.NONE);
+	}
+
+	public static double compareInsns(InsnTokens a, InsnTokens b, CancelToken cancelToken) {
+		final int sizeA = a.size();
+		final int sizeB = b.size();
+
+		if (sizeA == 0 && sizeB == 0) return 1;
+		if (sizeA == 0 || sizeB == 0) return 0;
+
+		if (sizeA == sizeB) {
+			boolean match = true;
+
+			for (int i = 0; i < sizeA; i++) {
+				if (!compareInsns(a, i, b, i)) {
+					match = false;
+					break;
+				}
+			}
+
+			if (match) return 1;
+		}
+
+		int distance = getEditDistance(a, b, cancelToken);
+		int upperBound = Math.max(sizeA, sizeB);
+		assert distance >= 0 && distance <= upperBound;
+
+		return 1 - (double) distance / upperBound;
+	}
+
+	private static boolean compareInsns(InsnTokens a, int posA, InsnTokens b, int posB) {
+		int token = a.getToken(posA);
+		if (token != b.getToken(posB)) return false;
+
+		// jumps are always exact, no position provider needed
+		return InsnTokens.isExact(token) || compareInsns(a.getInsn(posA), b.getInsn(posB), a.getRef(posA), b.getRef(posB), null, null, null);
+	}
+
+	/**
+	 * Levenshtein distance between 2 token streams.
+	 *
+	 * <p>This uses Myers' bit-parallel algorithm in Hyyrö's formulation for global distances, a's tokens form the rows
+	 * with 64 of them being processed per long, b's tokens the columns.
+	 */
+	private static int getEditDistance(InsnTokens a, InsnTokens b, CancelToken cancelToken) {
+		final int sizeA = a.size();
+		final int sizeB = b.size();
+		final int blocks = (sizeA + 63) >>> 6;
+
+		// positions in a for each token as bit masks
+		Map<Integer, long[]> tokenMasks = new HashMap<>();
+
+		for (int i = 0; i < sizeA; i++) {
+			tokenMasks.computeIfAbsent(a.getToken(i), ignore -> new long[blocks])[i >>> 6] |= 1L << i;
+		}
+
+		Map<EqKey, long[]> eqCache = new HashMap<>();
+		long[] noMatch = new long[blocks];
+		long[] pv = new long[blocks]; // vertical +1 deltas per row
+		long[] mv = new long[blocks]; // vertical -1 deltas per row
+		Arrays.fill(pv, -1L);
+		final long lastRowBit = 1L << (sizeA - 1);
+		int distance = sizeA;
+
+		for (int j = 0; j < sizeB; j++) {
+			if ((j & 0x3f) == 0) cancelToken.checkCancelled();
+
+			long[] eq = getMatchMask(a, b, j, tokenMasks, eqCache, noMatch);
+			int hIn = 1; // global distance, the first row increases by 1 per column
+
+			for (int k = 0; k < blocks; k++) {
+				long pvk = pv[k];
+				long mvk = mv[k];
+				long eqk = eq[k];
+				long xv = eqk | mvk;
+				if (hIn < 0) eqk |= 1;
+				long xh = (((eqk & pvk) + pvk) ^ pvk) | eqk;
+				long ph = mvk | ~(xh | pvk);
+				long mh = pvk & xh;
+
+				long outBit = k == blocks - 1 ? lastRowBit : Long.MIN_VALUE;
+				int hOut = (ph & outBit) != 0 ? 1 : ((mh & outBit) != 0 ? -1 : 0);
+
+				ph <<= 1;
+				mh <<= 1;
+
+				if (hIn < 0) {
+					mh |= 1;
+				} else if (hIn > 0) {
+					ph |= 1;
+				}
+
+				pv[k] = mh | ~(xv | ph);
+				mv[k] = ph & xv;
+				hIn = hOut;
+			}
+
+			distance += hIn;
+		}
+
+		return distance;
 	}
 
-	public static double compareInsns(InsnList listA, InsnList listB, ClassEnvironment env) {
-		return compareLists(listA, listB, InsnList::get, InsnList::size, (inA, inB) -> compareInsns(inA, inB, listA, listB, (list, item) -> list.indexOf(item), env));
+	/**
+	 * Get the positions in a that match b's token at posB as bit masks.
+	 */
+	private static long[] getMatchMask(InsnTokens a, InsnTokens b, int posB, Map<Integer, long[]> tokenMasks, Map<EqKey, long[]> eqCache, long[] noMatch) {
+		int token = b.getToken(posB);
+		long[] candidates = tokenMasks.get(token);
+
+		if (candidates == null) return noMatch;
+		if (InsnTokens.isExact(token)) return candidates;
+
+		// the result for member and class operands only depends on the token and the resolved operand
+		IMatchable<?> ref = b.getRef(posB);
+		EqKey key = ref != null && b.getInsn(posB).getType() != AbstractInsnNode.INVOKE_DYNAMIC_INSN ? new EqKey(token, ref) : null;
+		long[] ret;
+
+		if (key != null && (ret = eqCache.get(key)) != null) return ret;
+
+		ret = new long[candidates.length];
+
+		for (int k = 0; k < candidates.length; k++) {
+			long mask = candidates[k];
+
+			while (mask != 0) {
+				int bit = Long.numberOfTrailingZeros(mask);
+				mask &= mask - 1;
+
+				if (compareInsns(a, k << 6 | bit, b, posB)) ret[k] |= 1L << bit;
+			}
+		}
+
+		if (key != null) eqCache.put(key, ret);
+
+		return ret;
 	}
 
-	public static double compareInsns(List<AbstractInsnNode> listA, List<AbstractInsnNode> listB, ClassEnvironment env) {
-		return compareLists(listA, listB, List::get, List::size, (inA, inB) -> compareInsns(inA, inB, listA, listB, (list, item) -> list.indexOf(item), env));
+	/**
+	 * Compare 2 member operands from MethodInstance.getInsnRefs.
+	 *
+	 * <p>Members missing from existing owner classes are represented by the owner and only equal each other, a missing
+	 * owner (null) only equals another missing owner.
+	 */
+	private static boolean compareMemberRefs(IMatchable<?> refA, IMatchable<?> refB) {
+		if (refA == null || refB == null) return refA == refB;
+
+		boolean unresolvedA = refA instanceof ClassInstance;
+		boolean unresolvedB = refB instanceof ClassInstance;
+		if (unresolvedA || unresolvedB) return unresolvedA && unresolvedB;
+
+		if (refA instanceof MethodInstance) {
+			return refB instanceof MethodInstance && checkPotentialEquality((MethodInstance) refA, (MethodInstance) refB);
+		} else {
+			return refB instanceof FieldInstance && checkPotentialEquality((FieldInstance) refA, (FieldInstance) refB);
+		}
 	}
 
-	private static <T> boolean compareInsns(AbstractInsnNode insnA, AbstractInsnNode insnB, T listA, T listB, ToIntBiFunction<T, AbstractInsnNode> posProvider, ClassEnvironment env) {
+	/**
+	 * Compare 2 instructions, member and class operands are only checked through their pre-resolved references refA/refB.
+	 */
+	private static <T> boolean compareInsns(AbstractInsnNode insnA, AbstractInsnNode insnB, IMatchable<?> refA, IMatchable<?> refB, T listA, T listB, ToIntBiFunction<T, AbstractInsnNode> posProvider) {
 		if (insnA.getOpcode() != insnB.getOpcode() || insnA.getType() != insnB.getType()) return false;
 
 		switch (insnA.getType()) {
@@ -279,70 +643,20 @@ public class ClassifierUtil {
 
 			return a.var == b.var;
 		}
-		case AbstractInsnNode.TYPE_INSN: {
-			TypeInsnNode a = (TypeInsnNode) insnA;
-			TypeInsnNode b = (TypeInsnNode) insnB;
-			ClassInstance clsA = env.getClsByNameA(a.desc);
-			ClassInstance clsB = env.getClsByNameB(b.desc);
-
-			return checkPotentialEqualityNullable(clsA, clsB, false);
-		}
-		case AbstractInsnNode.FIELD_INSN: {
-			FieldInsnNode a = (FieldInsnNode) insnA;
-			FieldInsnNode b = (FieldInsnNode) insnB;
-			ClassInstance clsA = env.getClsByNameA(a.owner);
-			ClassInstance clsB = env.getClsByNameB(b.owner);
-
-			if (clsA == null && clsB == null) return true;
-			if (clsA == null || clsB == null) return false;
-
-			FieldInstance fieldA = clsA.resolveField(a.name, a.desc);
-			FieldInstance fieldB = clsB.resolveField(b.name, b.desc);
-
-			return checkPotentialEqualityNullable(fieldA, fieldB);
-		}
-		case AbstractInsnNode.METHOD_INSN: {
-			MethodInsnNode a = (MethodInsnNode) insnA;
-			MethodInsnNode b = (MethodInsnNode) insnB;
-
-			return compareMethods(a.owner, a.name, a.desc, Util.isCallToInterface(a),
-					b.owner, b.name, b.desc, Util.isCallToInterface(b),
-					env);
-		}
+		case AbstractInsnNode.TYPE_INSN:
+			return checkPotentialEqualityNullable((ClassInstance) refA, (ClassInstance) refB, false);
+		case AbstractInsnNode.FIELD_INSN:
+		case AbstractInsnNode.METHOD_INSN:
+			return compareMemberRefs(refA, refB);
 		case AbstractInsnNode.INVOKE_DYNAMIC_INSN: {
 			InvokeDynamicInsnNode a = (InvokeDynamicInsnNode) insnA;
 			InvokeDynamicInsnNode b = (InvokeDynamicInsnNode) insnB;
 
 			if (!a.bsm.equals(b.bsm)) return false;
 
-			if (a.bsm.getTag() == Opcodes.H_INVOKESTATIC
-					&& a.bsm.getOwner().equals("java/lang/invoke/LambdaMetafactory")
-					&& a.bsm.getName().equals("metafactory")
-					&& a.bsm.getDesc().equals("(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;")
-					&& !a.bsm.isInterface()) {
-				Handle implA = (Handle) a.bsmArgs[1];
-				Handle implB = (Handle) b.bsmArgs[1];
-
-				if (implA.getTag() != implB.getTag()) return false;
-
-				switch (implA.getTag()) {
-				case Opcodes.H_INVOKEVIRTUAL:
-				case Opcodes.H_INVOKESTATIC:
-				case Opcodes.H_INVOKESPECIAL:
-				case Opcodes.H_NEWINVOKESPECIAL:
-				case Opcodes.H_INVOKEINTERFACE:
-					return compareMethods(implA.getOwner(), implA.getName(), implA.getDesc(), Util.isCallToInterface(implA),
-							implB.getOwner(), implB.getName(), implB.getDesc(), Util.isCallToInterface(implB),
-							env);
-				default:
-					System.out.println("unexpected impl tag: "+implA.getTag());
-				}
-			} else {
-				System.out.printf("unknown invokedynamic bsm: %s/%s%s (tag=%d iif=%b)%n", a.bsm.getOwner(), a.bsm.getName(), a.bsm.getDesc(), a.bsm.getTag(), a.bsm.isInterface());
-			}
-
-			// TODO: implement
-			break;
+			// lambda implementation methods, null for unsupported bootstrap methods
+			// TODO: compare other bsm args
+			return compareMemberRefs(refA, refB);
 		}
 		case AbstractInsnNode.JUMP_INSN: {
 			JumpInsnNode a = (JumpInsnNode) insnA;
@@ -376,7 +690,7 @@ public class ClassifierUtil {
 				switch (typeA.getSort()) {
 				case Type.ARRAY:
 				case Type.OBJECT:
-					return checkPotentialEqualityNullable(env.getClsByIdA(typeA.getDescriptor()), env.getClsByIdB(typeB.getDescriptor()), false);
+					return checkPotentialEqualityNullable((ClassInstance) refA, (ClassInstance) refB, false);
 				case Type.METHOD:
 					// TODO: implement
 					break;
@@ -411,10 +725,7 @@ public class ClassifierUtil {
 
 			if (a.dims != b.dims) return false;
 
-			ClassInstance clsA = env.getClsByNameA(a.desc);
-			ClassInstance clsB = env.getClsByNameB(b.desc);
-
-			return checkPotentialEqualityNullable(clsA, clsB, false);
+			return checkPotentialEqualityNullable((ClassInstance) refA, (ClassInstance) refB, false);
 		}
 		case AbstractInsnNode.FRAME: {
 			// TODO: implement
@@ -473,29 +784,11 @@ public class ClassifierUtil {
 		return true;
 	}
 
-	private static boolean compareMethods(String ownerA, String nameA, String descA, boolean toIfA, String ownerB, String nameB, String descB, boolean toIfB, ClassEnvironment env) {
-		ClassInstance clsA = env.getClsByNameA(ownerA);
-		ClassInstance clsB = env.getClsByNameB(ownerB);
-
-		if (clsA == null && clsB == null) return true;
-		if (clsA == null || clsB == null) return false;
-
-		return compareMethods(clsA, nameA, descA, toIfA, clsB, nameB, descB, toIfB);
-	}
-
-	private static boolean compareMethods(ClassInstance ownerA, String nameA, String descA, boolean toIfA, ClassInstance ownerB, String nameB, String descB, boolean toIfB) {
-		MethodInstance methodA = ownerA.resolveMethod(nameA, descA, toIfA);
-		MethodInstance methodB = ownerB.resolveMethod(nameB, descB, toIfB);
-
-		if (methodA == null && methodB == null) return true;
-		if (methodA == null || methodB == null) return false;
-
-		return checkPotentialEquality(methodA, methodB);
+	private static <T, U> double compareLists(T listA, T listB, ListElementRetriever<T, U> elementRetriever, ListSizeRetriever<T> sizeRetriever, BiPredicate<U, U> elementComparator, CancelToken cancelToken) {
+		return compareLists(sizeRetriever.apply(listA), sizeRetriever.apply(listB), (i, j) -> elementComparator.test(elementRetriever.apply(listA, i), elementRetriever.apply(listB, j)), cancelToken);
 	}
 
-	private static <T, U> double compareLists(T listA, T listB, ListElementRetriever<T, U> elementRetriever, ListSizeRetriever<T> sizeRetriever, BiPredicate<U, U> elementComparator) {
-		final int sizeA = sizeRetriever.apply(listA);
-		final int sizeB = sizeRetriever.apply(listB);
+	private static double compareLists(int sizeA, int sizeB, ElementComparator elementComparator, CancelToken cancelToken) {
 
 		if (sizeA == 0 && sizeB == 0) return 1;
 		if (sizeA == 0 || sizeB == 0) return 0;
@@ -504,7 +797,7 @@ public class ClassifierUtil {
 			boolean match = true;
 
 			for (int i = 0; i < sizeA; i++) {
-				if (!elementComparator.test(elementRetriever.apply(listA, i), elementRetriever.apply(listB, i))) {
+				if (!elementComparator.test(i, i)) {
 					match = false;
 					break;
 				}
@@ -522,10 +815,11 @@ public class ClassifierUtil {
 		}
 
 		for (int i = 0; i < sizeA; i++) {
+			cancelToken.checkCancelled();
 			v1[0] = i + 1;
 
 			for (int j = 0; j < sizeB; j++) {
-				int cost = elementComparator.test(elementRetriever.apply(listA, i), elementRetriever.apply(listB, j)) ? 0 : 1;
+				int cost = elementComparator.test(i, j) ? 0 : 1;
 				v1[j + 1] = Math.min(Math.min(v1[j] + 1, v0[j + 1] + 1), v0[j] + cost);
 			}
 
@@ -541,27 +835,56 @@ public class ClassifierUtil {
 		return 1 - (double) distance / upperBound;
 	}
 
-	public static int[] mapInsns(MethodInstance a, MethodInstance b) {
+	public static int[] mapInsns(MethodInstance a, MethodInstance b, CancelToken cancelToken) {
 		if (a.getAsmNode() == null || b.getAsmNode() == null) return null;
 
 		InsnList ilA = a.getAsmNode().instructions;
 		InsnList ilB = b.getAsmNode().instructions;
 
 		if (ilA.size() * ilB.size() < 1000) {
-			return mapInsns(ilA, ilB, a.getEnv().getGlobal());
+			return mapInsnsUncached(a, b, cancelToken);
 		} else {
-			return a.getEnv().getGlobal().getCache().compute(ilMapCacheToken, a, b, (mA, mB) -> mapInsns(mA.getAsmNode().instructions, mB.getAsmNode().instructions, mA.getEnv().getGlobal()));
+			return a.getEnv().getGlobal().getCache().compute(ilMapCacheToken, a, b, (x, y) -> mapInsnsUncached(x, y, cancelToken), ClassifierUtil::getCodeDependencies);
 		}
 	}
 
-	public static int[] mapInsns(InsnList listA, InsnList listB, ClassEnvironment env) {
-		return mapLists(listA, listB, InsnList::get, InsnList::size, (inA, inB) -> compareInsns(inA, inB, listA, listB, (list, item) -> list.indexOf(item), env));
+	/**
+	 * Gather all entities whose match state influences instruction comparisons involving the supplied method.
+	 */
+	private static Collection<IMatchable<?>> getCodeDependencies(MethodInstance method) {
+		Set<IMatchable<?>> ret = Util.newIdentityHashSet();
+
+		for (IMatchable<?> ref : method.getInsnRefs()) {
+			if (ref instanceof ClassInstance) {
+				addClassDependency((ClassInstance) ref, ret);
+			} else if (ref instanceof MethodInstance) {
+				ret.add(ref);
+				addClassDependency(((MethodInstance) ref).getCls(), ret);
+			} else if (ref instanceof FieldInstance) {
+				ret.add(ref);
+				addClassDependency(((FieldInstance) ref).getCls(), ret);
+			}
+		}
+
+		return ret;
 	}
 
-	private static <T, U> int[] mapLists(T listA, T listB, ListElementRetriever<T, U> elementRetriever, ListSizeRetriever<T> sizeRetriever, BiPredicate<U, U> elementComparator) {
-		final int sizeA = sizeRetriever.apply(listA);
-		final int sizeB = sizeRetriever.apply(listB);
+	private static void addClassDependency(ClassInstance cls, Set<IMatchable<?>> out) {
+		while (out.add(cls) && cls.isArray()) {
+			cls = cls.getElementClass();
+		}
+	}
+
+	static int[] mapInsnsUncached(MethodInstance a, MethodInstance b, CancelToken cancelToken) {
+		InsnList listA = a.getAsmNode().instructions;
+		InsnList listB = b.getAsmNode().instructions;
+		IMatchable<?>[] refsA = a.getInsnRefs();
+		IMatchable<?>[] refsB = b.getInsnRefs();
+
+		return mapLists(listA.size(), listB.size(), (i, j) -> compareInsns(listA.get(i), listB.get(j), refsA[i], refsB[j], listA, listB, InsnList::indexOf), cancelToken);
+	}
 
+	private static int[] mapLists(int sizeA, int sizeB, ElementComparator elementComparator, CancelToken cancelToken) {
 		if (sizeA == 0 && sizeB == 0) return new int[0];
 
 		final int[] ret = new int[sizeA];
@@ -576,7 +899,7 @@ public class ClassifierUtil {
 			boolean match = true;
 
 			for (int i = 0; i < sizeA; i++) {
-				if (!elementComparator.test(elementRetriever.apply(listA, i), elementRetriever.apply(listB, i))) {
+				if (!elementComparator.test(i, i)) {
 					match = false;
 					break;
 				}
@@ -591,6 +914,90 @@ public class ClassifierUtil {
 			}
 		}
 
+		mapLists(0, sizeA, 0, sizeB, elementComparator, cancelToken, ret);
+
+		return ret;
+	}
+
+	/**
+	 * Align the list ranges [startA, endA) and [startB, endB), storing the mapping for startA..endA-1 in out.
+	 *
+	 * <p>Large ranges are split with Hirschberg's algorithm, which only keeps single distance matrix rows in memory,
+	 * until the remaining sub-problems are small enough for a full distance matrix.
+	 */
+	private static void mapLists(int startA, int endA, int startB, int endB, ElementComparator elementComparator, CancelToken cancelToken, int[] out) {
+		int sizeA = endA - startA;
+		int sizeB = endB - startB;
+
+		if (sizeA == 0) return;
+
+		if (sizeB == 0) {
+			Arrays.fill(out, startA, endA, -1);
+			return;
+		}
+
+		cancelToken.checkCancelled();
+
+		if (sizeA == 1 || (long) sizeA * sizeB <= maxAlignMatrixSize) {
+			mapListsFull(startA, endA, startB, endB, elementComparator, out);
+			return;
+		}
+
+		int midA = (startA + endA) >>> 1;
+		int[] distFwd = getLastDistanceRow(startA, midA, startB, endB, false, elementComparator, cancelToken);
+		int[] distRev = getLastDistanceRow(midA, endA, startB, endB, true, elementComparator, cancelToken);
+		int split = 0;
+		int minDist = Integer.MAX_VALUE;
+
+		for (int j = 0; j <= sizeB; j++) {
+			int dist = distFwd[j] + distRev[sizeB - j];
+
+			if (dist < minDist) {
+				minDist = dist;
+				split = j;
+			}
+		}
+
+		mapLists(startA, midA, startB, startB + split, elementComparator, cancelToken, out);
+		mapLists(midA, endA, startB + split, endB, elementComparator, cancelToken, out);
+	}
+
+	/**
+	 * Compute the levenshtein distances between [startA, endA) and all prefixes of [startB, endB), or between the
+	 * reversed ranges (= suffixes of [startB, endB)) if reverse is set.
+	 */
+	private static int[] getLastDistanceRow(int startA, int endA, int startB, int endB, boolean reverse, ElementComparator elementComparator, CancelToken cancelToken) {
+		int sizeB = endB - startB;
+		int[] v0 = new int[sizeB + 1];
+		int[] v1 = new int[sizeB + 1];
+
+		for (int j = 0; j <= sizeB; j++) {
+			v0[j] = j;
+		}
+
+		for (int i = 0; i < endA - startA; i++) {
+			cancelToken.checkCancelled();
+			int posA = reverse ? endA - 1 - i : startA + i;
+			v1[0] = i + 1;
+
+			for (int j = 0; j < sizeB; j++) {
+				int posB = reverse ? endB - 1 - j : startB + j;
+				int cost = elementComparator.test(posA, posB) ? 0 : 1;
+				v1[j + 1] = Math.min(Math.min(v1[j] + 1, v0[j + 1] + 1), v0[j] + cost);
+			}
+
+			int[] tmp = v0;
+			v0 = v1;
+			v1 = tmp;
+		}
+
+		return v0;
+	}
+
+	private static void mapListsFull(int startA, int endA, int startB, int endB, ElementComparator elementComparator, int[] out) {
+		final int sizeA = endA - startA;
+		final int sizeB = endB - startB;
+
 		// levenshtein distance as per wp (https://en.wikipedia.org/wiki/Levenshtein_distance#Iterative_with_two_matrix_rows)
 		int size = sizeA + 1;
 		int[] v = new int[size * (sizeB + 1)];
@@ -605,20 +1012,12 @@ public class ClassifierUtil {
 
 		for (int j = 1; j <= sizeB; j++) {
 			for (int i = 1; i <= sizeA; i++) {
-				int cost = elementComparator.test(elementRetriever.apply(listA, i - 1), elementRetriever.apply(listB, j - 1)) ? 0 : 1;
+				int cost = elementComparator.test(startA + i - 1, startB + j - 1) ? 0 : 1;
 
 				v[i + j * size] = Math.min(Math.min(v[i - 1 + j * size] + 1, v[i + (j - 1) * size] + 1), v[i - 1 + (j - 1) * size] + cost);
 			}
 		}
 
-		/*for (int j = 0; j <= sizeB; j++) {
-			for (int i = 0; i <= sizeA; i++) {
-				System.out.print(v[i + j * size]+" ");
-			}
-
-			System.out.println();
-		}*/
-
 		int i = sizeA;
 		int j = sizeB;
 
@@ -626,24 +1025,21 @@ public class ClassifierUtil {
 			int c = v[i + j * size];
 
 			if (i > 0 && v[i - 1 + j * size] + 1 == c) {
-				//System.out.println(i+"/"+j+" del "+elementRetriever.apply(listA, i - 1));
-				ret[i - 1] = -1;
+				// deletion
+				out[startA + i - 1] = -1;
 				i--;
 			} else if (j > 0 && v[i + (j - 1) * size] + 1 == c) {
-				//System.out.println(i+"/"+j+" ins "+elementRetriever.apply(listB, j - 1));
-				ret[i - 1] = -1;
+				// insertion, doesn't consume an element of a
 				j--;
 			} else if (i > 0 && j > 0) {
 				int dist = c - v[i - 1 + (j - 1) * size];
 
-				if (dist == 1) {
-					//System.out.println(i+"/"+j+" rep "+elementRetriever.apply(listA, i - 1)+" -> "+elementRetriever.apply(listB, j - 1));
-					ret[i - 1] = -1;
+				if (dist == 1) { // replacement
+					out[startA + i - 1] = -1;
 				} else {
 					assert dist == 0;
 
-					//System.out.println(i+"/"+j+" eq");
-					ret[i - 1] = j - 1;
+					out[startA + i - 1] = startB + j - 1;
 				}
 
 				i--;
@@ -652,8 +1048,6 @@ public class ClassifierUtil {
 				break;
 			}
 		}
-
-		return ret;
 	}
 
 	private static interface ListElementRetriever<T, U> {
@@ -664,19 +1058,52 @@ public class ClassifierUtil {
 		int apply(T list);
 	}
 
-	public static <T extends IMatchable<T>> List<RankResult<T>> rank(T src, T[] dsts, Collection<IClassifier<T>> classifiers, double totalWeight, BiPredicate<T, T> potentialEqualityCheck, ClassEnvironment env) {
+	private static interface ElementComparator {
+		boolean test(int posA, int posB);
+	}
+
+	private static final class EqKey {
+		EqKey(int token, IMatchable<?> ref) {
+			this.token = token;
+			this.ref = ref;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof EqKey)) return false;
+
+			EqKey o = (EqKey) obj;
+
+			return token == o.token && ref == o.ref;
+		}
+
+		@Override
+		public int hashCode() {
+			return token * 31 + System.identityHashCode(ref);
+		}
+
+		final int token;
+		final IMatchable<?> ref;
+	}
+
+	public static <T extends IMatchable<T>> List<RankResult<T>> rank(T src, T[] dsts, Collection<IClassifier<T>> classifiers, ClassifierLevel level, double totalWeight, BiPredicate<T, T> potentialEqualityCheck, ClassEnvironment env, CancelToken cancelToken) {
 		List<RankResult<T>> ret = new ArrayList<>(dsts.length);
+		final boolean profile = ClassifierProfiler.isEnabled();
 
 		for (T dst : dsts) {
 			assert src.getEnv() != dst.getEnv();
 
 			if (!potentialEqualityCheck.test(src, dst)) continue;
 
+			cancelToken.checkCancelled();
+
 			double score = 0;
 			List<ClassifierResult<T>> results = new ArrayList<>(classifiers.size());
 
 			for (IClassifier<T> classifier : classifiers) {
-				double cScore = classifier.getScore(src, dst, env);
+				long startTime = profile ? System.nanoTime() : 0;
+				double cScore = classifier.getScore(src, dst, env, cancelToken);
+				if (profile) ClassifierProfiler.record(classifier, src.getClass(), level, System.nanoTime() - startTime, cScore);
 				assert cScore > -epsilon && cScore < 1 + epsilon : "invalid score from "+classifier.getName()+": "+cScore;
 
 				score += cScore * classifier.getWeight();
@@ -691,7 +1118,63 @@ public class ClassifierUtil {
 		return ret;
 	}
 
-	private static double adjustTotalScore(double score) {
+	/**
+	 * Determine the k best candidates for src as needed for a checkRank evaluation with the supplied thresholds.
+	 *
+	 * <p>A candidate gets dropped as soon as its score upper bound, assuming perfect results from the classifiers not
+	 * evaluated yet, drops below max(absThreshold, best score so far) * (1 - relThreshold). Such a candidate can neither
+	 * be the best result nor invalidate the best result through the relative threshold.
+	 */
+	public static <T extends IMatchable<T>> TopRankResult<T> rankTopK(T src, T[] dsts, List<IClassifier<T>> classifiers, ClassifierLevel level, double totalWeight, BiPredicate<T, T> potentialEqualityCheck, ClassEnvironment env,
+			int k, double absThreshold, double relThreshold, CancelToken cancelToken) {
+		TopRankResult<T> ret = new TopRankResult<>(k);
+		final int classifierCount = classifiers.size();
+		final boolean profile = ClassifierProfiler.isEnabled();
+
+		dstLoop: for (T dst : dsts) {
+			assert src.getEnv() != dst.getEnv();
+
+			if (!potentialEqualityCheck.test(src, dst)) continue;
+
+			cancelToken.checkCancelled();
+
+			double score = 0;
+			double remainingWeight = totalWeight;
+			double minScore = Math.max(absThreshold, ret.isEmpty() ? 0 : ret.getScore(0)) * (1 - relThreshold) - epsilon;
+
+			for (int i = 0; i < classifierCount; i++) {
+				IClassifier<T> classifier = classifiers.get(i);
+				long startTime = profile ? System.nanoTime() : 0;
+				double cScore = classifier.getScore(src, dst, env, cancelToken);
+				if (profile) ClassifierProfiler.record(classifier, src.getClass(), level, System.nanoTime() - startTime, cScore);
+				assert cScore > -epsilon && cScore < 1 + epsilon : "invalid score from "+classifier.getName()+": "+cScore;
+
+				score += cScore * classifier.getWeight();
+				remainingWeight -= classifier.getWeight();
+
+				if (adjustTotalScore((score + remainingWeight) / totalWeight) < minScore) continue dstLoop;
+			}
+
+			ret.add(dst, adjustTotalScore(score / totalWeight));
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Add a classifier to a level's classifier list, keeping the list ordered by cost and registration order.
+	 */
+	static <T> void addClassifier(List<IClassifier<T>> classifiers, IClassifier<T> classifier) {
+		int pos = classifiers.size();
+
+		while (pos > 0 && classifiers.get(pos - 1).getCost().compareTo(classifier.getCost()) > 0) {
+			pos--;
+		}
+
+		classifiers.add(pos, classifier);
+	}
+
+	static double adjustTotalScore(double score) {
 		return score * score;
 	}
 
@@ -813,7 +1296,10 @@ public class ClassifierUtil {
 	}
 
 	private static final boolean assumeBothOrNoneObfuscated = true;
+	private static final int minIdSetMergeSize = 8; // smaller sets are faster to compare by hash lookups
 	private static final double epsilon = 1e-6;
+	private static final int setSketchSize = 64;
 
-	private static final CacheToken<int[]> ilMapCacheToken = new CacheToken<>();
+	private static final CacheToken<int[]> ilMapCacheToken = new CacheToken<>("insn mapping", map -> 16 + 4L * map.length);
+	private static final long maxAlignMatrixSize = 1 << 20; // max element count for full alignment distance matrices
 }
@@ -3,20 +3,20 @@ package matcher.classifier;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumMap;
-import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.InsnList;
 
+import matcher.CancelToken;
 import matcher.type.ClassEnvironment;
 import matcher.type.ClassInstance;
 import matcher.type.FieldInstance;
+import matcher.type.InsnTokens;
 import matcher.type.MemberInstance;
 import matcher.type.MethodInstance;
 
@@ -40,7 +40,7 @@ public class FieldClassifier {
 		classifier.weight = weight;
 
 		for (ClassifierLevel level : levels) {
-			classifiers.computeIfAbsent(level, ignore -> new ArrayList<>()).add(classifier);
+			ClassifierUtil.addClassifier(classifiers.computeIfAbsent(level, ignore -> new ArrayList<>()), classifier);
 			maxScore.put(level, getMaxScore(level) + weight);
 		}
 	}
@@ -49,8 +49,12 @@ public class FieldClassifier {
 		return maxScore.getOrDefault(level, 0.);
 	}
 
-	public static List<RankResult<FieldInstance>> rank(FieldInstance src, FieldInstance[] dsts, ClassifierLevel level, ClassEnvironment env) {
-		return ClassifierUtil.rank(src, dsts, classifiers.getOrDefault(level, Collections.emptyList()), getMaxScore(level), ClassifierUtil::checkPotentialEquality, env);
+	public static List<RankResult<FieldInstance>> rank(FieldInstance src, FieldInstance[] dsts, ClassifierLevel level, ClassEnvironment env, CancelToken cancelToken) {
+		return ClassifierUtil.rank(src, dsts, classifiers.getOrDefault(level, Collections.emptyList()), level, getMaxScore(level), ClassifierUtil::checkPotentialEquality, env, cancelToken);
+	}
+
+	public static TopRankResult<FieldInstance> rankTopK(FieldInstance src, FieldInstance[] dsts, ClassifierLevel level, ClassEnvironment env, double absThreshold, double relThreshold, CancelToken cancelToken) {
+		return ClassifierUtil.rankTopK(src, dsts, classifiers.getOrDefault(level, Collections.emptyList()), level, getMaxScore(level), ClassifierUtil::checkPotentialEquality, env, 2, absThreshold, relThreshold, cancelToken);
 	}
 
 	private static final Map<ClassifierLevel, List<IClassifier<FieldInstance>>> classifiers = new IdentityHashMap<>();
@@ -58,7 +62,7 @@ public class FieldClassifier {
 
 	private static AbstractClassifier fieldTypeCheck = new AbstractClassifier("field type check") {
 		@Override
-		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env) {
+		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env, CancelToken cancelToken) {
 			if (!checkAsmNodes(fieldA, fieldB)) return compareAsmNodes(fieldA, fieldB);
 
 			int mask = Opcodes.ACC_STATIC;
@@ -71,7 +75,7 @@ public class FieldClassifier {
 
 	private static AbstractClassifier accessFlags = new AbstractClassifier("access flags") {
 		@Override
-		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env) {
+		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env, CancelToken cancelToken) {
 			if (!checkAsmNodes(fieldA, fieldB)) return compareAsmNodes(fieldA, fieldB);
 
 			int mask = (Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED | Opcodes.ACC_PRIVATE) | Opcodes.ACC_FINAL | Opcodes.ACC_VOLATILE | Opcodes.ACC_TRANSIENT | Opcodes.ACC_SYNTHETIC;
@@ -84,28 +88,28 @@ public class FieldClassifier {
 
 	private static AbstractClassifier type = new AbstractClassifier("types") {
 		@Override
-		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env) {
+		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.checkPotentialEquality(fieldA.getType(), fieldB.getType(), false) ? 1 : 0;
 		}
 	};
 
 	private static AbstractClassifier readReferences = new AbstractClassifier("read references") {
 		@Override
-		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env) {
+		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.compareMethodSets(fieldA.getReadRefs(), fieldB.getReadRefs(), true);
 		}
 	};
 
 	private static AbstractClassifier writeReferences = new AbstractClassifier("write references") {
 		@Override
-		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env) {
+		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.compareMethodSets(fieldA.getWriteRefs(), fieldB.getWriteRefs(), true);
 		}
 	};
 
 	private static AbstractClassifier position = new AbstractClassifier("position") {
 		@Override
-		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env) {
+		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env, CancelToken cancelToken) {
 			/*if (fieldA.position == fieldB.position) return 1;
 
 			double relPosA = ClassifierUtil.getRelativePosition(fieldA.position, fieldA.cls.fields.size());
@@ -118,7 +122,7 @@ public class FieldClassifier {
 
 	private static AbstractClassifier initValue = new AbstractClassifier("init value") {
 		@Override
-		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env) {
+		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env, CancelToken cancelToken) {
 			if (!checkAsmNodes(fieldA, fieldB)) return compareAsmNodes(fieldA, fieldB);
 
 			Object valA = fieldA.getAsmNode().value;
@@ -131,40 +135,35 @@ public class FieldClassifier {
 		}
 	};
 
-	private static AbstractClassifier initStrings = new AbstractClassifier("init strings") {
+	private static AbstractClassifier initStrings = new AbstractClassifier("init strings", ClassifierCost.Medium) {
 		@Override
-		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env) {
+		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env, CancelToken cancelToken) {
 			List<AbstractInsnNode> initA = fieldA.getInitializer();
 			List<AbstractInsnNode> initB = fieldB.getInitializer();
 
 			if (initA == null && initB == null) return 1;
 			if (initA == null || initB == null) return 0;
 
-			Set<String> stringsA = new HashSet<>();
-			ClassifierUtil.extractStrings(initA, stringsA);
-			Set<String> stringsB = new HashSet<>();
-			ClassifierUtil.extractStrings(initB, stringsB);
-
-			return ClassifierUtil.compareSets(stringsA, stringsB, false);
+			return ClassifierUtil.compareSets(fieldA.getInitStrings(), fieldB.getInitStrings(), true);
 		}
 	};
 
-	private static AbstractClassifier initCode = new AbstractClassifier("init code") {
+	private static AbstractClassifier initCode = new AbstractClassifier("init code", ClassifierCost.High) {
 		@Override
-		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env) {
-			List<AbstractInsnNode> initA = fieldA.getInitializer();
-			List<AbstractInsnNode> initB = fieldB.getInitializer();
+		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env, CancelToken cancelToken) {
+			InsnTokens initA = fieldA.getInitTokens();
+			InsnTokens initB = fieldB.getInitTokens();
 
 			if (initA == null && initB == null) return 1;
 			if (initA == null || initB == null) return 0;
 
-			return ClassifierUtil.compareInsns(initA, initB, env);
+			return ClassifierUtil.compareInsns(initA, initB, cancelToken);
 		}
 	};
 
-	private static AbstractClassifier readRefsBci = new AbstractClassifier("read refs (bci)") {
+	private static AbstractClassifier readRefsBci = new AbstractClassifier("read refs (bci)", ClassifierCost.High) {
 		@Override
-		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env) {
+		public double getScore(FieldInstance fieldA, FieldInstance fieldB, ClassEnvironment env, CancelToken cancelToken) {
 			int matched = 0;
 			int mismatched = 0;
 
@@ -176,7 +175,7 @@ public class FieldClassifier {
 					continue;
 				}
 
-				int[] map = ClassifierUtil.mapInsns(src, dst);
+				int[] map = ClassifierUtil.mapInsns(src, dst, cancelToken);
 				if (map == null) continue;
 
 				InsnList ilA = src.getAsmNode().instructions;
@@ -223,7 +222,12 @@ public class FieldClassifier {
 
 	private static abstract class AbstractClassifier implements IClassifier<FieldInstance> {
 		AbstractClassifier(String name) {
+			this(name, ClassifierCost.Low);
+		}
+
+		AbstractClassifier(String name, ClassifierCost cost) {
 			this.name = name;
+			this.cost = cost;
 		}
 
 		@Override
@@ -236,7 +240,13 @@ public class FieldClassifier {
 			return weight;
 		}
 
+		@Override
+		public ClassifierCost getCost() {
+			return cost;
+		}
+
 		private final String name;
+		private final ClassifierCost cost;
 		private double weight;
 	}
 }
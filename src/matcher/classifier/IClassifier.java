@@ -1,9 +1,14 @@
 package matcher.classifier;
 
+import matcher.CancelToken;
 import matcher.type.ClassEnvironment;
 
 public interface IClassifier<T> {
 	String getName();
 	double getWeight();
-	double getScore(T a, T b, ClassEnvironment env);
+	double getScore(T a, T b, ClassEnvironment env, CancelToken cancelToken);
+
+	default ClassifierCost getCost() {
+		return ClassifierCost.Low;
+	}
 }
\ No newline at end of file
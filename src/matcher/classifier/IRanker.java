@@ -1,9 +1,8 @@
 package matcher.classifier;
 
-import java.util.List;
-
+import matcher.CancelToken;
 import matcher.type.ClassEnvironment;
 
 public interface IRanker<T> {
-	List<RankResult<T>> rank(T src, T[] dsts, ClassifierLevel level, ClassEnvironment env);
-}
\ No newline at end of file
+	TopRankResult<T> rankTopK(T src, T[] dsts, ClassifierLevel level, ClassEnvironment env, double absThreshold, double relThreshold, CancelToken cancelToken);
+}
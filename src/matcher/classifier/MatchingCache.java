@@ -1,27 +1,390 @@
 package matcher.classifier;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 import matcher.type.IMatchable;
 
+/**
+ * Weight bounded cache for values computed from 2 matchables, evicted by a segmented LRU policy.
+ *
+ * <p>New entries enter the probation segment and get promoted to the protected segment on their first hit, the
+ * protected segment is limited to protectedShare of the max weight and demotes its LRU entries back to probation.
+ * Evictions take the LRU probation entries, which keeps one-off entries from flushing frequently reused ones.
+ */
 public class MatchingCache {
+	public MatchingCache() {
+		this(getDefaultMaxWeight());
+	}
+
+	/**
+	 * @param maxWeight max. total weight of all entries, approximately in bytes
+	 */
+	public MatchingCache(long maxWeight) {
+		if (maxWeight <= 0) throw new IllegalArgumentException("invalid max weight: "+maxWeight);
+
+		this.maxWeight = maxWeight;
+		this.maxProtectedWeight = (long) (maxWeight * protectedShare);
+	}
+
+	private static long getDefaultMaxWeight() {
+		String value = System.getProperty("matcher.cacheMaxMb");
+
+		if (value != null) {
+			try {
+				long ret = Long.parseLong(value);
+				if (ret > 0) return ret << 20;
+			} catch (NumberFormatException e) { }
+
+			System.out.println("invalid matcher.cacheMaxMb value: "+value);
+		}
+
+		return Runtime.getRuntime().maxMemory() / 4;
+	}
+
 	@SuppressWarnings("unchecked")
 	public <T, U extends IMatchable<U>> T get(CacheToken<T> token, U a, U b) {
-		return (T) cache.get(new CacheKey<U>(token, a, b));
+		Entry entry = cache.get(new CacheKey<U>(token, a, b));
+
+		return entry != null ? (T) entry.value : null;
 	}
 
-	@SuppressWarnings("unchecked")
 	public <T, U extends IMatchable<U>> T compute(CacheToken<T> token, U a, U b, BiFunction<U, U, T> f) {
-		return (T) cache.computeIfAbsent(new CacheKey<U>(token, a, b), k -> f.apply((U) k.a, (U) k.b));
+		return compute(token, a, b, f, null);
+	}
+
+	/**
+	 * Compute a cached value that also depends on the match state of the entities supplied by dependencyProvider for a and b.
+	 *
+	 * <p>The entry gets evicted by {@link #invalidate} if a, b or any of their dependencies change. Concurrent misses
+	 * for the same key may compute the value multiple times, only the first result is being kept. A value is returned
+	 * but not kept if any invalidation happened while it was being computed, its inputs may have changed halfway.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T, U extends IMatchable<U>> T compute(CacheToken<T> token, U a, U b, BiFunction<U, U, T> f, Function<U, Collection<? extends IMatchable<?>>> dependencyProvider) {
+		CacheKey<U> key = new CacheKey<>(token, a, b);
+		Entry entry = cache.get(key);
+
+		if (entry != null) {
+			token.stats.hits.increment();
+			onHit(key, entry);
+
+			return (T) entry.value;
+		}
+
+		token.stats.misses.increment();
+
+		long startGeneration = generation.get();
+		long startTime = System.nanoTime();
+		T value = f.apply(a, b);
+		token.stats.loadTime.add(System.nanoTime() - startTime);
+
+		Collection<? extends IMatchable<?>> depsA = dependencyProvider != null ? dependencyProvider.apply(a) : Collections.emptySet();
+		Collection<? extends IMatchable<?>> depsB = dependencyProvider != null ? dependencyProvider.apply(b) : Collections.emptySet();
+		if (generation.get() != startGeneration) return value;
+
+		entry = new Entry(key, value, entryOverhead + token.weigher.applyAsLong(value), depsA, depsB);
+
+		Entry prev = cache.putIfAbsent(key, entry);
+		if (prev != null) return (T) prev.value;
+
+		addDependency(a, entry);
+		addDependency(b, entry);
+		for (IMatchable<?> dep : depsA) addDependency(dep, entry);
+		for (IMatchable<?> dep : depsB) addDependency(dep, entry);
+
+		onInsert(key, entry, startGeneration);
+
+		return value;
+	}
+
+	private void addDependency(IMatchable<?> dep, Entry entry) {
+		dependents.computeIfAbsent(dep, ignore -> ConcurrentHashMap.newKeySet()).add(entry);
+	}
+
+	private void onHit(CacheKey<?> key, Entry entry) {
+		// hits are only used for ordering, skip them under contention instead of serializing all readers
+		if (!lock.tryLock()) return;
+
+		try {
+			if (entry.segment == probation) {
+				if (probation.remove(key) == null) return; // evicted or invalidated concurrently
+
+				probationWeight -= entry.weight;
+				entry.segment = protectedSegment;
+				protectedSegment.put(key, entry);
+				protectedWeight += entry.weight;
+
+				demoteProtected();
+			} else if (entry.segment == protectedSegment) {
+				if (protectedSegment.remove(key) != null) protectedSegment.put(key, entry);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void onInsert(CacheKey<?> key, Entry entry, long startGeneration) {
+		List<Entry> evicted = null;
+
+		lock.lock();
+
+		try {
+			// invalidated concurrently, possibly before all dependency links were added or before the entry was visible
+			if (cache.get(key) != entry || generation.get() != startGeneration) {
+				if (cache.remove(key, entry)) key.token.stats.invalidations.increment();
+				evicted = Collections.singletonList(entry);
+				return;
+			}
+
+			entry.segment = probation;
+			probation.put(key, entry);
+			probationWeight += entry.weight;
+
+			// evict from probation first, then from protected if probation alone can't satisfy the limit
+			while (probationWeight + protectedWeight > maxWeight) {
+				Map<CacheKey<?>, Entry> segment = probation.isEmpty() ? protectedSegment : probation;
+				Iterator<Map.Entry<CacheKey<?>, Entry>> it = segment.entrySet().iterator();
+				if (!it.hasNext()) break;
+
+				Map.Entry<CacheKey<?>, Entry> lru = it.next();
+				it.remove();
+
+				if (segment == probation) {
+					probationWeight -= lru.getValue().weight;
+				} else {
+					protectedWeight -= lru.getValue().weight;
+				}
+
+				lru.getValue().segment = null;
+				cache.remove(lru.getKey(), lru.getValue());
+				lru.getKey().token.stats.evictions.increment();
+
+				if (evicted == null) evicted = new ArrayList<>();
+				evicted.add(lru.getValue());
+			}
+		} finally {
+			lock.unlock();
+
+			if (evicted != null) {
+				for (Entry e : evicted) {
+					removeDependencies(e);
+				}
+			}
+		}
+	}
+
+	private void demoteProtected() {
+		while (protectedWeight > maxProtectedWeight && protectedSegment.size() > 1) {
+			Iterator<Map.Entry<CacheKey<?>, Entry>> it = protectedSegment.entrySet().iterator();
+			Map.Entry<CacheKey<?>, Entry> lru = it.next();
+			it.remove();
+
+			protectedWeight -= lru.getValue().weight;
+			lru.getValue().segment = probation;
+			probation.put(lru.getKey(), lru.getValue());
+			probationWeight += lru.getValue().weight;
+		}
+	}
+
+	/**
+	 * Drop the dependency links of an evicted or invalidated entry so they don't outlive it.
+	 */
+	private void removeDependencies(Entry entry) {
+		removeDependency(entry.key.a, entry);
+		removeDependency(entry.key.b, entry);
+		for (IMatchable<?> dep : entry.depsA) removeDependency(dep, entry);
+		for (IMatchable<?> dep : entry.depsB) removeDependency(dep, entry);
+	}
+
+	private void removeDependency(IMatchable<?> dep, Entry entry) {
+		Set<Entry> entries = dependents.get(dep);
+		if (entries != null) entries.remove(entry);
+	}
+
+	/**
+	 * Evict all entries depending on the match state of the supplied entity.
+	 */
+	public void invalidate(IMatchable<?> matchable) {
+		if (matchable == null) return;
+
+		// before unlinking, so a concurrent compute either sees the new generation or has its links in place already
+		generation.incrementAndGet();
+
+		Set<Entry> entries = dependents.remove(matchable);
+		if (entries == null) return;
+
+		lock.lock();
+
+		try {
+			for (Iterator<Entry> it = entries.iterator(); it.hasNext(); ) {
+				Entry entry = it.next();
+				CacheKey<?> key = entry.key;
+
+				if (!cache.remove(key, entry)) {
+					it.remove(); // already evicted, which dropped its other links
+					continue;
+				}
+
+				key.token.stats.invalidations.increment();
+
+				if (entry.segment == probation) {
+					probation.remove(key);
+					probationWeight -= entry.weight;
+				} else if (entry.segment == protectedSegment) {
+					protectedSegment.remove(key);
+					protectedWeight -= entry.weight;
+				}
+
+				entry.segment = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		// the entries are still linked from their other dependencies, which would keep them reachable
+		for (Entry entry : entries) {
+			removeDependencies(entry);
+		}
 	}
 
 	public void clear() {
-		cache.clear();
+		lock.lock();
+
+		try {
+			generation.incrementAndGet();
+			cache.clear();
+			dependents.clear();
+			probation.clear();
+			protectedSegment.clear();
+			probationWeight = protectedWeight = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	public long getWeight() {
+		lock.lock();
+
+		try {
+			return probationWeight + protectedWeight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Whether the auto matching passes print the cache statistics when they finish, set by the matcher.cacheStats system
+	 * property.
+	 */
+	public static boolean isStatsEnabled() {
+		return statsEnabled;
+	}
+
+	public static void setStatsEnabled(boolean enabled) {
+		statsEnabled = enabled;
+	}
+
+	/**
+	 * Print the statistics of all cache tokens used so far, they aren't reset by {@link #clear}.
+	 */
+	public void printStats() {
+		System.out.printf("matching cache: %d entries, %.1f / %.1f MiB%n", size(), getWeight() / 1048576., maxWeight / 1048576.);
+
+		for (CacheToken<?> token : CacheToken.tokens) {
+			CacheStats stats = token.stats;
+			long hits = stats.hits.sum();
+			long misses = stats.misses.sum();
+			if (hits + misses == 0) continue;
+
+			System.out.printf("  %s: %d hits, %d misses (%.1f%% hit rate), %d evictions, %d invalidations, %.1f ms loading%n",
+					token.name, hits, misses, 100. * hits / (hits + misses),
+					stats.evictions.sum(), stats.invalidations.sum(), stats.loadTime.sum() / 1e6);
+		}
 	}
 
-	public static final class CacheToken<t> {}
+	public static final class CacheToken<T> {
+		public CacheToken(String name) {
+			this(name, value -> defaultValueWeight);
+		}
+
+		/**
+		 * @param weigher approximate retained size of a cached value in bytes
+		 */
+		public CacheToken(String name, ToLongFunction<? super T> weigher) {
+			this.name = name;
+			this.weigher = weigher;
+
+			tokens.add(this);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public CacheStats getStats() {
+			return stats;
+		}
+
+		private static final Collection<CacheToken<?>> tokens = new CopyOnWriteArrayList<>();
+
+		final String name;
+		final ToLongFunction<? super T> weigher;
+		final CacheStats stats = new CacheStats();
+	}
+
+	/**
+	 * Cumulative statistics for one cache token, loadTime is in ns.
+	 */
+	public static final class CacheStats {
+		public long getHits() {
+			return hits.sum();
+		}
+
+		public long getMisses() {
+			return misses.sum();
+		}
+
+		public long getEvictions() {
+			return evictions.sum();
+		}
+
+		public long getInvalidations() {
+			return invalidations.sum();
+		}
+
+		public long getLoadTime() {
+			return loadTime.sum();
+		}
+
+		final LongAdder hits = new LongAdder();
+		final LongAdder misses = new LongAdder();
+		final LongAdder evictions = new LongAdder();
+		final LongAdder invalidations = new LongAdder();
+		final LongAdder loadTime = new LongAdder();
+	}
 
 	private static class CacheKey<T extends IMatchable<T>> {
 		public CacheKey(CacheToken<?> token, T a, T b) {
@@ -49,5 +412,40 @@ public class MatchingCache {
 		final T b;
 	}
 
-	private final Map<CacheKey<?>, Object> cache = new ConcurrentHashMap<>();
+	/**
+	 * Cached value, compared by identity so the dependency links of an evicted entry can't affect its successor.
+	 */
+	private static final class Entry {
+		Entry(CacheKey<?> key, Object value, long weight, Collection<? extends IMatchable<?>> depsA, Collection<? extends IMatchable<?>> depsB) {
+			this.key = key;
+			this.value = value;
+			this.weight = weight;
+			this.depsA = depsA;
+			this.depsB = depsB;
+		}
+
+		final CacheKey<?> key;
+		final Object value;
+		final long weight;
+		final Collection<? extends IMatchable<?>> depsA;
+		final Collection<? extends IMatchable<?>> depsB;
+		Map<CacheKey<?>, Entry> segment; // guarded by lock, null if not (yet) in a segment
+	}
+
+	private static final double protectedShare = 0.8;
+	private static final long entryOverhead = 96; // key, entry, map node and dependency set slots
+	private static final long defaultValueWeight = 16;
+
+	private static volatile boolean statsEnabled = Boolean.getBoolean("matcher.cacheStats");
+
+	private final long maxWeight;
+	private final long maxProtectedWeight;
+	private final Map<CacheKey<?>, Entry> cache = new ConcurrentHashMap<>();
+	private final Map<IMatchable<?>, Set<Entry>> dependents = new ConcurrentHashMap<>(); // by identity, see Entry
+	private final ReentrantLock lock = new ReentrantLock();
+	private final AtomicLong generation = new AtomicLong(); // incremented by every invalidation, see compute
+	private final LinkedHashMap<CacheKey<?>, Entry> probation = new LinkedHashMap<>();
+	private final LinkedHashMap<CacheKey<?>, Entry> protectedSegment = new LinkedHashMap<>();
+	private long probationWeight;
+	private long protectedWeight;
 }
@@ -6,6 +6,7 @@ import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 
+import matcher.CancelToken;
 import matcher.type.ClassEnvironment;
 import matcher.type.MethodVarInstance;
 
@@ -21,7 +22,7 @@ public class MethodArgClassifier {
 		classifier.weight = weight;
 
 		for (ClassifierLevel level : levels) {
-			classifiers.computeIfAbsent(level, ignore -> new ArrayList<>()).add(classifier);
+			ClassifierUtil.addClassifier(classifiers.computeIfAbsent(level, ignore -> new ArrayList<>()), classifier);
 			maxScore.put(level, getMaxScore(level) + weight);
 		}
 	}
@@ -30,8 +31,12 @@ public class MethodArgClassifier {
 		return maxScore.getOrDefault(level, 0.);
 	}
 
-	public static List<RankResult<MethodVarInstance>> rank(MethodVarInstance src, MethodVarInstance[] dsts, ClassifierLevel level, ClassEnvironment env) {
-		return ClassifierUtil.rank(src, dsts, classifiers.getOrDefault(level, Collections.emptyList()), getMaxScore(level), ClassifierUtil::checkPotentialEquality, env);
+	public static List<RankResult<MethodVarInstance>> rank(MethodVarInstance src, MethodVarInstance[] dsts, ClassifierLevel level, ClassEnvironment env, CancelToken cancelToken) {
+		return ClassifierUtil.rank(src, dsts, classifiers.getOrDefault(level, Collections.emptyList()), level, getMaxScore(level), ClassifierUtil::checkPotentialEquality, env, cancelToken);
+	}
+
+	public static TopRankResult<MethodVarInstance> rankTopK(MethodVarInstance src, MethodVarInstance[] dsts, ClassifierLevel level, ClassEnvironment env, double absThreshold, double relThreshold, CancelToken cancelToken) {
+		return ClassifierUtil.rankTopK(src, dsts, classifiers.getOrDefault(level, Collections.emptyList()), level, getMaxScore(level), ClassifierUtil::checkPotentialEquality, env, 2, absThreshold, relThreshold, cancelToken);
 	}
 
 	private static final Map<ClassifierLevel, List<IClassifier<MethodVarInstance>>> classifiers = new EnumMap<>(ClassifierLevel.class);
@@ -39,21 +44,26 @@ public class MethodArgClassifier {
 
 	private static AbstractClassifier type = new AbstractClassifier("type") {
 		@Override
-		public double getScore(MethodVarInstance argA, MethodVarInstance argB, ClassEnvironment env) {
+		public double getScore(MethodVarInstance argA, MethodVarInstance argB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.checkPotentialEquality(argA.getType(), argB.getType(), false) ? 1 : 0;
 		}
 	};
 
 	private static AbstractClassifier position = new AbstractClassifier("position") {
 		@Override
-		public double getScore(MethodVarInstance methodA, MethodVarInstance methodB, ClassEnvironment env) {
+		public double getScore(MethodVarInstance methodA, MethodVarInstance methodB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.classifyPosition(methodA, methodB, MethodVarInstance::getIndex, (a, idx) -> a.getMethod().getArg(idx), a -> a.getMethod().getArgs());
 		}
 	};
 
 	private static abstract class AbstractClassifier implements IClassifier<MethodVarInstance> {
 		AbstractClassifier(String name) {
+			this(name, ClassifierCost.Low);
+		}
+
+		AbstractClassifier(String name, ClassifierCost cost) {
 			this.name = name;
+			this.cost = cost;
 		}
 
 		@Override
@@ -66,7 +76,13 @@ public class MethodArgClassifier {
 			return weight;
 		}
 
+		@Override
+		public ClassifierCost getCost() {
+			return cost;
+		}
+
 		private final String name;
+		private final ClassifierCost cost;
 		private double weight;
 	}
 }
@@ -4,7 +4,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -14,6 +13,7 @@ import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.MethodInsnNode;
 
+import matcher.CancelToken;
 import matcher.type.ClassEnvironment;
 import matcher.type.ClassInstance;
 import matcher.type.MemberInstance;
@@ -47,7 +47,7 @@ public class MethodClassifier {
 		classifier.weight = weight;
 
 		for (ClassifierLevel level : levels) {
-			classifiers.computeIfAbsent(level, ignore -> new ArrayList<>()).add(classifier);
+			ClassifierUtil.addClassifier(classifiers.computeIfAbsent(level, ignore -> new ArrayList<>()), classifier);
 			maxScore.put(level, getMaxScore(level) + weight);
 		}
 	}
@@ -56,14 +56,26 @@ public class MethodClassifier {
 		return maxScore.getOrDefault(level, 0.);
 	}
 
-	public static List<RankResult<MethodInstance>> rank(MethodInstance src, MethodInstance[] dsts, ClassifierLevel level, ClassEnvironment env) {
-		return rank(src, dsts, level, env, true);
+	public static List<RankResult<MethodInstance>> rank(MethodInstance src, MethodInstance[] dsts, ClassifierLevel level, ClassEnvironment env, CancelToken cancelToken) {
+		return rank(src, dsts, level, env, true, cancelToken);
 	}
 
-	public static List<RankResult<MethodInstance>> rank(MethodInstance src, MethodInstance[] dsts, ClassifierLevel level, ClassEnvironment env, boolean restrictAlreadyMatched) {
+	public static List<RankResult<MethodInstance>> rank(MethodInstance src, MethodInstance[] dsts, ClassifierLevel level, ClassEnvironment env, boolean restrictAlreadyMatched, CancelToken cancelToken) {
+		dsts = getRankDsts(src, dsts, restrictAlreadyMatched);
+
+		return ClassifierUtil.rank(src, dsts, classifiers.getOrDefault(level, Collections.emptyList()), level, getMaxScore(level), (a,b)->ClassifierUtil.checkPotentialEquality(a,b,!restrictAlreadyMatched), env, cancelToken);
+	}
+
+	public static TopRankResult<MethodInstance> rankTopK(MethodInstance src, MethodInstance[] dsts, ClassifierLevel level, ClassEnvironment env, double absThreshold, double relThreshold, CancelToken cancelToken) {
+		dsts = getRankDsts(src, dsts, true);
+
+		return ClassifierUtil.rankTopK(src, dsts, classifiers.getOrDefault(level, Collections.emptyList()), level, getMaxScore(level), ClassifierUtil::checkPotentialEquality, env, 2, absThreshold, relThreshold, cancelToken);
+	}
+
+	private static MethodInstance[] getRankDsts(MethodInstance src, MethodInstance[] dsts, boolean restrictAlreadyMatched) {
 		if (src.getMatch() != null && restrictAlreadyMatched) { // already matched,  limit dsts to the match
 			if (!Arrays.asList(dsts).contains(src.getMatch())) {
-				return Collections.emptyList();
+				return new MethodInstance[0];
 			} else if (dsts.length != 1) {
 				dsts = new MethodInstance[] { src.getMatch() };
 			}
@@ -83,14 +95,13 @@ public class MethodClassifier {
 					}
 				}
 
-				if (writeIdx == 0) return Collections.emptyList();
 				if (writeIdx < newDsts.length) newDsts = Arrays.copyOf(newDsts, writeIdx);
 
 				dsts = newDsts;
 			}
 		}
 
-		return ClassifierUtil.rank(src, dsts, classifiers.getOrDefault(level, Collections.emptyList()), getMaxScore(level), (a,b)->ClassifierUtil.checkPotentialEquality(a,b,!restrictAlreadyMatched), env);
+		return dsts;
 	}
 
 	private static final Map<ClassifierLevel, List<IClassifier<MethodInstance>>> classifiers = new EnumMap<>(ClassifierLevel.class);
@@ -98,7 +109,7 @@ public class MethodClassifier {
 
 	private static AbstractClassifier methodTypeCheck = new AbstractClassifier("method type check") {
 		@Override
-		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env) {
+		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env, CancelToken cancelToken) {
 			if (!checkAsmNodes(methodA, methodB)) return compareAsmNodes(methodA, methodB);
 
 			int mask = Opcodes.ACC_STATIC | Opcodes.ACC_NATIVE | Opcodes.ACC_ABSTRACT;
@@ -111,7 +122,7 @@ public class MethodClassifier {
 
 	private static AbstractClassifier accessFlags = new AbstractClassifier("access flags") {
 		@Override
-		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env) {
+		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env, CancelToken cancelToken) {
 			if (!checkAsmNodes(methodA, methodB)) return compareAsmNodes(methodA, methodB);
 
 			int mask = (Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED | Opcodes.ACC_PRIVATE) | Opcodes.ACC_FINAL | Opcodes.ACC_SYNCHRONIZED | Opcodes.ACC_BRIDGE | Opcodes.ACC_VARARGS | Opcodes.ACC_STRICT | Opcodes.ACC_SYNTHETIC;
@@ -124,7 +135,7 @@ public class MethodClassifier {
 
 	private static AbstractClassifier argTypes = new AbstractClassifier("arg types") {
 		@Override
-		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env) {
+		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.compareClassLists(getArgTypes(methodA), getArgTypes(methodB), false);
 		}
 	};
@@ -144,117 +155,97 @@ public class MethodClassifier {
 
 	private static AbstractClassifier retType = new AbstractClassifier("ret type") {
 		@Override
-		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env) {
+		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.checkPotentialEquality(methodA.getRetType(), methodB.getRetType(), false) ? 1 : 0;
 		}
 	};
 
 	private static AbstractClassifier classRefs = new AbstractClassifier("class refs") {
 		@Override
-		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env) {
+		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.compareClassSets(methodA.getClassRefs(), methodB.getClassRefs(), true, false);
 		}
 	};
 
-	private static AbstractClassifier stringConstants = new AbstractClassifier("string constants") {
+	private static AbstractClassifier stringConstants = new AbstractClassifier("string constants", ClassifierCost.Medium) {
 		@Override
-		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env) {
+		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env, CancelToken cancelToken) {
 			if (!checkAsmNodes(methodA, methodB)) return compareAsmNodes(methodA, methodB);
 
-			Set<String> stringsA = new HashSet<>();
-			ClassifierUtil.extractStrings(methodA.getAsmNode().instructions, stringsA);
-			Set<String> stringsB = new HashSet<>();
-			ClassifierUtil.extractStrings(methodB.getAsmNode().instructions, stringsB);
-
-			return ClassifierUtil.compareSets(stringsA, stringsB, false);
+			return ClassifierUtil.compareSets(methodA.getStrings(), methodB.getStrings(), true);
 		}
 	};
 
-	private static AbstractClassifier numericConstants = new AbstractClassifier("numeric constants") {
+	private static AbstractClassifier numericConstants = new AbstractClassifier("numeric constants", ClassifierCost.Medium) {
 		@Override
-		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env) {
+		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env, CancelToken cancelToken) {
 			if (!checkAsmNodes(methodA, methodB)) return compareAsmNodes(methodA, methodB);
 
-			Set<Integer> intsA = new HashSet<>();
-			Set<Integer> intsB = new HashSet<>();
-			Set<Long> longsA = new HashSet<>();
-			Set<Long> longsB = new HashSet<>();
-			Set<Float> floatsA = new HashSet<>();
-			Set<Float> floatsB = new HashSet<>();
-			Set<Double> doublesA = new HashSet<>();
-			Set<Double> doublesB = new HashSet<>();
-
-			ClassifierUtil.extractNumbers(methodA.getAsmNode(), intsA, longsA, floatsA, doublesA);
-			ClassifierUtil.extractNumbers(methodB.getAsmNode(), intsB, longsB, floatsB, doublesB);
-
-			return (ClassifierUtil.compareSets(intsA, intsB, false)
-					+ ClassifierUtil.compareSets(longsA, longsB, false)
-					+ ClassifierUtil.compareSets(floatsA, floatsB, false)
-					+ ClassifierUtil.compareSets(doublesA, doublesB, false)) / 4;
+			return ClassifierUtil.compareNumbers(methodA.getNumbers(), methodB.getNumbers());
 		}
 	};
 
 	private static AbstractClassifier parentMethods = new AbstractClassifier("parent methods") {
 		@Override
-		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env) {
+		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.compareMethodSets(methodA.getParents(), methodB.getParents(), true);
 		}
 	};
 
 	private static AbstractClassifier childMethods = new AbstractClassifier("child methods") {
 		@Override
-		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env) {
+		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.compareMethodSets(methodA.getChildren(), methodB.getChildren(), true);
 		}
 	};
 
 	private static AbstractClassifier outReferences = new AbstractClassifier("out references") {
 		@Override
-		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env) {
+		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.compareMethodSets(methodA.getRefsOut(), methodB.getRefsOut(), true);
 		}
 	};
 
 	private static AbstractClassifier inReferences = new AbstractClassifier("in references") {
 		@Override
-		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env) {
+		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.compareMethodSets(methodA.getRefsIn(), methodB.getRefsIn(), true);
 		}
 	};
 
 	private static AbstractClassifier fieldReads = new AbstractClassifier("field reads") {
 		@Override
-		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env) {
+		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.compareFieldSets(methodA.getFieldReadRefs(), methodB.getFieldReadRefs(), true);
 		}
 	};
 
 	private static AbstractClassifier fieldWrites = new AbstractClassifier("field writes") {
 		@Override
-		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env) {
+		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.compareFieldSets(methodA.getFieldWriteRefs(), methodB.getFieldWriteRefs(), true);
 		}
 	};
 
 	private static AbstractClassifier position = new AbstractClassifier("position") {
 		@Override
-		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env) {
+		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.classifyPosition(methodA, methodB, MemberInstance::getPosition, (m, idx) -> m.getCls().getMethod(idx), m -> m.getCls().getMethods());
 		}
 	};
 
-	private static AbstractClassifier code = new AbstractClassifier("code") {
+	private static AbstractClassifier code = new AbstractClassifier("code", ClassifierCost.High) {
 		@Override
-		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env) {
+		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env, CancelToken cancelToken) {
 			if (!checkAsmNodes(methodA, methodB)) return compareAsmNodes(methodA, methodB);
 
-			return ClassifierUtil.compareInsns(methodA.getAsmNode().instructions, methodB.getAsmNode().instructions, env);
+			return ClassifierUtil.compareInsns(methodA.getInsnTokens(), methodB.getInsnTokens(), cancelToken);
 		}
 	};
 
-	private static AbstractClassifier inRefsBci = new AbstractClassifier("in refs (bci)") {
+	private static AbstractClassifier inRefsBci = new AbstractClassifier("in refs (bci)", ClassifierCost.High) {
 		@Override
-		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env) {
+		public double getScore(MethodInstance methodA, MethodInstance methodB, ClassEnvironment env, CancelToken cancelToken) {
 			int matched = 0;
 			int mismatched = 0;
 
@@ -268,7 +259,7 @@ public class MethodClassifier {
 					continue;
 				}
 
-				int[] map = ClassifierUtil.mapInsns(src, dst);
+				int[] map = ClassifierUtil.mapInsns(src, dst, cancelToken);
 				if (map == null) continue;
 
 				InsnList ilA = src.getAsmNode().instructions;
@@ -307,7 +298,7 @@ public class MethodClassifier {
 
 	private static AbstractClassifier methodAnnotation = new AbstractClassifier("method annotations") {
 		@Override
-		public double getScore(MethodInstance a, MethodInstance b, ClassEnvironment env) {
+		public double getScore(MethodInstance a, MethodInstance b, ClassEnvironment env, CancelToken cancelToken) {
 			return ClassifierUtil.compareSets(a.getAnnotations(), b.getAnnotations(), true);
 		}
 	};
@@ -322,7 +313,12 @@ public class MethodClassifier {
 
 	private static abstract class AbstractClassifier implements IClassifier<MethodInstance> {
 		AbstractClassifier(String name) {
+			this(name, ClassifierCost.Low);
+		}
+
+		AbstractClassifier(String name, ClassifierCost cost) {
 			this.name = name;
+			this.cost = cost;
 		}
 
 		@Override
@@ -335,7 +331,13 @@ public class MethodClassifier {
 			return weight;
 		}
 
+		@Override
+		public ClassifierCost getCost() {
+			return cost;
+		}
+
 		private final String name;
+		private final ClassifierCost cost;
 		private double weight;
 	}
 }
@@ -0,0 +1,177 @@
+package matcher.classifier;
+
+import java.util.Arrays;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+
+import matcher.type.ClassInstance;
+import matcher.type.FieldInstance;
+import matcher.type.IClassEnv;
+import matcher.type.IMatchable;
+import matcher.type.InsnTokens;
+import matcher.type.MethodInstance;
+import matcher.type.MethodVarInstance;
+
+/**
+ * Normalized structural hashes for detecting classes and methods that are identical apart from obfuscated names.
+ *
+ * <p>Obfuscated names of unmatched classes and members are abstracted away, matched ones are represented by their
+ * side A counterpart's name. Equal entities on both sides thus hash the same, but the hashes change as matches are
+ * being added.
+ */
+public class StructuralHash {
+	/**
+	 * @param envA environment of side A, used to pick a side independent representative for matched references
+	 */
+	public static long get(ClassInstance cls, IClassEnv envA) {
+		long ret = mix(cls.getAccess() & classAccessMask);
+		ret = combine(ret, getRefHash(cls, envA, true));
+		ret = combine(ret, getRefHash(cls.getSuperClass(), envA, false));
+
+		long ifaceHash = 0;
+
+		for (ClassInstance iface : cls.getInterfaces()) { // order independent
+			ifaceHash += mix(getRefHash(iface, envA, false));
+		}
+
+		ret = combine(ret, ifaceHash);
+
+		long[] memberHashes = new long[cls.getMethods().length];
+
+		for (int i = 0; i < memberHashes.length; i++) {
+			memberHashes[i] = get(cls.getMethods()[i], envA);
+		}
+
+		ret = combineSorted(ret, memberHashes);
+		memberHashes = new long[cls.getFields().length];
+
+		for (int i = 0; i < memberHashes.length; i++) {
+			memberHashes[i] = get(cls.getFields()[i], envA);
+		}
+
+		return combineSorted(ret, memberHashes);
+	}
+
+	public static long get(MethodInstance method, IClassEnv envA) {
+		long ret = mix(method.getAccess() & memberAccessMask);
+		ret = combine(ret, method.isNameObfuscated(false) ? 0 : method.getName().hashCode());
+
+		for (MethodVarInstance arg : method.getArgs()) {
+			ret = combine(ret, getRefHash(arg.getType(), envA, false));
+		}
+
+		ret = combine(ret, getRefHash(method.getRetType(), envA, false));
+
+		InsnTokens tokens = method.getInsnTokens();
+
+		for (int i = 0; i < tokens.size(); i++) {
+			ret = combine(ret, tokens.getToken(i));
+
+			IMatchable<?> ref = tokens.getRef(i);
+
+			if (ref != null) {
+				ret = combine(ret, getRefHash(ref, envA));
+			} else if (tokens.getInsn(i).getType() == AbstractInsnNode.LDC_INSN) {
+				Object cst = ((LdcInsnNode) tokens.getInsn(i)).cst;
+				if (!(cst instanceof Type)) ret = combine(ret, cst.hashCode()); // the token only holds a partial hash
+			}
+		}
+
+		return ret;
+	}
+
+	public static long get(FieldInstance field, IClassEnv envA) {
+		long ret = mix(field.getAccess() & memberAccessMask);
+		ret = combine(ret, field.isNameObfuscated(false) ? 0 : field.getName().hashCode());
+		ret = combine(ret, getRefHash(field.getType(), envA, false));
+
+		Object value = field.getAsmNode() != null ? field.getAsmNode().value : null;
+
+		return combine(ret, value != null ? value.hashCode() : 0);
+	}
+
+	private static long getRefHash(IMatchable<?> ref, IClassEnv envA) {
+		if (ref instanceof ClassInstance) {
+			return getRefHash((ClassInstance) ref, envA, false);
+		} else if (ref instanceof MethodInstance) {
+			MethodInstance method = (MethodInstance) ref;
+			long ret = combine(getRefHash(method.getCls(), envA, false), getMemberNameHash(method, envA));
+
+			for (MethodVarInstance arg : method.getArgs()) {
+				ret = combine(ret, getRefHash(arg.getType(), envA, false));
+			}
+
+			return combine(ret, getRefHash(method.getRetType(), envA, false));
+		} else if (ref instanceof FieldInstance) {
+			FieldInstance field = (FieldInstance) ref;
+			long ret = combine(getRefHash(field.getCls(), envA, false), getMemberNameHash(field, envA));
+
+			return combine(ret, getRefHash(field.getType(), envA, false));
+		} else {
+			throw new IllegalArgumentException("unsupported ref: "+ref);
+		}
+	}
+
+	private static <T extends IMatchable<T>> long getMemberNameHash(T member, IClassEnv envA) {
+		T match = member.getMatch();
+
+		if (match != null) {
+			return 1 + (member.getEnv() == envA ? member : match).getName().hashCode();
+		} else if (!member.isNameObfuscated(false)) {
+			return 1 + member.getName().hashCode();
+		} else {
+			return 0;
+		}
+	}
+
+	private static long getRefHash(ClassInstance cls, IClassEnv envA, boolean self) {
+		if (cls == null) return 0;
+
+		if (cls.isArray()) {
+			return combine(cls.getArrayDimensions(), getRefHash(cls.getElementClass(), envA, self));
+		}
+
+		ClassInstance match = cls.getMatch();
+
+		if (match != null) {
+			return 1 + (cls.getEnv() == envA ? cls : match).getId().hashCode();
+		} else if (!cls.isNameObfuscated(false)) {
+			return 1 + cls.getId().hashCode();
+		} else {
+			return self ? 1 : 0;
+		}
+	}
+
+	private static long combineSorted(long hash, long[] values) {
+		Arrays.sort(values); // member order isn't significant
+
+		for (long value : values) {
+			hash = combine(hash, value);
+		}
+
+		return combine(hash, values.length);
+	}
+
+	private static long combine(long hash, long value) {
+		return mix(hash * 0x9e3779b97f4a7c15L + value);
+	}
+
+	private static long mix(long v) {
+		// murmur3 fmix64
+		v ^= v >>> 33;
+		v *= 0xff51afd7ed558ccdL;
+		v ^= v >>> 33;
+		v *= 0xc4ceb9fe1a85ec53L;
+		v ^= v >>> 33;
+
+		return v;
+	}
+
+	private static final int classAccessMask = Opcodes.ACC_PUBLIC | Opcodes.ACC_PRIVATE | Opcodes.ACC_PROTECTED | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL
+			| Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT | Opcodes.ACC_SYNTHETIC | Opcodes.ACC_ANNOTATION | Opcodes.ACC_ENUM;
+	private static final int memberAccessMask = Opcodes.ACC_PUBLIC | Opcodes.ACC_PRIVATE | Opcodes.ACC_PROTECTED | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL
+			| Opcodes.ACC_SYNCHRONIZED | Opcodes.ACC_VOLATILE | Opcodes.ACC_TRANSIENT | Opcodes.ACC_NATIVE | Opcodes.ACC_ABSTRACT | Opcodes.ACC_SYNTHETIC;
+}
@@ -0,0 +1,64 @@
+package matcher.classifier;
+
+/**
+ * Best k rank results in descending score order, without any per-candidate allocation or classifier details.
+ *
+ * <p>Candidates with equal scores keep their insertion order, matching the stable sort used for full rankings.
+ */
+public class TopRankResult<T> {
+	public TopRankResult(int capacity) {
+		if (capacity <= 0) throw new IllegalArgumentException("invalid capacity: "+capacity);
+
+		subjects = new Object[capacity];
+		scores = new double[capacity];
+	}
+
+	public void add(T subject, double score) {
+		int pos = size;
+
+		while (pos > 0 && scores[pos - 1] < score) {
+			pos--;
+		}
+
+		if (pos >= subjects.length) return;
+
+		int end = Math.min(size, subjects.length - 1);
+		System.arraycopy(subjects, pos, subjects, pos + 1, end - pos);
+		System.arraycopy(scores, pos, scores, pos + 1, end - pos);
+
+		subjects[pos] = subject;
+		scores[pos] = score;
+		if (size < subjects.length) size++;
+	}
+
+	public void addAll(TopRankResult<T> o) {
+		for (int i = 0; i < o.size; i++) {
+			add(o.getSubject(i), o.scores[i]);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T getSubject(int idx) {
+		if (idx >= size) throw new IndexOutOfBoundsException(Integer.toString(idx));
+
+		return (T) subjects[idx];
+	}
+
+	public double getScore(int idx) {
+		if (idx >= size) throw new IndexOutOfBoundsException(Integer.toString(idx));
+
+		return scores[idx];
+	}
+
+	private final Object[] subjects;
+	private final double[] scores;
+	private int size;
+}
@@ -11,6 +11,7 @@ import javafx.geometry.Pos;
 import javafx.scene.control.Button;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.StackPane;
+import matcher.CancelToken;
 import matcher.classifier.ClassifierLevel;
 import matcher.classifier.FieldClassifier;
 import matcher.classifier.MethodClassifier;
@@ -181,7 +182,7 @@ public class BottomPane extends StackPane implements IGuiComponent {
 		for (MethodInstance m : clsA.getMethods()) {
 			if (m.hasMatch()) continue;
 
-			List<RankResult<MethodInstance>> results = MethodClassifier.rank(m, clsB.getMethods(), ClassifierLevel.Full, gui.getEnv());
+			List<RankResult<MethodInstance>> results = MethodClassifier.rank(m, clsB.getMethods(), ClassifierLevel.Full, gui.getEnv(), CancelToken.NONE);
 
 			if (!results.isEmpty() && results.get(0).getScore() >= minScore && (results.size() == 1 || results.get(1).getScore() < minScore)) {
 				MethodInstance match = results.get(0).getSubject();
@@ -202,7 +203,7 @@ public class BottomPane extends StackPane implements IGuiComponent {
 		for (FieldInstance m : clsA.getFields()) {
 			if (m.hasMatch()) continue;
 
-			List<RankResult<FieldInstance>> results = FieldClassifier.rank(m, clsB.getFields(), ClassifierLevel.Full, gui.getEnv());
+			List<RankResult<FieldInstance>> results = FieldClassifier.rank(m, clsB.getFields(), ClassifierLevel.Full, gui.getEnv(), CancelToken.NONE);
 
 			if (!results.isEmpty() && results.get(0).getScore() >= minScore && (results.size() == 1 || results.get(1).getScore() < minScore)) {
 				FieldInstance match = results.get(0).getSubject();
@@ -7,12 +7,13 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.DoubleConsumer;
 
@@ -23,6 +24,7 @@ import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
+import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.Label;
 import javafx.scene.control.ProgressBar;
@@ -38,6 +40,7 @@ import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 import javafx.stage.Window;
+import matcher.CancelToken;
 import matcher.Matcher;
 import matcher.gui.menu.MainMenuBar;
 import matcher.type.ClassEnvironment;
@@ -168,6 +171,15 @@ public class Gui extends Application {
 	}
 
 	public void runProgressTask(String labelText, Consumer<DoubleConsumer> task, Runnable onSuccess, Consumer<Throwable> onError) {
+		runProgressTask(labelText, task, onSuccess, onError, null);
+	}
+
+	/**
+	 * Run task in the background while showing a progress dialog, offering to cancel the supplied token if not null.
+	 *
+	 * <p>A task aborted through the token reports a CancellationException to onError.
+	 */
+	public void runProgressTask(String labelText, Consumer<DoubleConsumer> task, Runnable onSuccess, Consumer<Throwable> onError, CancelToken cancelToken) {
 		Stage stage = new Stage(StageStyle.UTILITY);
 		stage.initOwner(this.scene.getWindow());
 		VBox pane = new VBox(GuiConstants.padding);
@@ -186,6 +198,15 @@ public class Gui extends Application {
 		progress.setPrefWidth(400);
 		pane.getChildren().add(progress);
 
+		if (cancelToken != null) {
+			Button cancelButton = new Button("Cancel");
+			cancelButton.setOnAction(event -> {
+				cancelToken.cancel();
+				cancelButton.setDisable(true);
+			});
+			pane.getChildren().add(cancelButton);
+		}
+
 		stage.show();
 
 		Task<Void> jfxTask = new Task<Void>() {
@@ -263,7 +284,27 @@ public class Gui extends Application {
 		Name, MappedName, MatchStatus;
 	}
 
-	private static final ExecutorService threadPool = Executors.newCachedThreadPool();
+	private static ThreadPoolExecutor createThreadPool() {
+		int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		AtomicInteger threadCounter = new AtomicInteger();
+
+		ThreadPoolExecutor ret = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, "Gui worker "+threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+
+			return thread;
+		});
+
+		ret.allowCoreThreadTimeOut(true);
+
+		return ret;
+	}
+
+	public static boolean isCancellation(Throwable exc) {
+		return exc instanceof CancellationException || exc != null && exc.getCause() instanceof CancellationException;
+	}
+
+	private static final ExecutorService threadPool = createThreadPool();
 
 	private ClassEnvironment env;
 	private Matcher matcher;
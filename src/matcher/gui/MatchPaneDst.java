@@ -9,6 +9,7 @@ import java.util.concurrent.Callable;
 import javafx.geometry.Orientation;
 import javafx.scene.control.ListView;
 import javafx.scene.control.SplitPane;
+import matcher.CancelToken;
 import matcher.classifier.ClassClassifier;
 import matcher.classifier.FieldClassifier;
 import matcher.classifier.MethodClassifier;
@@ -199,16 +200,20 @@ public class MatchPaneDst extends SplitPane implements IFwdGuiComponent, ISelect
 		public void onClassSelect(ClassInstance cls) {
 			final int cClassId = ++classId;
 
+			// abort the ranking for the previous selection
+			classRankToken.cancel();
+			final CancelToken cancelToken = classRankToken = new CancelToken();
+
 			classList.getItems().clear();
 			memberList.getItems().clear();
 
 			if (cls == null) return;
 			if (cmpClasses == null) return;
 
-			Gui.runAsyncTask(() -> ClassClassifier.rank(cls, cmpClasses.toArray(new ClassInstance[0]), gui.getMatcher().getAutoMatchLevel(), gui.getEnv(), false))
+			Gui.runAsyncTask(() -> ClassClassifier.rank(cls, gui.getMatcher().getClassRankCandidates(cls, cmpClasses), gui.getMatcher().getAutoMatchLevel(), gui.getEnv(), false, cancelToken))
 			.whenComplete((res, exc) -> {
 				if (exc != null) {
-					exc.printStackTrace();
+					if (!Gui.isCancellation(exc)) exc.printStackTrace();
 				} else if (cClassId == classId) {
 					classList.getItems().setAll(res);
 
@@ -242,6 +247,9 @@ public class MatchPaneDst extends SplitPane implements IFwdGuiComponent, ISelect
 		private void onMemberSelect(MemberInstance<?> member) {
 			final int cMemberId = ++memberId;
 
+			memberRankToken.cancel();
+			final CancelToken cancelToken = memberRankToken = new CancelToken();
+
 			memberList.getItems().clear();
 
 			if (member == null) return;
@@ -250,16 +258,16 @@ public class MatchPaneDst extends SplitPane implements IFwdGuiComponent, ISelect
 			Callable<List<? extends RankResult<? extends MemberInstance<?>>>> ranker;
 
 			if (member instanceof MethodInstance) {
-				ranker = () -> MethodClassifier.rank((MethodInstance) member, member.getCls().getMatch().getMethods(), gui.getMatcher().getAutoMatchLevel(), gui.getEnv());
+				ranker = () -> MethodClassifier.rank((MethodInstance) member, member.getCls().getMatch().getMethods(), gui.getMatcher().getAutoMatchLevel(), gui.getEnv(), cancelToken);
 			} else {
-				ranker = () -> FieldClassifier.rank((FieldInstance) member, member.getCls().getMatch().getFields(), gui.getMatcher().getAutoMatchLevel(), gui.getEnv());
+				ranker = () -> FieldClassifier.rank((FieldInstance) member, member.getCls().getMatch().getFields(), gui.getMatcher().getAutoMatchLevel(), gui.getEnv(), cancelToken);
 			}
 
 			// update matches list
 			Gui.runAsyncTask(ranker)
 			.whenComplete((res, exc) -> {
 				if (exc != null) {
-					exc.printStackTrace();
+					if (!Gui.isCancellation(exc)) exc.printStackTrace();
 				} else if (cMemberId == memberId) {
 					memberList.getItems().setAll((List<RankResult<MemberInstance<?>>>) res);
 
@@ -281,6 +289,8 @@ public class MatchPaneDst extends SplitPane implements IFwdGuiComponent, ISelect
 
 		private int classId;
 		private int memberId;
+		private CancelToken classRankToken = new CancelToken();
+		private CancelToken memberRankToken = new CancelToken();
 	}
 
 	private final Gui gui;
@@ -1,12 +1,18 @@
 package matcher.gui.menu;
 
 import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
 
 import javafx.scene.control.Alert.AlertType;
+import javafx.scene.control.CheckMenuItem;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.SeparatorMenuItem;
+import matcher.CancelToken;
 import matcher.Matcher.MatchingStatus;
+import matcher.classifier.ClassifierProfiler;
 import matcher.gui.Gui;
 import matcher.type.MatchType;
 
@@ -22,66 +28,134 @@ public class MatchingMenu extends Menu {
 	private void init() {
 		MenuItem menuItem = new MenuItem("Auto match all");
 		getItems().add(menuItem);
-		menuItem.setOnAction(event -> gui.runProgressTask(
+		menuItem.setOnAction(event -> runAutoMatch(
 				"Auto matching...",
 				gui.getMatcher()::autoMatchAll,
-				() -> gui.onMatchChange(EnumSet.allOf(MatchType.class)),
-				Throwable::printStackTrace));
+				EnumSet.allOf(MatchType.class)));
 
 		getItems().add(new SeparatorMenuItem());
 
 		menuItem = new MenuItem("Auto class match");
 		getItems().add(menuItem);
-		menuItem.setOnAction(event -> gui.runProgressTask(
+		menuItem.setOnAction(event -> runAutoMatch(
 				"Auto matching classes...",
 				gui.getMatcher()::autoMatchClasses,
-				() -> gui.onMatchChange(EnumSet.allOf(MatchType.class)),
-				Throwable::printStackTrace));
+				EnumSet.allOf(MatchType.class)));
+
+		menuItem = new MenuItem("Auto structural identity match");
+		getItems().add(menuItem);
+		menuItem.setOnAction(event -> runAutoMatch(
+				"Auto matching identical classes...",
+				gui.getMatcher()::autoMatchIdentical,
+				EnumSet.allOf(MatchType.class)));
 
 		menuItem = new MenuItem("Auto perfect enum match");
 		getItems().add(menuItem);
-		menuItem.setOnAction(event -> gui.runProgressTask(
+		menuItem.setOnAction(event -> runAutoMatch(
 				"Auto matching enums...",
 				gui.getMatcher()::autoMatchPerfectEnums,
-				() -> gui.onMatchChange(EnumSet.allOf(MatchType.class)),
-				Throwable::printStackTrace));
+				EnumSet.allOf(MatchType.class)));
+
+		menuItem = new MenuItem("Auto unique feature match");
+		getItems().add(menuItem);
+		menuItem.setOnAction(event -> runAutoMatch(
+				"Auto matching unique features...",
+				gui.getMatcher()::autoMatchAnchors,
+				EnumSet.allOf(MatchType.class)));
 
 		menuItem = new MenuItem("Auto method match");
 		getItems().add(menuItem);
-		menuItem.setOnAction(event -> gui.runProgressTask(
+		menuItem.setOnAction(event -> runAutoMatch(
 				"Auto matching methods...",
 				gui.getMatcher()::autoMatchMethods,
-				() -> gui.onMatchChange(EnumSet.of(MatchType.Method)),
-				Throwable::printStackTrace));
+				EnumSet.of(MatchType.Method)));
 
 		menuItem = new MenuItem("Auto field match");
 		getItems().add(menuItem);
-		menuItem.setOnAction(event -> gui.runProgressTask(
+		menuItem.setOnAction(event -> runAutoMatch(
 				"Auto matching fields...",
 				gui.getMatcher()::autoMatchFields,
-				() -> gui.onMatchChange(EnumSet.of(MatchType.Field)),
-				Throwable::printStackTrace));
+				EnumSet.of(MatchType.Field)));
 
 		menuItem = new MenuItem("Auto method arg match");
 		getItems().add(menuItem);
-		menuItem.setOnAction(event -> gui.runProgressTask(
+		menuItem.setOnAction(event -> runAutoMatch(
 				"Auto matching method args...",
 				gui.getMatcher()::autoMatchMethodArgs,
-				() -> gui.onMatchChange(EnumSet.of(MatchType.MethodArg)),
-				Throwable::printStackTrace));
+				EnumSet.of(MatchType.MethodArg)));
+
+		getItems().add(new SeparatorMenuItem());
+
+		undoItem = new MenuItem("Undo last auto match");
+		getItems().add(undoItem);
+		undoItem.setDisable(true);
+		undoItem.setOnAction(event -> undoAutoMatch());
 
 		getItems().add(new SeparatorMenuItem());
 
+		CheckMenuItem profileItem = new CheckMenuItem("Profile classifiers");
+		getItems().add(profileItem);
+		profileItem.setSelected(ClassifierProfiler.isEnabled());
+		profileItem.setOnAction(event -> ClassifierProfiler.setEnabled(profileItem.isSelected()));
+
 		menuItem = new MenuItem("Status");
 		getItems().add(menuItem);
 		menuItem.setOnAction(event -> showMatchingStatus());
 	}
 
+	/**
+	 * Run an auto-matching task with a progress dialog that allows aborting it.
+	 */
+	private void runAutoMatch(String labelText, Consumer<DoubleConsumer> task, Set<MatchType> matchTypes) {
+		CancelToken cancelToken = new CancelToken();
+		gui.getMatcher().setCancelToken(cancelToken);
+		gui.getMatcher().createCheckpoint(autoMatchCheckpoint);
+		undoItem.setDisable(false);
+
+		gui.runProgressTask(
+				labelText,
+				task,
+				() -> {
+					gui.getMatcher().setCancelToken(CancelToken.NONE);
+					gui.onMatchChange(matchTypes);
+				},
+				exc -> {
+					gui.getMatcher().setCancelToken(CancelToken.NONE);
+
+					if (Gui.isCancellation(exc)) {
+						System.out.println(labelText+" cancelled");
+					} else {
+						exc.printStackTrace();
+					}
+
+					// matches applied before the abort are kept
+					gui.onMatchChange(matchTypes);
+				},
+				cancelToken);
+	}
+
+	/**
+	 * Restore the matches from before the last auto-matching task, including manual changes done since.
+	 */
+	private void undoAutoMatch() {
+		if (gui.getMatcher().restoreCheckpoint(autoMatchCheckpoint)) {
+			gui.getMatcher().removeCheckpoint(autoMatchCheckpoint);
+			gui.onMatchChange(EnumSet.allOf(MatchType.class));
+		}
+
+		undoItem.setDisable(true);
+	}
+
 	private void showMatchingStatus() {
 		String status = gui.getMatcher().getStringStatusSummary(true);
+		String profile = ClassifierProfiler.getLastReport();
+		if (profile != null) status += String.format("%n%n%s", profile);
 
 		gui.showAlert(AlertType.INFORMATION, "Matching status", "Current matching status", status);
 	}
 
+	private static final String autoMatchCheckpoint = "gui auto match";
+
 	private final Gui gui;
+	private MenuItem undoItem;
 }
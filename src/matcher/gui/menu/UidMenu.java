@@ -103,51 +103,57 @@ public class UidMenu extends Menu {
 				Matcher matcher = gui.getMatcher();
 				int type;
 
-				while ((type = is.read()) != -1) {
-					int uid = is.readInt();
-					String idA = is.readUTF();
-					String idB = is.readUTF();
-
-					ClassInstance clsA = getCls(env.getEnvA(), idA, type);
-					ClassInstance clsB = getCls(env.getEnvB(), idB, type);
-					if (clsA == null || clsB == null) continue;
-
-					switch (type) {
-					case TYPE_CLASS:
-						matcher.match(clsA, clsB);
-						break;
-					case TYPE_METHOD:
-					case TYPE_ARG:
-					case TYPE_VAR: {
-						MethodInstance methodA = getMethod(clsA, idA, type);
-						MethodInstance methodB = getMethod(clsB, idB, type);
-						if (methodA == null || methodB == null) break;
-
-						if (type == TYPE_METHOD) {
-							matcher.match(methodA, methodB);
-						} else {
-							idA = idA.substring(idA.lastIndexOf(')') + 1);
-							idB = idB.substring(idB.lastIndexOf(')') + 1);
-
-							MethodVarInstance varA = methodA.getVar(idA, type == TYPE_ARG);
-							MethodVarInstance varB = methodB.getVar(idB, type == TYPE_ARG);
-
-							if (varA != null && varB != null) {
-								matcher.match(varA, varB);
+				matcher.beginBatch();
+
+				try {
+					while ((type = is.read()) != -1) {
+						int uid = is.readInt();
+						String idA = is.readUTF();
+						String idB = is.readUTF();
+
+						ClassInstance clsA = getCls(env.getEnvA(), idA, type);
+						ClassInstance clsB = getCls(env.getEnvB(), idB, type);
+						if (clsA == null || clsB == null) continue;
+
+						switch (type) {
+						case TYPE_CLASS:
+							matcher.match(clsA, clsB);
+							break;
+						case TYPE_METHOD:
+						case TYPE_ARG:
+						case TYPE_VAR: {
+							MethodInstance methodA = getMethod(clsA, idA, type);
+							MethodInstance methodB = getMethod(clsB, idB, type);
+							if (methodA == null || methodB == null) break;
+
+							if (type == TYPE_METHOD) {
+								matcher.match(methodA, methodB);
+							} else {
+								idA = idA.substring(idA.lastIndexOf(')') + 1);
+								idB = idB.substring(idB.lastIndexOf(')') + 1);
+
+								MethodVarInstance varA = methodA.getVar(idA, type == TYPE_ARG);
+								MethodVarInstance varB = methodB.getVar(idB, type == TYPE_ARG);
+
+								if (varA != null && varB != null) {
+									matcher.match(varA, varB);
+								}
 							}
-						}
 
-						break;
-					}
-					case TYPE_FIELD: {
-						FieldInstance fieldA = getField(clsA, idA);
-						FieldInstance fieldB = getField(clsB, idB);
-						if (fieldA == null || fieldB == null) break;
+							break;
+						}
+						case TYPE_FIELD: {
+							FieldInstance fieldA = getField(clsA, idA);
+							FieldInstance fieldB = getField(clsB, idB);
+							if (fieldA == null || fieldB == null) break;
 
-						matcher.match(fieldA, fieldB);
-						break;
-					}
+							matcher.match(fieldA, fieldB);
+							break;
+						}
+						}
 					}
+				} finally {
+					matcher.commitBatch();
 				}
 			}
 
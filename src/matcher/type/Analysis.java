@@ -1958,7 +1958,7 @@ class Analysis {
 		final int[] stackVarIds;
 	}
 
-	static void checkInitializer(FieldInstance field, ClassFeatureExtractor context) {
+	static void checkInitializer(FieldInstance field, IClassEnv context) {
 		if (field.getType().isPrimitive()) return;
 
 		MethodInstance method = field.writeRefs.iterator().next();
@@ -2080,6 +2080,8 @@ class Analysis {
 		}
 
 		field.initializer = initIl;
+		field.initializerSource = il;
+		field.initializerPositions = tracedPositions.stream().toArray();
 
 		/*		int pos = fieldWritePos;
 
@@ -26,6 +26,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.function.DoubleConsumer;
 
@@ -48,6 +49,7 @@ import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 
 import matcher.CfrIf;
+import matcher.ParallelScheduler;
 import matcher.ProjectConfig;
 import matcher.Util;
 import matcher.classifier.ClassifierUtil;
@@ -57,6 +59,10 @@ import org.objectweb.asm.util.Textifier;
 import org.objectweb.asm.util.TraceClassVisitor;
 
 public class ClassEnvironment implements IClassEnv {
+	public ClassEnvironment() {
+		MatchState.link(extractorA.matchState, extractorB.matchState);
+	}
+
 	public void init(ProjectConfig config, DoubleConsumer progressReceiver) {
 		final double cpInitCost = 0.05;
 		final double classReadCost = 0.2;
@@ -84,12 +90,13 @@ public class ClassEnvironment implements IClassEnv {
 				progressReceiver.accept(progress);
 			}
 
-			// synchronous feature extraction
-			extractorA.process();
-			progressReceiver.accept(0.8);
+			// parallel feature extraction, both sides pass by pass
+			final double processStart = progress;
+			final double processEnd = 0.98;
 
-			extractorB.process();
-			progressReceiver.accept(0.98);
+			FeatureCache cache = featureCacheEnabled ? FeatureCache.get(this, inputsFirst, extractorA, extractorB) : null;
+			ClassFeatureExtractor.process(scheduler, cache, p -> progressReceiver.accept(processStart + (processEnd - processStart) * p), extractorA, extractorB);
+			progressReceiver.accept(processEnd);
 		} catch (InterruptedException | ExecutionException | IOException e) {
 			throw new RuntimeException(e);
 		} finally {
@@ -127,6 +134,7 @@ public class ClassEnvironment implements IClassEnv {
 		extractorA.reset();
 		extractorB.reset();
 		cache.clear();
+		scheduler.shutdown();
 	}
 
 	public void addOpenFileSystem(FileSystem fs) {
@@ -209,6 +217,10 @@ public class ClassEnvironment implements IClassEnv {
 		return cls;
 	}
 
+	Collection<ClassInstance> getSharedClasses() {
+		return sharedClasses.values();
+	}
+
 	public Path getSharedClassLocation(String name) {
 		return classPathIndex.get(name);
 	}
@@ -295,18 +307,21 @@ public class ClassEnvironment implements IClassEnv {
 		ClassInstance ret = getSharedClsById(id);
 		if (ret != null) return ret;
 
-		if (id.charAt(0) == '[') { // array type
-			ClassInstance elementClass = getArrayCls(this, id);
-			ClassInstance cls = new ClassInstance(id, elementClass);
+		synchronized (creationSync) {
+			if ((ret = getSharedClsById(id)) != null) return ret;
 
-			assert elementClass.isShared();
-			ret = addSharedCls(cls);
+			if (id.charAt(0) == '[') { // array type
+				ClassInstance elementClass = getArrayCls(this, id);
+				if ((ret = getSharedClsById(id)) != null) return ret; // created while creating the element class
 
-			if (ret == cls) { // cls was added
+				ret = new ClassInstance(id, elementClass);
+
+				assert elementClass.isShared();
 				addSuperClass(ret, "java/lang/Object");
+				addSharedCls(ret);
+			} else {
+				ret = getMissingCls(id, createUnknown);
 			}
-		} else {
-			ret = getMissingCls(id, createUnknown);
 		}
 
 		return ret;
@@ -322,7 +337,15 @@ public class ClassEnvironment implements IClassEnv {
 		return env.getCreateClassInstance(elementId);
 	}
 
+	/**
+	 * Create a shared class from the class path or the JRE, the caller has to hold creationSync.
+	 *
+	 * <p>The class is only published after its 1st processing pass, so other threads never see it incomplete.
+	 */
 	ClassInstance getMissingCls(String id, boolean createUnknown) {
+		ClassInstance pending = pendingSharedClasses.get(id);
+		if (pending != null) return pending; // referenced while processing itself
+
 		if (id.length() > 1) {
 			String name = ClassInstance.getName(id);
 			InputStream is;
@@ -348,13 +371,15 @@ public class ClassEnvironment implements IClassEnv {
 					if (!cls.getId().equals(id))
 						throw new RuntimeException("mismatched cls id " + id + " for " + file + ", expected " + name);
 
-					ClassInstance ret = addSharedCls(cls);
+					pendingSharedClasses.put(id, cls);
 
-					if (ret == cls) { // cls was added
-						processClassA(ret);
+					try {
+						processClassA(cls);
+					} finally {
+						pendingSharedClasses.remove(id);
 					}
 
-					return ret;
+					return addSharedCls(cls);
 				}
 			} catch (IOException|URISyntaxException e){
 				//ignored, pls continue
@@ -487,7 +512,11 @@ public class ClassEnvironment implements IClassEnv {
 			for (String iface : cn.interfaces) {
 				ClassInstance ifCls = cls.getEnv().getCreateClassInstance(ClassInstance.getId(iface));
 
-				if (cls.interfaces.add(ifCls)) ifCls.implementers.add(cls);
+				if (cls.interfaces.add(ifCls)) {
+					synchronized (ifCls.implementers) {
+						ifCls.implementers.add(cls);
+					}
+				}
 			}
 
 			if (cn.visibleAnnotations != null) {
@@ -573,12 +602,18 @@ public class ClassEnvironment implements IClassEnv {
 		}
 
 		cls.outerClass = outerClass;
-		outerClass.innerClasses.add(cls);
+
+		synchronized (outerClass.innerClasses) {
+			outerClass.innerClasses.add(cls);
+		}
 	}
 
 	static void addSuperClass(ClassInstance cls, String name) {
 		cls.superClass = cls.getEnv().getCreateClassInstance(ClassInstance.getId(name));
-		cls.superClass.childClasses.add(cls);
+
+		synchronized (cls.superClass.childClasses) {
+			cls.superClass.childClasses.add(cls);
+		}
 	}
 
 	@Override
@@ -590,11 +625,35 @@ public class ClassEnvironment implements IClassEnv {
 		return cache;
 	}
 
+	/**
+	 * Worker pool for loading and processing the classes and for auto-matching, sized by the matcher.parallelism system
+	 * property. reset releases its threads.
+	 */
+	public ParallelScheduler getScheduler() {
+		return scheduler;
+	}
+
+	public boolean isFeatureCacheEnabled() {
+		return featureCacheEnabled;
+	}
+
+	/**
+	 * Allow init to use the feature cache in the directory set by the matcher.featureCacheDir system property, the cache
+	 * stays unused without it. Benchmarks turn it off to time the full class processing.
+	 */
+	public void setFeatureCacheEnabled(boolean enabled) {
+		featureCacheEnabled = enabled;
+	}
+
 	private final List<InputFile> cpFiles = new ArrayList<>();
-	private final Map<String, ClassInstance> sharedClasses = new HashMap<>();
+	private final Map<String, ClassInstance> sharedClasses = new ConcurrentHashMap<>();
+	private final Map<String, ClassInstance> pendingSharedClasses = new HashMap<>();
 	private final List<FileSystem> openFileSystems = new ArrayList<>();
 	private final Map<String, Path> classPathIndex = new HashMap<>();
 	private final ClassFeatureExtractor extractorA = new ClassFeatureExtractor(this);
 	private final ClassFeatureExtractor extractorB = new ClassFeatureExtractor(this);
 	private final MatchingCache cache = new MatchingCache();
+	private final ParallelScheduler scheduler = new ParallelScheduler();
+	private boolean featureCacheEnabled = true;
+	final Object creationSync = new Object(); // on demand class creation, shared by both sides since either may create shared classes
 }
@@ -1,5 +1,9 @@
 package matcher.type;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
@@ -14,6 +18,8 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleConsumer;
 import java.util.function.Predicate;
 
 import org.objectweb.asm.ClassWriter;
@@ -25,41 +31,78 @@ import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.InvokeDynamicInsnNode;
 import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.TypeInsnNode;
 
+import matcher.CancelToken;
+import matcher.ParallelScheduler;
 import matcher.Util;
 import matcher.bcremap.AsmClassRemapper;
 import matcher.bcremap.AsmRemapper;
-import matcher.type.Analysis.CommonClasses;
 
 public class ClassFeatureExtractor implements IClassEnv {
 	public ClassFeatureExtractor(ClassEnvironment env) {
 		this.env = env;
 	}
 
+	/**
+	 * Read the classes from all input archives.
+	 *
+	 * <p>The class files get read and parsed in parallel, but are added in archive and entry order to keep the handling
+	 * of duplicates deterministic.
+	 */
 	public void processInputs(Collection<Path> inputs) {
 		Set<Path> uniqueInputs = new LinkedHashSet<>(inputs);
+		List<FileSystem> fileSystems = new ArrayList<>(uniqueInputs.size());
+		List<Path> files = new ArrayList<>();
 
-		for (Path archive : uniqueInputs) {
-			inputFiles.add(new InputFile(archive));
+		try {
+			for (Path archive : uniqueInputs) {
+				inputFiles.add(new InputFile(archive));
+				fileSystems.add(Util.iterateJar(archive, false, files::add));
+			}
 
-			Util.iterateJar(archive, true, file -> {
-				ClassInstance cls = readClass(file, ClassFeatureExtractor::isNameObfuscated);
-				String id = cls.getId();
-				String name = cls.getName();
+			ClassInstance[] parsed = new ClassInstance[files.size()];
+			List<Integer> indices = new ArrayList<>(files.size());
 
-				if (env.getSharedClsById(id) != null) return;
-				if (env.getSharedClassLocation(name) != null) return;
-				if (classPathIndex.containsKey(name)) return;
+			for (int i = 0; i < files.size(); i++) {
+				indices.add(i);
+			}
 
-				ClassInstance prev = classes.get(id);
+			env.getScheduler().run("input class reading", indices, i -> getFileSize(files.get(i)),
+					i -> parsed[i] = readClass(files.get(i), ClassFeatureExtractor::isNameObfuscated),
+					progress -> { }, CancelToken.NONE);
 
-				if (prev == null) {
-					classes.put(id, cls);
-				} else if (prev.isInput()) {
-					mergeClasses(cls, prev);
-				}
-			});
+			for (ClassInstance cls : parsed) {
+				addInputClass(cls);
+			}
+		} finally {
+			fileSystems.forEach(Util::closeSilently);
+		}
+	}
+
+	private static long getFileSize(Path file) {
+		try {
+			return Files.size(file);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void addInputClass(ClassInstance cls) {
+		String id = cls.getId();
+		String name = cls.getName();
+
+		if (env.getSharedClsById(id) != null) return;
+		if (env.getSharedClassLocation(name) != null) return;
+		if (classPathIndex.containsKey(name)) return;
+
+		ClassInstance prev = classes.get(id);
+
+		if (prev == null) {
+			classes.put(id, cls);
+		} else if (prev.isInput()) {
+			mergeClasses(cls, prev);
 		}
 	}
 
@@ -98,44 +141,152 @@ public class ClassFeatureExtractor implements IClassEnv {
 		to.addAsmNode(from.getAsmNodes()[0]);
 	}
 
-	public void process() {
-		ClassInstance clo = getCreateClassInstance("Ljava/lang/Object;");
-		assert clo != null && clo.getAsmNodes() != null;
+	/**
+	 * Extract the features of the given extractors' classes.
+	 *
+	 * <p>Each pass runs for the classes of all extractors together in parallel. The passes only modify the processed
+	 * class and the synchronized reference sets of others, except for the synthetic members capturing unresolvable
+	 * references and the member hierarchies, which are created sequentially in class order. The results are thus the
+	 * same for any parallelism.
+	 *
+	 * <p>With a cache entry for the inputs passes B, C and the initializer analysis get replaced by restoring their
+	 * results, otherwise the results are stored in the cache.
+	 */
+	static void process(ParallelScheduler scheduler, FeatureCache cache, DoubleConsumer progressReceiver, ClassFeatureExtractor... extractors) {
+		final int passCount = 5;
+
+		for (ClassFeatureExtractor extractor : extractors) {
+			ClassInstance clo = extractor.getCreateClassInstance("Ljava/lang/Object;");
+			assert clo != null && clo.getAsmNodes() != null;
+		}
+
+		List<ClassInstance> classes = startPass(extractors);
+		scheduler.run("class processing A", classes, ClassFeatureExtractor::getCost, ClassEnvironment::processClassA, ignore -> { }, CancelToken.NONE);
+		finishPass(extractors);
+		progressReceiver.accept(1. / passCount);
+
+		classes = startPass(extractors);
+		long startTime = System.nanoTime();
+		boolean cached = cache != null && cache.restore(extractors);
+
+		if (cached) {
+			if (FeatureCache.isLogEnabled()) {
+				System.out.printf("restored class processing results from the feature cache in %.1f ms%n", (System.nanoTime() - startTime) * 1e-6);
+			}
+
+			// the cache entry already covers the classes created while restoring it
+			for (ClassFeatureExtractor extractor : extractors) {
+				extractor.lateClasses.clear();
+			}
+		} else {
+			processClassesB(scheduler, classes);
+			finishPass(extractors);
+		}
+
+		progressReceiver.accept(2. / passCount);
+
+		classes = startPass(extractors);
+		if (!cached) scheduler.run("class processing C", classes, ClassFeatureExtractor::getCost, ClassFeatureExtractor::processClassC, ignore -> { }, CancelToken.NONE);
+		finishPass(extractors);
+		progressReceiver.accept(3. / passCount);
+
+		classes = startPass(extractors);
+
+		for (ClassInstance cls : classes) {
+			processMemberHierarchies(cls);
+		}
+
+		if (!cached) scheduler.run("class processing D", classes, ClassFeatureExtractor::getCost, ClassFeatureExtractor::processClassD, ignore -> { }, CancelToken.NONE);
+		finishPass(extractors);
+		progressReceiver.accept(4. / passCount);
+
+		// derived features for the classifiers, requires all references and initializers
+		classes = startPass(extractors);
+		scheduler.run("class features", classes, ClassFeatureExtractor::getCost, ClassInstance::updateFeatures, ignore -> { }, CancelToken.NONE);
+		finishPass(extractors);
+
+		if (cache != null && !cached) cache.store(extractors);
+
+		for (ClassFeatureExtractor extractor : extractors) {
+			extractor.matchState.assignIds(sortById(extractor.classes.values()));
+			extractor.matchState.assignIds(sortById(extractor.arrayClasses.values()));
+			extractor.initStep++;
+		}
+
+		progressReceiver.accept(1);
+	}
+
+	/**
+	 * Parallel variant of processClassB, only the synthetic member creation runs sequentially.
+	 */
+	private static void processClassesB(ParallelScheduler scheduler, List<ClassInstance> classes) {
+		List<List<InsnRef>> insnRefs = new ArrayList<>(Collections.nCopies(classes.size(), null));
+		List<Integer> indices = new ArrayList<>(classes.size());
+
+		for (int i = 0; i < classes.size(); i++) {
+			indices.add(i);
+		}
 
-		initStep++;
-		List<ClassInstance> initialClasses = new ArrayList<>(classes.values());
+		scheduler.run("class processing B", indices, i -> getCost(classes.get(i)), i -> insnRefs.set(i, resolveInsnRefs(classes.get(i))), ignore -> { }, CancelToken.NONE);
 
-		for (ClassInstance cls : initialClasses) {
-			ClassEnvironment.processClassA(cls);
+		for (List<InsnRef> refs : insnRefs) {
+			createSyntheticMembers(refs);
 		}
 
-		initStep++;
-		initialClasses.clear();
-		initialClasses.addAll(classes.values());
+		scheduler.run("class linking B", indices, i -> insnRefs.get(i).size(), i -> linkInsnRefs(insnRefs.get(i)), ignore -> { }, CancelToken.NONE);
+	}
+
+	/**
+	 * Advance to the next pass and gather the classes to process in a deterministic order.
+	 */
+	private static List<ClassInstance> startPass(ClassFeatureExtractor... extractors) {
+		List<ClassInstance> ret = new ArrayList<>();
 
-		for (ClassInstance cls : initialClasses) {
-			processClassB(cls);
+		for (ClassFeatureExtractor extractor : extractors) {
+			extractor.initStep++;
+			ret.addAll(sortById(extractor.classes.values()));
 		}
 
-		initStep++;
-		initialClasses.clear();
-		initialClasses.addAll(classes.values());
+		return ret;
+	}
 
-		for (ClassInstance cls : initialClasses) {
-			processClassC(cls);
+	/**
+	 * Bring the classes created on demand during the current pass up to it.
+	 */
+	private static void finishPass(ClassFeatureExtractor... extractors) {
+		for (ClassFeatureExtractor extractor : extractors) {
+			while (!extractor.lateClasses.isEmpty()) {
+				List<ClassInstance> classes = sortById(extractor.lateClasses);
+				extractor.lateClasses.clear();
+
+				for (ClassInstance cls : classes) {
+					extractor.processLateClass(cls);
+				}
+			}
 		}
+	}
+
+	private static List<ClassInstance> sortById(Collection<ClassInstance> classes) {
+		List<ClassInstance> ret = new ArrayList<>(classes);
+		ret.sort(Comparator.comparing(ClassInstance::getId));
+
+		return ret;
+	}
+
+	private static long getCost(ClassInstance cls) {
+		if (cls.getAsmNodes() == null) return 1;
 
-		initStep++;
-		initialClasses.clear();
-		initialClasses.addAll(classes.values());
+		long ret = 1;
 
-		CommonClasses common = new CommonClasses(this);
+		for (ClassNode cn : cls.getAsmNodes()) {
+			ret += cn.fields.size();
 
-		for (ClassInstance cls : initialClasses) {
-			processClassD(cls, common);
+			for (MethodNode mn : cn.methods) {
+				ret += 1 + mn.instructions.size();
+			}
 		}
 
-		initStep++;
+		return ret;
 	}
 
 	public void reset() {
@@ -144,12 +295,17 @@ public class ClassFeatureExtractor implements IClassEnv {
 		classPathIndex.clear();
 		classes.clear();
 		arrayClasses.clear();
+		matchState.reset();
 	}
 
 	public Map<String, ClassInstance> getClasses() {
 		return roClasses;
 	}
 
+	Collection<ClassInstance> getArrayClasses() {
+		return arrayClasses.values();
+	}
+
 	public Collection<InputFile> getInputFiles() {
 		return inputFiles;
 	}
@@ -163,60 +319,59 @@ public class ClassFeatureExtractor implements IClassEnv {
 	 *
 	 * All (known) classes and members are fully available at this point.
 	 */
-	private void processClassB(ClassInstance cls) {
+	private static void processClassB(ClassInstance cls) {
+		List<InsnRef> refs = resolveInsnRefs(cls);
+		createSyntheticMembers(refs);
+		linkInsnRefs(refs);
+	}
+
+	/**
+	 * Resolve the classes and members referenced by the class' method instructions without modifying any members.
+	 */
+	private static List<InsnRef> resolveInsnRefs(ClassInstance cls) {
+		List<InsnRef> ret = new ArrayList<>();
+
 		for (MethodInstance method : cls.methods) {
-			processMethodInsns(method);
+			resolveInsnRefs(method, ret);
 		}
+
+		return ret;
 	}
 
-	private void processMethodInsns(MethodInstance method) {
+	private static void resolveInsnRefs(MethodInstance method, List<InsnRef> out) {
 		if (method.asmNode == null) { // artificial method to capture calls to types with incomplete/unknown hierarchy/super type method info
 			if (Util.DEBUG)
 				System.out.println("skipping empty method "+method);
 			return;
 		}
 
+		IClassEnv env = method.cls.getEnv();
+
 		for (Iterator<AbstractInsnNode> it = method.asmNode.instructions.iterator(); it.hasNext(); ) {
 			AbstractInsnNode ain = it.next();
 
 			switch (ain.getType()) {
 			case AbstractInsnNode.METHOD_INSN: {
 				MethodInsnNode in = (MethodInsnNode) ain;
-				handleMethodInvocation(method,
+				out.add(resolveMethodInvocation(method,
 						in.owner, in.name, in.desc,
-						Util.isCallToInterface(in), ain.getOpcode() == Opcodes.INVOKESTATIC);
+						Util.isCallToInterface(in), ain.getOpcode() == Opcodes.INVOKESTATIC));
 				break;
 			}
 			case AbstractInsnNode.FIELD_INSN: {
 				FieldInsnNode in = (FieldInsnNode) ain;
-				ClassInstance owner = getCreateClassInstance(ClassInstance.getId(in.owner));
-				FieldInstance dst = owner.resolveField(in.name, in.desc);
-
-				if (dst == null) { // unknown field, create a synthetic one
-					dst = new FieldInstance(owner, in.name, in.desc, ain.getOpcode() == Opcodes.GETSTATIC || ain.getOpcode() == Opcodes.PUTSTATIC);
-					owner.addField(dst);
-				}
-
-				if (ain.getOpcode() == Opcodes.GETSTATIC || ain.getOpcode() == Opcodes.GETFIELD) {
-					dst.readRefs.add(method);
-					method.fieldReadRefs.add(dst);
-				} else {
-					dst.writeRefs.add(method);
-					method.fieldWriteRefs.add(dst);
-				}
-
-				dst.cls.methodTypeRefs.add(method);
-				method.classRefs.add(dst.cls);
+				ClassInstance owner = env.getCreateClassInstance(ClassInstance.getId(in.owner));
+				int op = ain.getOpcode();
 
+				out.add(new InsnRef(method, op == Opcodes.GETSTATIC || op == Opcodes.GETFIELD ? InsnRef.FIELD_READ : InsnRef.FIELD_WRITE,
+						owner, owner.resolveField(in.name, in.desc), in.name, in.desc, false, op == Opcodes.GETSTATIC || op == Opcodes.PUTSTATIC));
 				break;
 			}
 			case AbstractInsnNode.TYPE_INSN: {
 				TypeInsnNode tin = (TypeInsnNode) ain;
-				ClassInstance dst = getCreateClassInstance(ClassInstance.getId(tin.desc));
-
-				dst.methodTypeRefs.add(method);
-				method.classRefs.add(dst);
+				ClassInstance dst = env.getCreateClassInstance(ClassInstance.getId(tin.desc));
 
+				out.add(new InsnRef(method, InsnRef.TYPE, dst, null, null, null, false, false));
 				break;
 			}
 			case AbstractInsnNode.INVOKE_DYNAMIC_INSN: {
@@ -230,9 +385,9 @@ public class ClassFeatureExtractor implements IClassEnv {
 				case Opcodes.H_INVOKESPECIAL:
 				case Opcodes.H_NEWINVOKESPECIAL:
 				case Opcodes.H_INVOKEINTERFACE:
-					handleMethodInvocation(method,
+					out.add(resolveMethodInvocation(method,
 							impl.getOwner(), impl.getName(), impl.getDesc(),
-							Util.isCallToInterface(impl), impl.getTag() == Opcodes.H_INVOKESTATIC);
+							Util.isCallToInterface(impl), impl.getTag() == Opcodes.H_INVOKESTATIC));
 					break;
 				default:
 					System.out.println("unexpected impl tag: "+impl.getTag());
@@ -244,25 +399,99 @@ public class ClassFeatureExtractor implements IClassEnv {
 		}
 	}
 
-	private void handleMethodInvocation(MethodInstance method, String rawOwner, String name, String desc, boolean toInterface, boolean isStatic) {
-		ClassInstance owner = getCreateClassInstance(ClassInstance.getId(rawOwner));
-		MethodInstance dst = owner.resolveMethod(name, desc, toInterface);
+	private static InsnRef resolveMethodInvocation(MethodInstance method, String rawOwner, String name, String desc, boolean toInterface, boolean isStatic) {
+		ClassInstance owner = method.cls.getEnv().getCreateClassInstance(ClassInstance.getId(rawOwner));
 
-		if (dst == null) { // presumably a method in (super)type missing from the configured class path
-			if (Util.DEBUG)
-				System.out.println("creating synthetic method "+rawOwner+"/"+name+desc);
+		return new InsnRef(method, InsnRef.METHOD, owner, owner.resolveMethod(name, desc, toInterface), name, desc, toInterface, isStatic);
+	}
+
+	/**
+	 * Resolve the references still unresolved, creating synthetic members for the ones missing from the class path.
+	 *
+	 * <p>The resolution may find synthetic members created for earlier references, so this runs sequentially.
+	 */
+	private static void createSyntheticMembers(List<InsnRef> refs) {
+		for (InsnRef ref : refs) {
+			if (ref.dst != null || ref.kind == InsnRef.TYPE) continue;
 
-			dst = new MethodInstance(owner, name, desc, isStatic);
-			owner.addMethod(dst);
+			if (ref.kind == InsnRef.METHOD) {
+				ref.dst = ref.owner.resolveMethod(ref.name, ref.desc, ref.toInterface);
+
+				if (ref.dst == null) { // presumably a method in (super)type missing from the configured class path
+					if (Util.DEBUG)
+						System.out.println("creating synthetic method "+ref.owner.getName()+"/"+ref.name+ref.desc);
+
+					MethodInstance dst = new MethodInstance(ref.owner, ref.name, ref.desc, ref.isStatic);
+					ref.owner.addMethod(dst);
+					ref.dst = dst;
+				}
+			} else {
+				ref.dst = ref.owner.resolveField(ref.name, ref.desc);
+
+				if (ref.dst == null) { // unknown field, create a synthetic one
+					FieldInstance dst = new FieldInstance(ref.owner, ref.name, ref.desc, ref.isStatic);
+					ref.owner.addField(dst);
+					ref.dst = dst;
+				}
+			}
 		}
+	}
+
+	/**
+	 * Record the resolved references in the referencing method and the referenced members and classes.
+	 */
+	private static void linkInsnRefs(List<InsnRef> refs) {
+		for (InsnRef ref : refs) {
+			MethodInstance method = ref.method;
+			ClassInstance dstCls;
+
+			switch (ref.kind) {
+			case InsnRef.METHOD: {
+				MethodInstance dst = (MethodInstance) ref.dst;
+
+				synchronized (dst.refsIn) {
+					dst.refsIn.add(method);
+				}
+
+				method.refsOut.add(dst);
+				dstCls = dst.cls;
+				break;
+			}
+			case InsnRef.FIELD_READ: {
+				FieldInstance dst = (FieldInstance) ref.dst;
+
+				synchronized (dst.readRefs) {
+					dst.readRefs.add(method);
+				}
+
+				method.fieldReadRefs.add(dst);
+				dstCls = dst.cls;
+				break;
+			}
+			case InsnRef.FIELD_WRITE: {
+				FieldInstance dst = (FieldInstance) ref.dst;
 
-		dst.refsIn.add(method);
-		method.refsOut.add(dst);
-		dst.cls.methodTypeRefs.add(method);
-		method.classRefs.add(dst.cls);
+				synchronized (dst.writeRefs) {
+					dst.writeRefs.add(method);
+				}
+
+				method.fieldWriteRefs.add(dst);
+				dstCls = dst.cls;
+				break;
+			}
+			default:
+				dstCls = ref.owner;
+			}
+
+			synchronized (dstCls.methodTypeRefs) {
+				dstCls.methodTypeRefs.add(method);
+			}
+
+			method.classRefs.add(dstCls);
+		}
 	}
 
-	private void processClassC(ClassInstance cls) {
+	private static void processClassC(ClassInstance cls) {
 		Queue<ClassInstance> toCheck = new ArrayDeque<>();
 		Set<ClassInstance> checked = Util.newIdentityHashSet();
 
@@ -298,7 +527,7 @@ public class ClassFeatureExtractor implements IClassEnv {
 		});
 	}*/
 
-	private void processMethod(MethodInstance method, Queue<ClassInstance> toCheck, Set<ClassInstance> checked) {
+	private static void processMethod(MethodInstance method, Queue<ClassInstance> toCheck, Set<ClassInstance> checked) {
 		if (method.origName.equals("<init>") || method.origName.equals("<clinit>")) return;
 		if (method.asmNode != null && isHierarchyBarrier(method.asmNode.access)) return;
 
@@ -324,7 +553,7 @@ public class ClassFeatureExtractor implements IClassEnv {
 		}
 	}
 
-	private void processField(FieldInstance field, Queue<ClassInstance> toCheck, Set<ClassInstance> checked) {
+	private static void processField(FieldInstance field, Queue<ClassInstance> toCheck, Set<ClassInstance> checked) {
 		if (field.asmNode != null && isHierarchyBarrier(field.asmNode.access)) return;
 
 		if (field.cls.superClass != null) toCheck.add(field.cls.superClass);
@@ -356,8 +585,29 @@ public class ClassFeatureExtractor implements IClassEnv {
 
 	/**
 	 * 3rd processing pass, in depth analysis.
+	 *
+	 * Requires the member hierarchies from processMemberHierarchies.
 	 */
-	private void processClassD(ClassInstance cls, CommonClasses common) {
+	private static void processClassD(ClassInstance cls) {
+		/*CommonClasses common = new CommonClasses(cls.getEnv());
+
+		for (MethodInstance method : cls.getMethods()) {
+			Analysis.analyzeMethod(method, common);
+		}*/
+
+		for (FieldInstance field : cls.getFields()) {
+			if (field.writeRefs.size() == 1) {
+				Analysis.checkInitializer(field, cls.getEnv());
+			}
+		}
+	}
+
+	/**
+	 * Group the class' members with all members of their hierarchies.
+	 *
+	 * <p>Members share the hierarchy set with the other classes' members, so this runs sequentially.
+	 */
+	private static void processMemberHierarchies(ClassInstance cls) {
 		Queue<MethodInstance> toCheckM = new ArrayDeque<>();
 		Set<MethodInstance> checkedM = Util.newIdentityHashSet();
 
@@ -365,8 +615,6 @@ public class ClassFeatureExtractor implements IClassEnv {
 			processMemberD(method, toCheckM, checkedM);
 			toCheckM.clear();
 			checkedM.clear();
-
-			//Analysis.analyzeMethod(method, common);
 		}
 
 		Queue<FieldInstance> toCheckF = new ArrayDeque<>();
@@ -376,16 +624,10 @@ public class ClassFeatureExtractor implements IClassEnv {
 			processMemberD(field, toCheckF, checkedF);
 			toCheckF.clear();
 			checkedF.clear();
-
-			if (field.writeRefs.size() == 1) {
-				Analysis.checkInitializer(field, this);
-			}
 		}
 	}
 
-	private <T extends MemberInstance<T>> void processMemberD(T member, Queue<T> toCheck, Set<T> checked) {
-		assert member.getCls().getEnv() == this;
-
+	private static <T extends MemberInstance<T>> void processMemberD(T member, Queue<T> toCheck, Set<T> checked) {
 		if (member.hierarchyMembers != null) return;
 
 		toCheck.add(member);
@@ -497,30 +739,47 @@ public class ClassFeatureExtractor implements IClassEnv {
 			if ((ret = arrayClasses.get(id)) != null) return ret;
 			if ((ret = env.getSharedClsById(id)) != null) return ret;
 
-			ClassInstance elementClass = ClassEnvironment.getArrayCls(this, id);
-			ClassInstance cls = new ClassInstance(id, elementClass);
+			synchronized (env.creationSync) {
+				if ((ret = arrayClasses.get(id)) != null) return ret;
+				if ((ret = env.getSharedClsById(id)) != null) return ret;
 
-			if (elementClass.isShared()) {
-				ret = env.addSharedCls(cls);
-			} else {
-				ret = arrayClasses.putIfAbsent(id, cls);
-				if (ret == null) ret = cls;
-			}
+				ClassInstance elementClass = ClassEnvironment.getArrayCls(this, id);
+				// the element class may have created the array class while being processed
+				if ((ret = arrayClasses.get(id)) != null) return ret;
+				if ((ret = env.getSharedClsById(id)) != null) return ret;
 
-			if (ret == cls) { // cls was added
+				ret = new ClassInstance(id, elementClass);
 				ClassEnvironment.addSuperClass(ret, "java/lang/Object");
+
+				if (elementClass.isShared()) {
+					env.addSharedCls(ret);
+				} else {
+					arrayClasses.put(id, ret);
+				}
 			}
 		} else {
 			if ((ret = classes.get(id)) != null) return ret;
 			if ((ret = env.getSharedClsById(id)) != null) return ret;
-			if ((ret = createClassPathClass(id)) != null) return ret;
 
-			ret = env.getMissingCls(id, createUnknown);
+			synchronized (env.creationSync) {
+				if ((ret = classes.get(id)) != null) return ret;
+				if ((ret = pendingClasses.get(id)) != null) return ret; // referenced while processing itself
+				if ((ret = env.getSharedClsById(id)) != null) return ret;
+				if ((ret = createClassPathClass(id)) != null) return ret;
+
+				ret = env.getMissingCls(id, createUnknown);
+			}
 		}
 
 		return ret;
 	}
 
+	/**
+	 * Create a class from the side's class path, the caller has to hold the env's creationSync.
+	 *
+	 * <p>The class is only published after its 1st processing pass. When created during the later passes it gets
+	 * caught up after the current pass, see finishPass.
+	 */
 	private ClassInstance createClassPathClass(String id) {
 		if (classPathIndex.isEmpty()) return null;
 		if (id.length() <= 1) return null; // primitive
@@ -533,15 +792,84 @@ public class ClassFeatureExtractor implements IClassEnv {
 		ClassInstance cls = new ClassInstance(ClassInstance.getId(cn.name), file.toUri(), this, cn);
 		if (!cls.getId().equals(id)) throw new RuntimeException("mismatched cls id "+id+" for "+file+", expected "+name);
 
+		if (initStep > 0) {
+			pendingClasses.put(id, cls);
+
+			try {
+				ClassEnvironment.processClassA(cls);
+			} finally {
+				pendingClasses.remove(id);
+			}
+		}
+
 		ClassInstance prev = classes.putIfAbsent(cls.getId(), cls);
 		assert prev == null;
 
-		if (initStep > 0) ClassEnvironment.processClassA(cls);
+		if (initStep > processedStep) {
+			processLateClass(cls);
+		} else if (initStep > 1) {
+			lateClasses.add(cls);
+		}
+
+		return cls;
+	}
+
+	/**
+	 * Run the passes after the 1st for a class created on demand, up to the current one.
+	 */
+	private void processLateClass(ClassInstance cls) {
 		if (initStep > 1) processClassB(cls);
 		if (initStep > 2) processClassC(cls);
-		if (initStep > 3) processClassD(cls, new CommonClasses(this));
 
-		return cls;
+		if (initStep > 3) {
+			processMemberHierarchies(cls);
+			processClassD(cls);
+		}
+
+		if (initStep > 4) {
+			// the new class' code and fields added references to other classes, refresh their features as well
+			Set<ClassInstance> affected = Util.newIdentityHashSet();
+			affected.add(cls);
+
+			for (MethodInstance method : cls.methods) {
+				affected.addAll(method.classRefs);
+			}
+
+			for (FieldInstance field : cls.fields) {
+				affected.add(field.type);
+			}
+
+			for (ClassInstance affectedCls : affected) {
+				if (affectedCls.getEnv() == this) affectedCls.updateFeatures();
+			}
+		}
+	}
+
+	private static final class InsnRef {
+		InsnRef(MethodInstance method, int kind, ClassInstance owner, MemberInstance<?> dst, String name, String desc, boolean toInterface, boolean isStatic) {
+			this.method = method;
+			this.kind = kind;
+			this.owner = owner;
+			this.dst = dst;
+			this.name = name;
+			this.desc = desc;
+			this.toInterface = toInterface;
+			this.isStatic = isStatic;
+		}
+
+		static final int METHOD = 0;
+		static final int FIELD_READ = 1;
+		static final int FIELD_WRITE = 2;
+		static final int TYPE = 3;
+
+		final MethodInstance method;
+		final int kind;
+		final ClassInstance owner;
+		MemberInstance<?> dst;
+		final String name;
+		final String desc;
+		final boolean toInterface;
+		final boolean isStatic;
 	}
 
 	@Override
@@ -549,6 +877,11 @@ public class ClassFeatureExtractor implements IClassEnv {
 		return env;
 	}
 
+	@Override
+	public MatchState getMatchState() {
+		return matchState;
+	}
+
 	public byte[] serializeClass(ClassInstance cls, boolean mapped) {
 		ClassNode cn = cls.getMergedAsmNode();
 		if (cn == null) throw new IllegalArgumentException("cls without asm node: "+cls);
@@ -568,12 +901,16 @@ public class ClassFeatureExtractor implements IClassEnv {
 
 	final ClassEnvironment env;
 	final AsmRemapper remapper = new AsmRemapper(this);
+	final MatchState matchState = new MatchState();
 	private final List<InputFile> inputFiles = new ArrayList<>();
 	private final List<InputFile> cpFiles = new ArrayList<>();
 	private final Map<String, Path> classPathIndex = new HashMap<>();
-	private final Map<String, ClassInstance> classes = new HashMap<>();
+	private final Map<String, ClassInstance> classes = new ConcurrentHashMap<>();
 	private final Map<String, ClassInstance> roClasses = Collections.unmodifiableMap(classes);
-	private final Map<String, ClassInstance> arrayClasses = new HashMap<>();
+	private final Map<String, ClassInstance> arrayClasses = new ConcurrentHashMap<>();
+	private final Map<String, ClassInstance> pendingClasses = new HashMap<>(); // being created, guarded by env.creationSync
+	private final List<ClassInstance> lateClasses = new ArrayList<>(); // created during the current pass, guarded by env.creationSync
 
+	private static final int processedStep = 5;
 	private int initStep;
 }
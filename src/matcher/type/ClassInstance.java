@@ -20,6 +20,7 @@ import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
 
 import matcher.Util;
+import matcher.classifier.ClassifierUtil;
 import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.InnerClassNode;
 import org.objectweb.asm.tree.MethodNode;
@@ -79,8 +80,6 @@ public class ClassInstance implements IMatchable<ClassInstance> {
 		this.input = input;
 		this.elementClass = elementClass;
 		this.isAnonymous = getName().matches("\\$\\d+$");
-
-		if (env.isShared()) matchedClass = this;
 	}
 
 	@Override
@@ -191,13 +190,22 @@ public class ClassInstance implements IMatchable<ClassInstance> {
 
 	@Override
 	public ClassInstance getMatch() {
-		return matchedClass;
+		if (intId < 0) return env.isShared() ? this : null;
+
+		return env.getMatchState().getMatch(this);
 	}
 
 	public void setMatch(ClassInstance cls) {
 		assert cls == null || cls.getEnv() != env && !cls.getEnv().isShared();
+		assert !env.isShared(); // shared classes are implicitly matched to themselves
 
-		this.matchedClass = cls;
+		MatchState state = env.getMatchState();
+		if (state != null) state.setMatch(this, cls);
+	}
+
+	@Override
+	public int getIntId() {
+		return intId;
 	}
 
 	@Override
@@ -671,13 +679,160 @@ public class ClassInstance implements IMatchable<ClassInstance> {
 		return strings;
 	}
 
+	/**
+	 * Sketch of getStrings for ClassifierUtil.compareSetSketches, null if there are too few strings to need one.
+	 */
+	public int[] getStringSketch() {
+		int[] ret = stringSketch;
+
+		return ret != null ? ret : ClassifierUtil.createSetSketch(strings);
+	}
+
+	/**
+	 * Classes referenced by the code of this class' methods and its field types.
+	 */
+	public Set<ClassInstance> getOutRefs() {
+		Set<ClassInstance> ret = outRefs;
+
+		return ret != null ? ret : collectOutRefs();
+	}
+
+	/**
+	 * Classes containing methods or fields referencing this class.
+	 */
+	public Set<ClassInstance> getInRefs() {
+		Set<ClassInstance> ret = inRefs;
+
+		return ret != null ? ret : collectInRefs();
+	}
+
+	public Set<MethodInstance> getMethodOutRefs() {
+		Set<MethodInstance> ret = methodOutRefs;
+
+		return ret != null ? ret : collectMethodOutRefs();
+	}
+
+	public Set<MethodInstance> getMethodInRefs() {
+		Set<MethodInstance> ret = methodInRefs;
+
+		return ret != null ? ret : collectMethodInRefs();
+	}
+
+	public Set<FieldInstance> getFieldReadRefs() {
+		Set<FieldInstance> ret = fieldReadRefs;
+
+		return ret != null ? ret : collectFieldReadRefs();
+	}
+
+	public Set<FieldInstance> getFieldWriteRefs() {
+		Set<FieldInstance> ret = fieldWriteRefs;
+
+		return ret != null ? ret : collectFieldWriteRefs();
+	}
+
+	public NumericConstants getNumbers() {
+		NumericConstants ret = numbers;
+
+		return ret != null ? ret : NumericConstants.create(this);
+	}
+
+	/**
+	 * Compute the derived features of this class and its members, only valid after the hierarchy and all references are known.
+	 */
+	void updateFeatures() {
+		outRefs = collectOutRefs();
+		inRefs = collectInRefs();
+		methodOutRefs = collectMethodOutRefs();
+		methodInRefs = collectMethodInRefs();
+		fieldReadRefs = collectFieldReadRefs();
+		fieldWriteRefs = collectFieldWriteRefs();
+		numbers = NumericConstants.create(this);
+		stringSketch = ClassifierUtil.createSetSketch(strings);
+
+		for (MethodInstance method : methods) {
+			method.updateFeatures();
+		}
+
+		for (FieldInstance field : fields) {
+			field.updateFeatures();
+		}
+	}
+
+	private Set<ClassInstance> collectOutRefs() {
+		Set<ClassInstance> ret = Util.newIdentityHashSet();
+
+		for (MethodInstance method : methods) {
+			ret.addAll(method.getClassRefs());
+		}
+
+		for (FieldInstance field : fields) {
+			ret.add(field.getType());
+		}
+
+		return Util.immutableSet(ret);
+	}
+
+	private Set<ClassInstance> collectInRefs() {
+		Set<ClassInstance> ret = Util.newIdentityHashSet();
+
+		for (MethodInstance method : methodTypeRefs) {
+			ret.add(method.getCls());
+		}
+
+		for (FieldInstance field : fieldTypeRefs) {
+			ret.add(field.getCls());
+		}
+
+		return Util.immutableSet(ret);
+	}
+
+	private Set<MethodInstance> collectMethodOutRefs() {
+		Set<MethodInstance> ret = Util.newIdentityHashSet();
+
+		for (MethodInstance method : methods) {
+			ret.addAll(method.getRefsOut());
+		}
+
+		return Util.immutableSet(ret);
+	}
+
+	private Set<MethodInstance> collectMethodInRefs() {
+		Set<MethodInstance> ret = Util.newIdentityHashSet();
+
+		for (MethodInstance method : methods) {
+			ret.addAll(method.getRefsIn());
+		}
+
+		return Util.immutableSet(ret);
+	}
+
+	private Set<FieldInstance> collectFieldReadRefs() {
+		Set<FieldInstance> ret = Util.newIdentityHashSet();
+
+		for (MethodInstance method : methods) {
+			ret.addAll(method.getFieldReadRefs());
+		}
+
+		return Util.immutableSet(ret);
+	}
+
+	private Set<FieldInstance> collectFieldWriteRefs() {
+		Set<FieldInstance> ret = Util.newIdentityHashSet();
+
+		for (MethodInstance method : methods) {
+			ret.addAll(method.getFieldWriteRefs());
+		}
+
+		return Util.immutableSet(ret);
+	}
+
 	public boolean isShared() {
-		return matchedClass == this;
+		return env.isShared();
 	}
 
 	public boolean hasMappedName() {
 		return mappedName != null
-				|| matchedClass != null && matchedClass.mappedName != null
+				|| getMatch() != null && getMatch().mappedName != null
 				|| elementClass != null && elementClass.hasMappedName();
 	}
 
@@ -685,8 +840,8 @@ public class ClassInstance implements IMatchable<ClassInstance> {
 	public String getMappedName(boolean defaultToUnmapped) {
 		if (mappedName != null) {
 			return mappedName;
-		} else if (matchedClass != null && matchedClass.mappedName != null) {
-			return matchedClass.mappedName;
+		} else if (getMatch() != null && getMatch().mappedName != null) {
+			return getMatch().mappedName;
 		} else if (elementClass != null) {
 			return elementClass.getMappedName(defaultToUnmapped);
 		} else if (this.outerClass != null && outerClass != this && outerClass.hasMappedName()){
@@ -914,9 +1069,19 @@ public class ClassInstance implements IMatchable<ClassInstance> {
 	final Set<String> strings = new HashSet<>();
 	final Map<String,String> enumValues = new HashMap<>();//REAL enum values, pulled from java.lang.Enum's constructor param
 
+	// derived features, see updateFeatures
+	private volatile Set<ClassInstance> outRefs;
+	private volatile Set<ClassInstance> inRefs;
+	private volatile Set<MethodInstance> methodOutRefs;
+	private volatile Set<MethodInstance> methodInRefs;
+	private volatile Set<FieldInstance> fieldReadRefs;
+	private volatile Set<FieldInstance> fieldWriteRefs;
+	private volatile NumericConstants numbers;
+	private volatile int[] stringSketch;
+
 	String mappedName;
 	String mappedComment;
-	ClassInstance matchedClass;
+	int intId = -1;
 	final Set<String> annotations = new TreeSet<>(Comparator.naturalOrder());
 	final boolean isAnonymous;
 }
\ No newline at end of file
@@ -0,0 +1,723 @@
+package matcher.type;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+
+/**
+ * On-disk cache of the class processing results that depend on the whole class graph, keyed by the input file hashes.
+ *
+ * <p>An entry holds the synthetic members, the instruction references, the member parents and the field initializers,
+ * which is everything the processing passes B and C and the initializer analysis produce. The class files are still
+ * read and run through the 1st pass, their asm nodes back decompilation and code comparison. The derived features get
+ * recomputed from the restored graph.
+ *
+ * <p>The cache is opt-in, the entries are stored in the directory set by the matcher.featureCacheDir system property and
+ * the cache stays disabled without it. Cache hits are only logged with the matcher.logFeatureCache system property set.
+ * FORMAT_VERSION has to be increased whenever the extraction results or the format change.
+ */
+final class FeatureCache {
+	/**
+	 * Get the cache entry for the extractors' current inputs and class path, null if the cache is disabled.
+	 */
+	static FeatureCache get(ClassEnvironment env, boolean inputsFirst, ClassFeatureExtractor... extractors) {
+		Path dir = getDir();
+		if (dir == null) return null;
+
+		MessageDigest digest;
+
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+
+		digest.update(ByteBuffer.allocate(9).putInt(FORMAT_VERSION).putInt(extractors.length).put((byte) (inputsFirst ? 1 : 0)).array());
+		// the JRE supplies the shared classes not on the configured class path
+		digest.update((System.getProperty("java.vendor")+"\n"+System.getProperty("java.version")+"\n").getBytes(StandardCharsets.UTF_8));
+		updateDigest(digest, env.getClassPathFiles());
+
+		for (ClassFeatureExtractor extractor : extractors) {
+			updateDigest(digest, extractor.getClassPathFiles());
+			updateDigest(digest, extractor.getInputFiles());
+		}
+
+		byte[] key = digest.digest();
+		StringBuilder name = new StringBuilder(key.length * 2 + 4);
+
+		for (byte b : key) {
+			name.append(Character.forDigit((b >>> 4) & 0xf, 16));
+			name.append(Character.forDigit(b & 0xf, 16));
+		}
+
+		return new FeatureCache(env, dir.resolve(name.append(".bin").toString()), key);
+	}
+
+	private static Path getDir() {
+		String value = System.getProperty("matcher.featureCacheDir");
+
+		if (value == null || value.isEmpty()) {
+			return null;
+		} else {
+			return Paths.get(value);
+		}
+	}
+
+	static boolean isLogEnabled() {
+		return logEnabled;
+	}
+
+	private static void updateDigest(MessageDigest digest, Collection<InputFile> files) {
+		digest.update(ByteBuffer.allocate(4).putInt(files.size()).array());
+
+		for (InputFile file : files) {
+			digest.update(file.sha256);
+		}
+	}
+
+	private FeatureCache(ClassEnvironment env, Path file, byte[] key) {
+		this.env = env;
+		this.file = file;
+		this.key = key;
+	}
+
+	/**
+	 * Restore the cached results into the extractors, which have to be at the start of processing pass B.
+	 *
+	 * @return false if there is no usable entry, the classes remain unmodified in this case except for classes created by
+	 * resolving the entry's references, which processing pass B creates as well
+	 */
+	boolean restore(ClassFeatureExtractor... extractors) {
+		if (!Files.isRegularFile(file)) return false;
+
+		byte[] data;
+
+		// read everything upfront, the stream's checksum catches truncated or damaged entries before any modification
+		try (InputStream is = new InflaterInputStream(Files.newInputStream(file))) {
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			byte[] buffer = new byte[64 * 1024];
+			int len;
+
+			while ((len = is.read(buffer)) != -1) {
+				os.write(buffer, 0, len);
+			}
+
+			data = os.toByteArray();
+		} catch (IOException e) {
+			System.out.println("can't read feature cache "+file+": "+e);
+			return false;
+		}
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		Reader reader = new Reader(in, extractors);
+
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) return false;
+
+			byte[] key = new byte[this.key.length];
+			in.readFully(key);
+			if (!Arrays.equals(key, this.key)) return false;
+
+			reader.read();
+		} catch (IOException | RuntimeException e) {
+			// nothing has been applied yet, discard the entry and process from scratch
+			System.out.println("discarding inconsistent feature cache "+file+": "+e);
+
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e2) { }
+
+			return false;
+		}
+
+		reader.apply();
+
+		try {
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) { }
+
+		return true;
+	}
+
+	/**
+	 * Store the results of the fully processed extractors.
+	 */
+	void store(ClassFeatureExtractor... extractors) {
+		Path tmp = null;
+
+		try {
+			Writer writer = new Writer(extractors);
+			writer.write();
+
+			Files.createDirectories(file.getParent());
+			tmp = Files.createTempFile(file.getParent(), "entry", ".tmp");
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(Files.newOutputStream(tmp))))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.write(key);
+				writer.writeTo(out);
+			}
+
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			tmp = null;
+
+			evict();
+		} catch (IOException e) {
+			System.out.println("can't write feature cache "+file+": "+e);
+		} finally {
+			if (tmp != null) {
+				try {
+					Files.deleteIfExists(tmp);
+				} catch (IOException e) { }
+			}
+		}
+	}
+
+	/**
+	 * Remove the least recently used entries beyond maxEntries.
+	 */
+	private void evict() throws IOException {
+		List<Path> entries = new ArrayList<>();
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.getParent(), "*.bin")) {
+			for (Path entry : stream) {
+				entries.add(entry);
+			}
+		}
+
+		if (entries.size() <= maxEntries) return;
+
+		Map<Path, FileTime> times = new HashMap<>();
+
+		for (Path entry : entries) {
+			times.put(entry, Files.getLastModifiedTime(entry));
+		}
+
+		entries.sort(Comparator.comparing(times::get, Comparator.reverseOrder()));
+
+		for (Path entry : entries.subList(maxEntries, entries.size())) {
+			Files.deleteIfExists(entry);
+		}
+	}
+
+	private static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte(value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(DataInput in) throws IOException {
+		int ret = 0;
+
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			ret |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) return ret;
+		}
+
+		throw new IOException("invalid var int");
+	}
+
+	/**
+	 * Serializer for the entry body, references classes by env and id and members by class and id, all strings
+	 * through a shared table.
+	 */
+	private class Writer {
+		Writer(ClassFeatureExtractor[] extractors) {
+			this.extractors = extractors;
+		}
+
+		void write() throws IOException {
+			List<ClassInstance> owners = new ArrayList<>();
+			addSyntheticOwners(env.getSharedClasses(), owners);
+
+			for (ClassFeatureExtractor extractor : extractors) {
+				addSyntheticOwners(extractor.getClasses().values(), owners);
+				addSyntheticOwners(extractor.getArrayClasses(), owners);
+			}
+
+			writeVarInt(body, owners.size());
+
+			for (ClassInstance owner : owners) {
+				writeClass(owner);
+				writeSyntheticMembers(owner.methods);
+				writeSyntheticMembers(owner.fields);
+			}
+
+			for (ClassFeatureExtractor extractor : extractors) {
+				List<ClassInstance> classes = new ArrayList<>(extractor.getClasses().values());
+				classes.sort(Comparator.comparing(ClassInstance::getId));
+				writeVarInt(body, classes.size());
+
+				for (ClassInstance cls : classes) {
+					writeString(cls.id);
+					writeVarInt(body, cls.methods.length);
+
+					for (MethodInstance method : cls.methods) {
+						writeString(method.id);
+						writeMembers(method.refsOut);
+						writeMembers(method.fieldReadRefs);
+						writeMembers(method.fieldWriteRefs);
+						writeVarInt(body, method.classRefs.size());
+
+						for (ClassInstance ref : method.classRefs) {
+							writeClass(ref);
+						}
+
+						writeMembers(method.getParents());
+					}
+
+					writeVarInt(body, cls.fields.length);
+
+					for (FieldInstance field : cls.fields) {
+						writeString(field.id);
+						writeMembers(field.getParents());
+
+						if (field.initializerPositions == null) {
+							writeVarInt(body, 0);
+						} else {
+							writeVarInt(body, field.initializerPositions.length + 1);
+							int prev = 0;
+
+							for (int pos : field.initializerPositions) {
+								writeVarInt(body, pos - prev);
+								prev = pos;
+							}
+						}
+					}
+				}
+			}
+		}
+
+		private void addSyntheticOwners(Collection<ClassInstance> classes, List<ClassInstance> out) {
+			int start = out.size();
+
+			for (ClassInstance cls : classes) {
+				if (hasSyntheticMembers(cls.methods) || hasSyntheticMembers(cls.fields)) out.add(cls);
+			}
+
+			out.subList(start, out.size()).sort(Comparator.comparing(ClassInstance::getId));
+		}
+
+		private boolean hasSyntheticMembers(MemberInstance<?>[] members) {
+			for (MemberInstance<?> member : members) {
+				if (isSynthetic(member)) return true;
+			}
+
+			return false;
+		}
+
+		private void writeSyntheticMembers(MemberInstance<?>[] members) throws IOException {
+			int count = 0;
+
+			for (MemberInstance<?> member : members) {
+				if (isSynthetic(member)) count++;
+			}
+
+			writeVarInt(body, count);
+
+			// in creation order, which determines the member order
+			for (MemberInstance<?> member : members) {
+				if (!isSynthetic(member)) continue;
+
+				writeString(member.origName);
+				writeString(member.getDesc());
+				body.writeBoolean(member.isStatic());
+			}
+		}
+
+		private void writeMembers(Set<? extends MemberInstance<?>> members) throws IOException {
+			writeVarInt(body, members.size());
+
+			for (MemberInstance<?> member : members) {
+				writeClass(member.cls);
+				writeString(member.id);
+			}
+		}
+
+		private void writeClass(ClassInstance cls) throws IOException {
+			int envIdx = 0; // shared
+
+			if (!cls.isShared()) {
+				envIdx = Arrays.asList(extractors).indexOf(cls.getEnv()) + 1;
+				if (envIdx == 0) throw new IllegalStateException("class from unknown env: "+cls);
+			}
+
+			writeVarInt(body, envIdx);
+			writeString(cls.id);
+		}
+
+		private void writeString(String str) throws IOException {
+			Integer idx = stringIndices.get(str);
+
+			if (idx == null) {
+				idx = strings.size();
+				stringIndices.put(str, idx);
+				strings.add(str);
+			}
+
+			writeVarInt(body, idx);
+		}
+
+		void writeTo(OutputStream os) throws IOException {
+			DataOutputStream out = new DataOutputStream(os);
+			writeVarInt(out, strings.size());
+
+			for (String str : strings) {
+				out.writeUTF(str);
+			}
+
+			body.flush();
+			bodyBuffer.writeTo(out);
+		}
+
+		private final ClassFeatureExtractor[] extractors;
+		private final Map<String, Integer> stringIndices = new HashMap<>();
+		private final List<String> strings = new ArrayList<>();
+		private final ByteArrayOutputStream bodyBuffer = new ByteArrayOutputStream();
+		private final DataOutputStream body = new DataOutputStream(bodyBuffer);
+	}
+
+	/**
+	 * Deserializer for the entry body, read decodes and validates everything without modifying any class, apply then
+	 * adds the results to the classes.
+	 */
+	private class Reader {
+		Reader(DataInput in, ClassFeatureExtractor[] extractors) {
+			this.in = in;
+			this.extractors = extractors;
+		}
+
+		void read() throws IOException {
+			strings = new String[readVarInt(in)];
+
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = in.readUTF();
+			}
+
+			resolvedClasses = new ClassInstance[extractors.length + 1][strings.length];
+
+			for (int i = readVarInt(in); i > 0; i--) {
+				ClassInstance owner = readClass();
+
+				for (int j = readVarInt(in); j > 0; j--) {
+					String name = readString();
+					String desc = readString();
+					MethodInstance method = new MethodInstance(owner, name, desc, in.readBoolean());
+					if (findMethod(owner, method.id) != null) throw new IllegalStateException("duplicate synthetic method "+owner+"/"+name+desc);
+
+					syntheticMethods.computeIfAbsent(owner, ignore -> new LinkedHashMap<>()).put(method.id, method);
+				}
+
+				for (int j = readVarInt(in); j > 0; j--) {
+					String name = readString();
+					String desc = readString();
+					FieldInstance field = new FieldInstance(owner, name, desc, in.readBoolean());
+					if (findField(owner, field.id) != null) throw new IllegalStateException("duplicate synthetic field "+owner+"/"+name+";;"+desc);
+
+					syntheticFields.computeIfAbsent(owner, ignore -> new LinkedHashMap<>()).put(field.id, field);
+				}
+			}
+
+			for (ClassFeatureExtractor extractor : extractors) {
+				for (int i = readVarInt(in); i > 0; i--) {
+					ClassInstance cls = getClass(extractor, readString());
+					int methodCount = readVarInt(in);
+					if (methodCount != cls.methods.length + getSyntheticCount(syntheticMethods, cls)) throw new IllegalStateException("method count mismatch for "+cls);
+
+					for (int j = 0; j < methodCount; j++) {
+						MethodResults res = new MethodResults(getMember(findMethod(cls, readString()), cls));
+						res.refsOut = readMethods();
+						res.fieldReadRefs = readFields();
+						res.fieldWriteRefs = readFields();
+						res.classRefs = new ClassInstance[readVarInt(in)];
+
+						for (int k = 0; k < res.classRefs.length; k++) {
+							res.classRefs[k] = readClass();
+						}
+
+						res.parents = readMethods();
+						methodResults.add(res);
+
+						for (FieldInstance field : res.fieldWriteRefs) {
+							// more than 1 writer is recorded as the marker value to fail the initializer check below
+							fieldWriters.merge(field, res.method, (prev, cur) -> prev == cur ? prev : multipleWriters);
+						}
+					}
+
+					int fieldCount = readVarInt(in);
+					if (fieldCount != cls.fields.length + getSyntheticCount(syntheticFields, cls)) throw new IllegalStateException("field count mismatch for "+cls);
+
+					for (int j = 0; j < fieldCount; j++) {
+						FieldResults res = new FieldResults(getMember(findField(cls, readString()), cls));
+						res.parents = readFields();
+						int count = readVarInt(in) - 1;
+
+						if (count >= 0) {
+							res.initializerPositions = new int[count];
+							int pos = 0;
+
+							for (int k = 0; k < count; k++) {
+								pos += readVarInt(in);
+								res.initializerPositions[k] = pos;
+							}
+						}
+
+						fieldResults.add(res);
+					}
+				}
+			}
+
+			// the initializers need the write references from all classes
+			for (FieldResults res : fieldResults) {
+				if (res.initializerPositions == null) continue;
+
+				Object writerObj = fieldWriters.get(res.field);
+				if (!(writerObj instanceof MethodInstance) || !res.field.writeRefs.isEmpty()) throw new IllegalStateException("initializer without single writer: "+res.field);
+
+				MethodInstance writer = (MethodInstance) writerObj;
+				if (writer.asmNode == null) throw new IllegalStateException("initializer in synthetic method "+writer);
+
+				res.initializerSource = writer.asmNode.instructions;
+
+				for (int pos : res.initializerPositions) {
+					if (pos < 0 || pos >= res.initializerSource.size()) throw new IllegalStateException("invalid initializer position "+pos+" for "+res.field);
+				}
+			}
+		}
+
+		/**
+		 * Add the validated results from read to the classes.
+		 */
+		void apply() {
+			for (Map.Entry<ClassInstance, Map<String, MethodInstance>> entry : syntheticMethods.entrySet()) {
+				for (MethodInstance method : entry.getValue().values()) {
+					entry.getKey().addMethod(method);
+				}
+			}
+
+			for (Map.Entry<ClassInstance, Map<String, FieldInstance>> entry : syntheticFields.entrySet()) {
+				for (FieldInstance field : entry.getValue().values()) {
+					entry.getKey().addField(field);
+				}
+			}
+
+			for (MethodResults res : methodResults) {
+				MethodInstance method = res.method;
+
+				for (MethodInstance dst : res.refsOut) {
+					dst.refsIn.add(method);
+					method.refsOut.add(dst);
+				}
+
+				for (FieldInstance dst : res.fieldReadRefs) {
+					dst.readRefs.add(method);
+					method.fieldReadRefs.add(dst);
+				}
+
+				for (FieldInstance dst : res.fieldWriteRefs) {
+					dst.writeRefs.add(method);
+					method.fieldWriteRefs.add(dst);
+				}
+
+				for (ClassInstance dst : res.classRefs) {
+					dst.methodTypeRefs.add(method);
+					method.classRefs.add(dst);
+				}
+
+				for (MethodInstance parent : res.parents) {
+					method.addParent(parent);
+					parent.addChild(method);
+				}
+			}
+
+			for (FieldResults res : fieldResults) {
+				FieldInstance field = res.field;
+
+				for (FieldInstance parent : res.parents) {
+					field.addParent(parent);
+					parent.addChild(field);
+				}
+
+				if (res.initializerPositions != null) {
+					List<AbstractInsnNode> initializer = new ArrayList<>(res.initializerPositions.length);
+
+					for (int pos : res.initializerPositions) {
+						initializer.add(res.initializerSource.get(pos));
+					}
+
+					field.initializer = initializer;
+					field.initializerSource = res.initializerSource;
+					field.initializerPositions = res.initializerPositions;
+				}
+			}
+		}
+
+		private ClassInstance readClass() throws IOException {
+			int envIdx = readVarInt(in);
+			int idIdx = readVarInt(in);
+			ClassInstance[] resolved = resolvedClasses[envIdx];
+			ClassInstance ret = resolved[idIdx];
+			if (ret != null) return ret;
+
+			if (envIdx == 0) {
+				ret = env.getCreateClassInstance(strings[idIdx]);
+				if (!ret.isShared()) throw new IllegalStateException("non-shared class "+ret);
+			} else {
+				ret = getClass(extractors[envIdx - 1], strings[idIdx]);
+			}
+
+			resolved[idIdx] = ret;
+
+			return ret;
+		}
+
+		private ClassInstance getClass(ClassFeatureExtractor extractor, String id) {
+			ClassInstance ret = extractor.getCreateClassInstance(id);
+			if (ret.getEnv() != extractor) throw new IllegalStateException("unexpected shared class "+ret);
+
+			return ret;
+		}
+
+		private MethodInstance[] readMethods() throws IOException {
+			MethodInstance[] ret = new MethodInstance[readVarInt(in)];
+
+			for (int i = 0; i < ret.length; i++) {
+				ClassInstance cls = readClass();
+				ret[i] = getMember(findMethod(cls, readString()), cls);
+			}
+
+			return ret;
+		}
+
+		private FieldInstance[] readFields() throws IOException {
+			FieldInstance[] ret = new FieldInstance[readVarInt(in)];
+
+			for (int i = 0; i < ret.length; i++) {
+				ClassInstance cls = readClass();
+				ret[i] = getMember(findField(cls, readString()), cls);
+			}
+
+			return ret;
+		}
+
+		private MethodInstance findMethod(ClassInstance cls, String id) {
+			MethodInstance ret = cls.getMethod(id);
+			if (ret != null) return ret;
+
+			Map<String, MethodInstance> synthetic = syntheticMethods.get(cls);
+
+			return synthetic != null ? synthetic.get(id) : null;
+		}
+
+		private FieldInstance findField(ClassInstance cls, String id) {
+			FieldInstance ret = cls.getField(id);
+			if (ret != null) return ret;
+
+			Map<String, FieldInstance> synthetic = syntheticFields.get(cls);
+
+			return synthetic != null ? synthetic.get(id) : null;
+		}
+
+		private <T extends MemberInstance<T>> T getMember(T member, ClassInstance cls) {
+			if (member == null) throw new IllegalStateException("missing member in "+cls);
+
+			return member;
+		}
+
+		private String readString() throws IOException {
+			return strings[readVarInt(in)];
+		}
+
+		private final DataInput in;
+		private final ClassFeatureExtractor[] extractors;
+		private String[] strings;
+		private ClassInstance[][] resolvedClasses; // by env index and id string index
+		// synthetic members by owner and id in creation order, only added to the owners by apply
+		private final Map<ClassInstance, Map<String, MethodInstance>> syntheticMethods = new LinkedHashMap<>();
+		private final Map<ClassInstance, Map<String, FieldInstance>> syntheticFields = new LinkedHashMap<>();
+		private final List<MethodResults> methodResults = new ArrayList<>();
+		private final List<FieldResults> fieldResults = new ArrayList<>();
+		private final Map<FieldInstance, Object> fieldWriters = new IdentityHashMap<>(); // single writer or multipleWriters
+	}
+
+	private static int getSyntheticCount(Map<ClassInstance, ? extends Map<String, ?>> syntheticMembers, ClassInstance cls) {
+		Map<String, ?> members = syntheticMembers.get(cls);
+
+		return members != null ? members.size() : 0;
+	}
+
+	private static final class MethodResults {
+		MethodResults(MethodInstance method) {
+			this.method = method;
+		}
+
+		final MethodInstance method;
+		MethodInstance[] refsOut;
+		FieldInstance[] fieldReadRefs;
+		FieldInstance[] fieldWriteRefs;
+		ClassInstance[] classRefs;
+		MethodInstance[] parents;
+	}
+
+	private static final class FieldResults {
+		FieldResults(FieldInstance field) {
+			this.field = field;
+		}
+
+		final FieldInstance field;
+		FieldInstance[] parents;
+		int[] initializerPositions;
+		InsnList initializerSource;
+	}
+
+	private static boolean isSynthetic(MemberInstance<?> member) {
+		return member instanceof MethodInstance ? ((MethodInstance) member).asmNode == null : ((FieldInstance) member).asmNode == null;
+	}
+
+	private static final int MAGIC = 0x4d464331; // MFC1
+	private static final int FORMAT_VERSION = 1;
+	private static final int maxEntries = 16;
+	private static final Object multipleWriters = new Object();
+	private static final boolean logEnabled = Boolean.getBoolean("matcher.logFeatureCache");
+
+	private final ClassEnvironment env;
+	private final Path file;
+	private final byte[] key;
+}
@@ -1,13 +1,18 @@
 package matcher.type;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnList;
 
 import matcher.Util;
+import matcher.classifier.ClassifierUtil;
 
 public class FieldInstance extends MemberInstance<FieldInstance> {
 	/**
@@ -30,7 +35,9 @@ public class FieldInstance extends MemberInstance<FieldInstance> {
 		this.type = cls.getEnv().getCreateClassInstance(desc);
 		this.asmNode = asmNode;
 
-		type.fieldTypeRefs.add(this);
+		synchronized (type.fieldTypeRefs) {
+			type.fieldTypeRefs.add(this);
+		}
 	}
 
 	@Override
@@ -69,6 +76,65 @@ public class FieldInstance extends MemberInstance<FieldInstance> {
 		return initializer;
 	}
 
+	/**
+	 * Get the index of insn within the initializer in O(log n), -1 if it isn't part of it.
+	 */
+	public int getInitializerPosition(AbstractInsnNode insn) {
+		if (initializer == null) return -1;
+
+		int ret = Arrays.binarySearch(initializerPositions, initializerSource.indexOf(insn));
+
+		return ret >= 0 ? ret : -1;
+	}
+
+	/**
+	 * String constants loaded by the field's initializer.
+	 */
+	public Set<String> getInitStrings() {
+		Set<String> ret = initStrings;
+
+		return ret != null ? ret : collectInitStrings();
+	}
+
+	/**
+	 * Resolved operands of the initializer instructions, indexed like getInitializer, see MethodInstance.getInsnRefs.
+	 */
+	public IMatchable<?>[] getInitRefs() {
+		IMatchable<?>[] ret = initRefs;
+
+		return ret != null ? ret : resolveInitRefs();
+	}
+
+	/**
+	 * Normalized initializer instruction stream for code comparisons, null if there is no initializer.
+	 */
+	public InsnTokens getInitTokens() {
+		InsnTokens ret = initTokens;
+
+		return ret != null ? ret : InsnTokens.create(this);
+	}
+
+	void updateFeatures() {
+		initStrings = collectInitStrings();
+		initRefs = resolveInitRefs();
+		initTokens = InsnTokens.create(this);
+	}
+
+	private IMatchable<?>[] resolveInitRefs() {
+		if (initializer == null) return null;
+
+		return MethodInstance.resolveInsnRefs(initializer.iterator(), initializer.size(), cls.getEnv());
+	}
+
+	private Set<String> collectInitStrings() {
+		if (initializer == null) return Collections.emptySet();
+
+		Set<String> ret = new HashSet<>();
+		ClassifierUtil.extractStrings(initializer, ret);
+
+		return Util.immutableSet(ret);
+	}
+
 	public Set<MethodInstance> getReadRefs() {
 		return readRefs;
 	}
@@ -77,6 +143,11 @@ public class FieldInstance extends MemberInstance<FieldInstance> {
 		return writeRefs;
 	}
 
+	@Override
+	MatchState.Table<FieldInstance> getMatchTable(MatchState state) {
+		return state.getFields();
+	}
+
 	static String getId(String name, String desc) {
 		return name+";;"+desc;
 	}
@@ -85,7 +156,14 @@ public class FieldInstance extends MemberInstance<FieldInstance> {
 	final ClassInstance type;
 	ClassInstance exactType;
 	List<AbstractInsnNode> initializer;
+	InsnList initializerSource; // instructions of the method containing the initializer
+	int[] initializerPositions; // initializer element positions within initializerSource, sorted
 
 	final Set<MethodInstance> readRefs = Util.newIdentityHashSet();
 	final Set<MethodInstance> writeRefs = Util.newIdentityHashSet();
+
+	// derived features, see updateFeatures
+	private volatile Set<String> initStrings;
+	private volatile IMatchable<?>[] initRefs;
+	private volatile InsnTokens initTokens;
 }
\ No newline at end of file
@@ -28,4 +28,11 @@ public interface IClassEnv {
 	ClassInstance getClsByMappedId(String id);
 
 	ClassEnvironment getGlobal();
+
+	/**
+	 * Match state of this environment's classes and members, null for the shared environment.
+	 */
+	default MatchState getMatchState() {
+		return null;
+	}
 }
@@ -16,5 +16,11 @@ public interface IMatchable<T> {
 	}
 
 	T getMatch();
+
+	/**
+	 * Dense id of this entity within its side and kind, see MatchState, or -1 if none has been assigned yet.
+	 */
+	int getIntId();
+
 	boolean isNameObfuscated(boolean recursive);
 }
\ No newline at end of file
@@ -0,0 +1,193 @@
+package matcher.type;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+/**
+ * Normalized instruction stream for code comparisons, without labels, line numbers and frames.
+ *
+ * <p>Each instruction is encoded as an int token holding its opcode and operand. Tokens for instructions whose operands
+ * are fully represented are exact, equal tokens imply equal instructions. Operands referencing classes or members
+ * depend on the current matches, tokens for those instructions as well as for hashed constant operands are flagged
+ * with {@link #VERIFY} and only compare the static part, equal tokens require an additional check of the instructions.
+ */
+public final class InsnTokens {
+	private InsnTokens(int[] tokens, AbstractInsnNode[] insns, IMatchable<?>[] refs) {
+		this.tokens = tokens;
+		this.insns = insns;
+		this.refs = refs;
+	}
+
+	static InsnTokens create(MethodInstance method) {
+		if (method.asmNode == null) return EMPTY;
+
+		InsnList il = method.asmNode.instructions;
+
+		return create(il.iterator(), il.size(), method.getInsnRefs(), il::indexOf);
+	}
+
+	static InsnTokens create(FieldInstance field) {
+		List<AbstractInsnNode> initializer = field.initializer;
+		if (initializer == null) return null;
+
+		return create(initializer.iterator(), initializer.size(), field.getInitRefs(), field::getInitializerPosition);
+	}
+
+	private static InsnTokens create(Iterator<AbstractInsnNode> it, int size, IMatchable<?>[] insnRefs, ToIntFunction<AbstractInsnNode> posProvider) {
+		int[] tokens = new int[size];
+		AbstractInsnNode[] insns = new AbstractInsnNode[size];
+		IMatchable<?>[] refs = new IMatchable<?>[size];
+		int count = 0;
+
+		for (int i = 0; i < size; i++) {
+			AbstractInsnNode insn = it.next();
+			int type = insn.getType();
+			if (type == AbstractInsnNode.LABEL || type == AbstractInsnNode.LINE || type == AbstractInsnNode.FRAME) continue;
+
+			tokens[count] = getToken(insn, i, posProvider);
+			insns[count] = insn;
+			refs[count] = insnRefs[i];
+			count++;
+		}
+
+		if (count == 0) return EMPTY;
+
+		if (count < size) {
+			int[] newTokens = new int[count];
+			System.arraycopy(tokens, 0, newTokens, 0, count);
+			tokens = newTokens;
+
+			AbstractInsnNode[] newInsns = new AbstractInsnNode[count];
+			System.arraycopy(insns, 0, newInsns, 0, count);
+			insns = newInsns;
+
+			IMatchable<?>[] newRefs = new IMatchable<?>[count];
+			System.arraycopy(refs, 0, newRefs, 0, count);
+			refs = newRefs;
+		}
+
+		return new InsnTokens(tokens, insns, refs);
+	}
+
+	private static int getToken(AbstractInsnNode insn, int pos, ToIntFunction<AbstractInsnNode> posProvider) {
+		int operand;
+		boolean verify;
+
+		switch (insn.getType()) {
+		case AbstractInsnNode.INT_INSN:
+			operand = ((IntInsnNode) insn).operand;
+			verify = false;
+			break;
+		case AbstractInsnNode.VAR_INSN:
+			operand = ((VarInsnNode) insn).var;
+			verify = false;
+			break;
+		case AbstractInsnNode.JUMP_INSN:
+			// only the jump direction is being compared
+			operand = posProvider.applyAsInt(((JumpInsnNode) insn).label) > pos ? 1 : 0;
+			verify = false;
+			break;
+		case AbstractInsnNode.TYPE_INSN:
+		case AbstractInsnNode.FIELD_INSN:
+		case AbstractInsnNode.METHOD_INSN:
+			operand = 0;
+			verify = true;
+			break;
+		case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+			operand = ((InvokeDynamicInsnNode) insn).bsm.hashCode();
+			verify = true;
+			break;
+		case AbstractInsnNode.LDC_INSN: {
+			Object cst = ((LdcInsnNode) insn).cst;
+
+			if (cst instanceof Type) {
+				operand = ((Type) cst).getSort();
+			} else {
+				operand = cst.getClass().hashCode() * 31 + cst.hashCode();
+			}
+
+			verify = true;
+			break;
+		}
+		case AbstractInsnNode.IINC_INSN: {
+			IincInsnNode in = (IincInsnNode) insn;
+			operand = in.var * 31 + in.incr;
+			verify = true;
+			break;
+		}
+		case AbstractInsnNode.TABLESWITCH_INSN: {
+			TableSwitchInsnNode in = (TableSwitchInsnNode) insn;
+			operand = in.min * 31 + in.max;
+			verify = true;
+			break;
+		}
+		case AbstractInsnNode.LOOKUPSWITCH_INSN:
+			operand = ((LookupSwitchInsnNode) insn).keys.hashCode();
+			verify = true;
+			break;
+		case AbstractInsnNode.MULTIANEWARRAY_INSN:
+			operand = ((MultiANewArrayInsnNode) insn).dims;
+			verify = true;
+			break;
+		default:
+			operand = 0;
+			verify = false;
+		}
+
+		if (verify) operand ^= operand >>> 23; // fold the high bits of hashes into the kept range
+
+		return (verify ? VERIFY : 0) | (insn.getOpcode() & 0xff) << 23 | operand & OPERAND_MASK;
+	}
+
+	public int size() {
+		return tokens.length;
+	}
+
+	/**
+	 * Token for the instruction at pos, see the class description.
+	 */
+	public int getToken(int pos) {
+		return tokens[pos];
+	}
+
+	public AbstractInsnNode getInsn(int pos) {
+		return insns[pos];
+	}
+
+	/**
+	 * Resolved operand for the instruction at pos, see MethodInstance.getInsnRefs.
+	 */
+	public IMatchable<?> getRef(int pos) {
+		return refs[pos];
+	}
+
+	public static boolean isExact(int token) {
+		return (token & VERIFY) == 0;
+	}
+
+	/**
+	 * Token flag for tokens that don't fully represent the instruction.
+	 */
+	public static final int VERIFY = 1 << 31;
+	private static final int OPERAND_MASK = (1 << 23) - 1;
+
+	public static final InsnTokens EMPTY = new InsnTokens(new int[0], new AbstractInsnNode[0], new IMatchable<?>[0]);
+
+	private final int[] tokens;
+	private final AbstractInsnNode[] insns;
+	private final IMatchable<?>[] refs;
+}
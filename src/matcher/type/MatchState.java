@@ -0,0 +1,461 @@
+package matcher.type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Match state of one side's classes, methods, fields and method vars, held in int arrays indexed by dense per side ids.
+ *
+ * <p>The ids are assigned at the end of ClassFeatureExtractor.process in class order, entities created afterwards get
+ * theirs on their first match. A match is stored as the id of the matched entity on the other side or -1.
+ *
+ * <p>Reads don't lock. Id assignment, which may grow the tables, and match updates synchronize on the side's MatchState,
+ * so a match id write can't land in an array that is being replaced.
+ */
+public final class MatchState {
+	MatchState() { }
+
+	static void link(MatchState a, MatchState b) {
+		a.other = b;
+		b.other = a;
+	}
+
+	void assignIds(Collection<ClassInstance> classes) {
+		for (ClassInstance cls : classes) {
+			getCreateId(cls);
+
+			for (MethodInstance method : cls.getMethods()) {
+				getCreateId(method);
+
+				for (MethodVarInstance arg : method.getArgs()) {
+					getCreateId(arg);
+				}
+
+				if (method.getVars() != null) { // vars aren't gathered yet
+					for (MethodVarInstance var : method.getVars()) {
+						getCreateId(var);
+					}
+				}
+			}
+
+			for (FieldInstance field : cls.getFields()) {
+				getCreateId(field);
+			}
+		}
+	}
+
+	synchronized void reset() {
+		classes.clear();
+		methods.clear();
+		fields.clear();
+		vars.clear();
+		idSets.clear();
+		generation++;
+		modCount++;
+	}
+
+	/**
+	 * Copy the current matches, O(entity count).
+	 */
+	public synchronized Snapshot createSnapshot() {
+		return new Snapshot(this, generation, classes.copyMatchIds(), methods.copyMatchIds(), fields.copyMatchIds(), vars.copyMatchIds());
+	}
+
+	/**
+	 * Restore the matches from snapshot, entities that got their id after the snapshot was taken become unmatched.
+	 *
+	 * <p>The other side has to be restored from its snapshot of the same time to keep the matches symmetric.
+	 */
+	public synchronized void restore(Snapshot snapshot) {
+		if (snapshot.owner != this) throw new IllegalArgumentException("foreign snapshot");
+		if (snapshot.generation != generation) throw new IllegalStateException("stale snapshot, the classes were reloaded");
+
+		classes.restoreMatchIds(snapshot.classMatchIds);
+		methods.restoreMatchIds(snapshot.methodMatchIds);
+		fields.restoreMatchIds(snapshot.fieldMatchIds);
+		vars.restoreMatchIds(snapshot.varMatchIds);
+		modCount++;
+	}
+
+	synchronized int getCreateId(ClassInstance cls) {
+		if (cls.intId < 0) {
+			cls.intId = classes.add(cls);
+			modCount++;
+		}
+
+		return cls.intId;
+	}
+
+	synchronized <T extends MemberInstance<T>> int getCreateId(T member) {
+		if (member.intId < 0) {
+			member.intId = member.getMatchTable(this).add(member);
+			modCount++;
+		}
+
+		return member.intId;
+	}
+
+	synchronized int getCreateId(MethodVarInstance var) {
+		if (var.intId < 0) {
+			var.intId = vars.add(var);
+			modCount++;
+		}
+
+		return var.intId;
+	}
+
+	ClassInstance getMatch(ClassInstance cls) {
+		int match = classes.getMatchId(cls.intId);
+
+		return match < 0 ? null : other.classes.get(match);
+	}
+
+	<T extends MemberInstance<T>> T getMatch(T member) {
+		int match = member.getMatchTable(this).getMatchId(member.intId);
+
+		return match < 0 ? null : member.getMatchTable(other).get(match);
+	}
+
+	MethodVarInstance getMatch(MethodVarInstance var) {
+		int match = vars.getMatchId(var.intId);
+
+		return match < 0 ? null : other.vars.get(match);
+	}
+
+	// the other side's id is obtained first to never hold both sides' locks at once
+
+	void setMatch(ClassInstance cls, ClassInstance match) {
+		int matchId = match != null ? other.getCreateId(match) : -1;
+
+		synchronized (this) {
+			classes.setMatchId(getCreateId(cls), matchId);
+			modCount++;
+		}
+	}
+
+	<T extends MemberInstance<T>> void setMatch(T member, T match) {
+		int matchId = match != null ? other.getCreateId(match) : -1;
+
+		synchronized (this) {
+			member.getMatchTable(this).setMatchId(getCreateId(member), matchId);
+			modCount++;
+		}
+	}
+
+	void setMatch(MethodVarInstance var, MethodVarInstance match) {
+		int matchId = match != null ? other.getCreateId(match) : -1;
+
+		synchronized (this) {
+			vars.setMatchId(getCreateId(var), matchId);
+			modCount++;
+		}
+	}
+
+	/**
+	 * Sorted id view of set for the exact identity set comparison in ClassifierUtil.
+	 *
+	 * <p>The views are kept per set instance and rebuilt after any match or id change on set's side, which is cheap
+	 * while ranking since the auto matching passes only apply their matches after ranking everything.
+	 *
+	 * @return the view or null if set holds no entity of an environment with match state or entities of both sides
+	 */
+	public static <T extends IMatchable<T>> IdSet<T> getIdSet(Set<T> set) {
+		for (T element : set) {
+			MatchState state = element.getEnv().getMatchState();
+			if (state != null) return state.getCreateIdSet(set);
+		}
+
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends IMatchable<T>> IdSet<T> getCreateIdSet(Set<T> set) {
+		int modCount = this.modCount;
+
+		if (idSetModCount != modCount) { // drop all outdated views at once, including those of short lived sets
+			synchronized (idSets) {
+				if (idSetModCount != modCount) {
+					idSets.clear();
+					idSetModCount = modCount;
+				}
+			}
+		}
+
+		IdentityKey key = new IdentityKey(set);
+		IdSet<T> ret = (IdSet<T>) idSets.get(key);
+
+		if (ret == null || ret.modCount != modCount) {
+			ret = new IdSet<>(this, set, modCount);
+			idSets.put(key, ret);
+		}
+
+		return ret.valid ? ret : null;
+	}
+
+	public Table<ClassInstance> getClasses() {
+		return classes;
+	}
+
+	public Table<MethodInstance> getMethods() {
+		return methods;
+	}
+
+	public Table<FieldInstance> getFields() {
+		return fields;
+	}
+
+	public Table<MethodVarInstance> getVars() {
+		return vars;
+	}
+
+	/**
+	 * Entities of one kind by id with the ids of their matches, all modifications happen under the owning MatchState's
+	 * lock.
+	 */
+	public static final class Table<T> {
+		private Table(MatchState owner) {
+			this.owner = owner;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		@SuppressWarnings("unchecked")
+		public T get(int id) {
+			return (T) entities[id];
+		}
+
+		/**
+		 * @return the id of the matched entity in the other side's table or -1 if unmatched
+		 */
+		public int getMatchId(int id) {
+			return matchIds[id];
+		}
+
+		void setMatchId(int id, int matchId) {
+			assert Thread.holdsLock(owner);
+
+			matchIds[id] = matchId;
+		}
+
+		int add(T entity) {
+			assert Thread.holdsLock(owner);
+
+			if (size == entities.length) {
+				int newLength = Math.max(16, size * 2);
+				int[] newMatchIds = Arrays.copyOf(matchIds, newLength);
+				Arrays.fill(newMatchIds, size, newLength, -1);
+
+				// publish the arrays before handing out ids beyond their old length
+				matchIds = newMatchIds;
+				entities = Arrays.copyOf(entities, newLength);
+			}
+
+			entities[size] = entity;
+
+			return size++;
+		}
+
+		int[] copyMatchIds() {
+			return Arrays.copyOf(matchIds, size);
+		}
+
+		void restoreMatchIds(int[] ids) {
+			assert ids.length <= size;
+
+			System.arraycopy(ids, 0, matchIds, 0, ids.length);
+			Arrays.fill(matchIds, ids.length, size, -1);
+		}
+
+		void clear() {
+			entities = new Object[0];
+			matchIds = new int[0];
+			size = 0;
+		}
+
+		private final MatchState owner;
+		private volatile Object[] entities = new Object[0];
+		private volatile int[] matchIds = new int[0];
+		private volatile int size;
+	}
+
+	/**
+	 * Elements of one side's set by sorted id and sorted match id, see getIdSet. Entities without id are always unmatched,
+	 * shared entities are implicitly matched to themselves and don't have ids either.
+	 */
+	public static final class IdSet<T extends IMatchable<T>> {
+		@SuppressWarnings("unchecked")
+		private IdSet(MatchState owner, Set<T> set, int modCount) {
+			this.owner = owner;
+			this.modCount = modCount;
+
+			T[] withId = (T[]) new IMatchable<?>[set.size()];
+			int count = 0;
+			int[] matchIds = new int[set.size()];
+			int matchCount = 0;
+			List<T> unmatched = null;
+			int obfuscatedUnmatched = 0;
+			List<T> shared = null;
+			boolean valid = true;
+
+			for (T element : set) {
+				MatchState state = element.getEnv().getMatchState();
+
+				if (state == null) {
+					if (shared == null) shared = new ArrayList<>();
+					shared.add(element);
+					continue;
+				} else if (state != owner) {
+					valid = false;
+					break;
+				}
+
+				T match = element.getMatch();
+
+				if (element.getIntId() >= 0) {
+					withId[count++] = element;
+					if (match != null) matchIds[matchCount++] = match.getIntId();
+				}
+
+				if (match == null) {
+					if (unmatched == null) unmatched = new ArrayList<>();
+					unmatched.add(element);
+					if (element.isNameObfuscated(true)) obfuscatedUnmatched++;
+				}
+			}
+
+			withId = Arrays.copyOf(withId, count);
+			Arrays.sort(withId, (a, b) -> Integer.compare(a.getIntId(), b.getIntId()));
+			ids = new int[count];
+			obfuscated = new boolean[count];
+
+			for (int i = 0; i < count; i++) {
+				ids[i] = withId[i].getIntId();
+				obfuscated[i] = withId[i].isNameObfuscated(true);
+			}
+
+			this.elements = withId;
+			this.matchIds = Arrays.copyOf(matchIds, matchCount);
+			Arrays.sort(this.matchIds);
+			this.unmatched = unmatched != null ? unmatched : Collections.emptyList();
+			this.obfuscatedUnmatched = obfuscatedUnmatched;
+			this.shared = shared != null ? shared : Collections.emptyList();
+			this.valid = valid;
+		}
+
+		public MatchState getOwner() {
+			return owner;
+		}
+
+		/**
+		 * Ascending ids of the elements that have one, not to be modified.
+		 */
+		public int[] getIds() {
+			return ids;
+		}
+
+		/**
+		 * @param index index into getIds
+		 */
+		public T getElement(int index) {
+			return elements[index];
+		}
+
+		/**
+		 * @param index index into getIds
+		 * @return the element's isNameObfuscated(true)
+		 */
+		public boolean isObfuscated(int index) {
+			return obfuscated[index];
+		}
+
+		/**
+		 * Ascending ids of the matched elements' matches in the other side's table, not to be modified.
+		 */
+		public int[] getMatchIds() {
+			return matchIds;
+		}
+
+		/**
+		 * Unmatched elements, with and without id.
+		 */
+		public List<T> getUnmatched() {
+			return unmatched;
+		}
+
+		public int getObfuscatedUnmatchedCount() {
+			return obfuscatedUnmatched;
+		}
+
+		public List<T> getShared() {
+			return shared;
+		}
+
+		final MatchState owner;
+		final int modCount;
+		final boolean valid;
+		private final int[] ids;
+		private final T[] elements;
+		private final boolean[] obfuscated;
+		private final int[] matchIds;
+		private final List<T> unmatched;
+		private final int obfuscatedUnmatched;
+		private final List<T> shared;
+	}
+
+	private static final class IdentityKey {
+		IdentityKey(Object obj) {
+			this.obj = obj;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(obj);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof IdentityKey && ((IdentityKey) o).obj == obj;
+		}
+
+		private final Object obj;
+	}
+
+	/**
+	 * Immutable copy of one side's matches, see createSnapshot.
+	 */
+	public static final class Snapshot {
+		private Snapshot(MatchState owner, int generation, int[] classMatchIds, int[] methodMatchIds, int[] fieldMatchIds, int[] varMatchIds) {
+			this.owner = owner;
+			this.generation = generation;
+			this.classMatchIds = classMatchIds;
+			this.methodMatchIds = methodMatchIds;
+			this.fieldMatchIds = fieldMatchIds;
+			this.varMatchIds = varMatchIds;
+		}
+
+		final MatchState owner;
+		final int generation;
+		final int[] classMatchIds;
+		final int[] methodMatchIds;
+		final int[] fieldMatchIds;
+		final int[] varMatchIds;
+	}
+
+	private final Table<ClassInstance> classes = new Table<>(this);
+	private final Table<MethodInstance> methods = new Table<>(this);
+	private final Table<FieldInstance> fields = new Table<>(this);
+	private final Table<MethodVarInstance> vars = new Table<>(this);
+	private final Map<IdentityKey, IdSet<?>> idSets = new ConcurrentHashMap<>();
+	private MatchState other;
+	private int generation;
+	private volatile int modCount; // incremented under the lock by every match or id change, see getIdSet
+	private volatile int idSetModCount;
+}
@@ -8,7 +8,6 @@ import org.objectweb.asm.Opcodes;
 import matcher.Util;
 
 public abstract class MemberInstance<T extends MemberInstance<T>> implements IMatchable<T> {
-	@SuppressWarnings("unchecked")
 	protected MemberInstance(ClassInstance cls, String id, String origName, boolean nameObfuscated, int position, boolean isStatic) {
 		this.cls = cls;
 		this.id = id;
@@ -16,10 +15,6 @@ public abstract class MemberInstance<T extends MemberInstance<T>> implements IMa
 		this.nameObfuscated = nameObfuscated;
 		this.position = position;
 		this.isStatic = isStatic;
-
-		if (cls.isShared()) {
-			matchedInstance = (T) this;
-		}
 	}
 
 	public ClassInstance getCls() {
@@ -83,7 +78,7 @@ public abstract class MemberInstance<T extends MemberInstance<T>> implements IMa
 		return (getAccess() & Opcodes.ACC_FINAL) != 0;
 	}
 
-	void addParent(T parent) {
+	synchronized void addParent(T parent) {
 		assert parent.getCls() != getCls();
 		assert parent != this;
 		assert !children.contains(parent);
@@ -97,7 +92,7 @@ public abstract class MemberInstance<T extends MemberInstance<T>> implements IMa
 		return parents;
 	}
 
-	void addChild(T child) {
+	synchronized void addChild(T child) {
 		assert child.getCls() != getCls();
 		assert child != this;
 		assert !parents.contains(child);
@@ -135,15 +130,19 @@ public abstract class MemberInstance<T extends MemberInstance<T>> implements IMa
 	}
 
 	public boolean hasMappedName() {
-		return mappedName != null || matchedInstance != null && matchedInstance.mappedName != null;
+		T match = getMatch();
+
+		return mappedName != null || match != null && match.mappedName != null;
 	}
 
 	@Override
 	public String getMappedName(boolean defaultToUnmapped) {
+		T match;
+
 		if (mappedName != null) {
 			return mappedName;
-		} else if (matchedInstance != null && matchedInstance.mappedName != null) {
-			return matchedInstance.mappedName;
+		} else if ((match = getMatch()) != null && match.mappedName != null) {
+			return match.mappedName;
 		} else if (defaultToUnmapped) {
 			return getName();
 		} else {
@@ -156,10 +155,12 @@ public abstract class MemberInstance<T extends MemberInstance<T>> implements IMa
 	}
 
 	public String getMappedComment() {
+		T match;
+
 		if (mappedComment != null) {
 			return mappedComment;
-		} else if (matchedInstance != null) {
-			return matchedInstance.mappedComment;
+		} else if ((match = getMatch()) != null) {
+			return match.mappedComment;
 		} else {
 			return null;
 		}
@@ -172,16 +173,32 @@ public abstract class MemberInstance<T extends MemberInstance<T>> implements IMa
 	}
 
 	@Override
+	@SuppressWarnings("unchecked")
 	public T getMatch() {
-		return matchedInstance;
+		if (intId < 0) return cls.isShared() ? (T) this : null;
+
+		return cls.getEnv().getMatchState().getMatch((T) this);
 	}
 
+	@SuppressWarnings("unchecked")
 	public void setMatch(T match) {
 		assert match == null || cls == match.cls.getMatch();
+		assert !cls.isShared(); // shared members are implicitly matched to themselves
+
+		MatchState state = cls.getEnv().getMatchState();
+		if (state != null) state.setMatch((T) this, match);
+	}
 
-		this.matchedInstance = match;
+	@Override
+	public int getIntId() {
+		return intId;
 	}
 
+	/**
+	 * Table for this member's kind within state.
+	 */
+	abstract MatchState.Table<T> getMatchTable(MatchState state);
+
 	@Override
 	public String toString() {
 		return getDisplayName(true, false);
@@ -200,5 +217,5 @@ public abstract class MemberInstance<T extends MemberInstance<T>> implements IMa
 
 	String mappedName;
 	String mappedComment;
-	T matchedInstance;
+	int intId = -1;
 }
\ No newline at end of file
@@ -1,19 +1,30 @@
 package matcher.type;
 
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
 
 import matcher.Util;
+import matcher.classifier.ClassifierUtil;
 
 public class MethodInstance extends MemberInstance<MethodInstance> {
 	/**
@@ -39,7 +50,10 @@ public class MethodInstance extends MemberInstance<MethodInstance> {
 		this.retType = cls.getEnv().getCreateClassInstance(Type.getReturnType(desc).getDescriptor());
 		gatherAnnotations();
 		classRefs.add(retType);
-		retType.methodTypeRefs.add(this);
+
+		synchronized (retType.methodTypeRefs) {
+			retType.methodTypeRefs.add(this);
+		}
 	}
 
 	private static MethodVarInstance[] gatherArgs(MethodInstance method, String desc) {
@@ -81,7 +95,10 @@ public class MethodInstance extends MemberInstance<MethodInstance> {
 			args[i] = arg;
 
 			method.classRefs.add(type);
-			type.methodTypeRefs.add(method);
+
+			synchronized (type.methodTypeRefs) {
+				type.methodTypeRefs.add(method);
+			}
 
 			lvtIdx += type.getSlotSize();
 		}
@@ -266,15 +283,152 @@ public class MethodInstance extends MemberInstance<MethodInstance> {
 		return classRefs;
 	}
 
+	/**
+	 * String constants loaded by this method's code.
+	 */
+	public Set<String> getStrings() {
+		Set<String> ret = strings;
+
+		return ret != null ? ret : collectStrings();
+	}
+
+	public NumericConstants getNumbers() {
+		NumericConstants ret = numbers;
+
+		return ret != null ? ret : NumericConstants.create(this);
+	}
+
+	/**
+	 * Resolved operands of this method's instructions, indexed by instruction position, must not be modified.
+	 *
+	 * <p>Entries are the referenced class for type, ldc class constant and multianewarray instructions, the resolved
+	 * field or method for field, method and lambda invokedynamic instructions and null for everything else or if the
+	 * reference couldn't be resolved. A member that can't be resolved within its existing owner class is represented
+	 * by the owner class, which keeps it distinguishable from a reference to a missing class.
+	 */
+	public IMatchable<?>[] getInsnRefs() {
+		IMatchable<?>[] ret = insnRefs;
+
+		return ret != null ? ret : resolveInsnRefs();
+	}
+
+	/**
+	 * Normalized instruction stream for code comparisons.
+	 */
+	public InsnTokens getInsnTokens() {
+		InsnTokens ret = insnTokens;
+
+		return ret != null ? ret : InsnTokens.create(this);
+	}
+
+	void updateFeatures() {
+		strings = collectStrings();
+		numbers = NumericConstants.create(this);
+		insnRefs = resolveInsnRefs();
+		insnTokens = InsnTokens.create(this);
+	}
+
+	private IMatchable<?>[] resolveInsnRefs() {
+		if (asmNode == null) return emptyInsnRefs;
+
+		return resolveInsnRefs(asmNode.instructions.iterator(), asmNode.instructions.size(), cls.getEnv());
+	}
+
+	static IMatchable<?>[] resolveInsnRefs(Iterator<AbstractInsnNode> it, int size, IClassEnv env) {
+		if (size == 0) return emptyInsnRefs;
+
+		IMatchable<?>[] ret = new IMatchable<?>[size];
+
+		for (int i = 0; i < size; i++) {
+			ret[i] = resolveInsnRef(it.next(), env);
+		}
+
+		return ret;
+	}
+
+	private static IMatchable<?> resolveInsnRef(AbstractInsnNode insn, IClassEnv env) {
+		switch (insn.getType()) {
+		case AbstractInsnNode.TYPE_INSN:
+			return env.getClsByName(((TypeInsnNode) insn).desc);
+		case AbstractInsnNode.FIELD_INSN: {
+			FieldInsnNode in = (FieldInsnNode) insn;
+			ClassInstance owner = env.getClsByName(in.owner);
+			if (owner == null) return null;
+
+			FieldInstance ret = owner.resolveField(in.name, in.desc);
+
+			return ret != null ? ret : owner;
+		}
+		case AbstractInsnNode.METHOD_INSN: {
+			MethodInsnNode in = (MethodInsnNode) insn;
+
+			return resolveMethod(in.owner, in.name, in.desc, Util.isCallToInterface(in), env);
+		}
+		case AbstractInsnNode.INVOKE_DYNAMIC_INSN: {
+			InvokeDynamicInsnNode in = (InvokeDynamicInsnNode) insn;
+			Handle impl = Util.getTargetHandle(in.bsm, in.bsmArgs);
+			if (impl == null) return null;
+
+			switch (impl.getTag()) {
+			case Opcodes.H_INVOKEVIRTUAL:
+			case Opcodes.H_INVOKESTATIC:
+			case Opcodes.H_INVOKESPECIAL:
+			case Opcodes.H_NEWINVOKESPECIAL:
+			case Opcodes.H_INVOKEINTERFACE:
+				return resolveMethod(impl.getOwner(), impl.getName(), impl.getDesc(), Util.isCallToInterface(impl), env);
+			default:
+				return null;
+			}
+		}
+		case AbstractInsnNode.LDC_INSN: {
+			Object cst = ((LdcInsnNode) insn).cst;
+			if (!(cst instanceof Type)) return null;
+
+			Type type = (Type) cst;
+			if (type.getSort() != Type.OBJECT && type.getSort() != Type.ARRAY) return null;
+
+			return env.getClsById(type.getDescriptor());
+		}
+		case AbstractInsnNode.MULTIANEWARRAY_INSN:
+			return env.getClsByName(((MultiANewArrayInsnNode) insn).desc);
+		default:
+			return null;
+		}
+	}
+
+	private static IMatchable<?> resolveMethod(String owner, String name, String desc, boolean toInterface, IClassEnv env) {
+		ClassInstance cls = env.getClsByName(owner);
+		if (cls == null) return null;
+
+		MethodInstance ret = cls.resolveMethod(name, desc, toInterface);
+
+		return ret != null ? ret : cls;
+	}
+
+	private Set<String> collectStrings() {
+		if (asmNode == null) return Collections.emptySet();
+
+		Set<String> ret = new HashSet<>();
+		ClassifierUtil.extractStrings(asmNode.instructions, ret);
+
+		return Util.immutableSet(ret);
+	}
+
 	public Set<String> getAnnotations() {
 		return annotations;
 	}
 
+	@Override
+	MatchState.Table<MethodInstance> getMatchTable(MatchState state) {
+		return state.getMethods();
+	}
+
 	static String getId(String name, String desc) {
 		return name+desc;
 	}
 
 	private static final MethodVarInstance[] emptyVars = new MethodVarInstance[0];
+	private static final IMatchable<?>[] emptyInsnRefs = new IMatchable<?>[0];
 
 	final MethodNode asmNode;
 	final MethodVarInstance[] args;
@@ -287,4 +441,10 @@ public class MethodInstance extends MemberInstance<MethodInstance> {
 	final Set<FieldInstance> fieldWriteRefs = Util.newIdentityHashSet();
 	final Set<ClassInstance> classRefs = Util.newIdentityHashSet();
 	final Set<String> annotations = new TreeSet<>(Comparator.naturalOrder());
+
+	// derived features, see updateFeatures
+	private volatile Set<String> strings;
+	private volatile NumericConstants numbers;
+	private volatile IMatchable<?>[] insnRefs;
+	private volatile InsnTokens insnTokens;
 }
\ No newline at end of file
@@ -74,10 +74,12 @@ public class MethodVarInstance implements IMatchable<MethodVarInstance> {
 
 	@Override
 	public String getMappedName(boolean defaultToUnmapped) {
+		MethodVarInstance match;
+
 		if (mappedName != null) {
 			return mappedName;
-		} else if (matchedInstance != null && matchedInstance.mappedName != null) {
-			return matchedInstance.mappedName;
+		} else if ((match = getMatch()) != null && match.mappedName != null) {
+			return match.mappedName;
 		} else if (defaultToUnmapped) {
 			return getName();
 		} else {
@@ -91,13 +93,21 @@ public class MethodVarInstance implements IMatchable<MethodVarInstance> {
 
 	@Override
 	public MethodVarInstance getMatch() {
-		return matchedInstance;
+		if (intId < 0) return null;
+
+		return getEnv().getMatchState().getMatch(this);
 	}
 
 	public void setMatch(MethodVarInstance match) {
 		assert match == null || method == match.method.getMatch();
 
-		this.matchedInstance = match;
+		MatchState state = getEnv().getMatchState();
+		if (state != null) state.setMatch(this, match);
+	}
+
+	@Override
+	public int getIntId() {
+		return intId;
 	}
 
 	@Override
@@ -117,5 +127,5 @@ public class MethodVarInstance implements IMatchable<MethodVarInstance> {
 	final boolean nameObfuscated;
 
 	String mappedName;
-	MethodVarInstance matchedInstance;
+	int intId = -1;
 }
@@ -0,0 +1,109 @@
+package matcher.type;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import matcher.classifier.ClassifierUtil;
+
+/**
+ * Immutable set of the distinct numeric constants used by a class or method, stored as sorted primitive arrays.
+ *
+ * <p>Floating point values are stored by their raw bits, matching the equality semantics of Float/Double.
+ */
+public final class NumericConstants {
+	private NumericConstants(int[] ints, long[] longs, int[] floats, long[] doubles) {
+		this.ints = ints;
+		this.longs = longs;
+		this.floats = floats;
+		this.doubles = doubles;
+	}
+
+	static NumericConstants create(MethodInstance method) {
+		if (method.asmNode == null) return EMPTY;
+
+		Builder builder = new Builder();
+		builder.add(method.asmNode);
+
+		return builder.build();
+	}
+
+	static NumericConstants create(ClassInstance cls) {
+		Builder builder = new Builder();
+
+		for (MethodInstance method : cls.getMethods()) {
+			MethodNode asmNode = method.getAsmNode();
+			if (asmNode != null) builder.add(asmNode);
+		}
+
+		for (FieldInstance field : cls.getFields()) {
+			FieldNode asmNode = field.getAsmNode();
+			if (asmNode != null) builder.add(asmNode.value);
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * Sorted distinct int constants, must not be modified.
+	 */
+	public int[] getInts() {
+		return ints;
+	}
+
+	/**
+	 * Sorted distinct long constants, must not be modified.
+	 */
+	public long[] getLongs() {
+		return longs;
+	}
+
+	/**
+	 * Sorted distinct float constants as obtained by Float.floatToIntBits, must not be modified.
+	 */
+	public int[] getFloats() {
+		return floats;
+	}
+
+	/**
+	 * Sorted distinct double constants as obtained by Double.doubleToLongBits, must not be modified.
+	 */
+	public long[] getDoubles() {
+		return doubles;
+	}
+
+	private static class Builder {
+		void add(MethodNode node) {
+			ClassifierUtil.extractNumbers(node, ints, longs, floats, doubles);
+		}
+
+		void add(Object value) {
+			ClassifierUtil.handleNumberValue(value, ints, longs, floats, doubles);
+		}
+
+		NumericConstants build() {
+			if (ints.isEmpty() && longs.isEmpty() && floats.isEmpty() && doubles.isEmpty()) return EMPTY;
+
+			int[] retInts = ints.stream().mapToInt(Integer::intValue).sorted().toArray();
+			long[] retLongs = longs.stream().mapToLong(Long::longValue).sorted().toArray();
+			int[] retFloats = floats.stream().mapToInt(Float::floatToIntBits).distinct().sorted().toArray();
+			long[] retDoubles = doubles.stream().mapToLong(Double::doubleToLongBits).distinct().sorted().toArray();
+
+			return new NumericConstants(retInts, retLongs, retFloats, retDoubles);
+		}
+
+		final Set<Integer> ints = new HashSet<>();
+		final Set<Long> longs = new HashSet<>();
+		final Set<Float> floats = new HashSet<>();
+		final Set<Double> doubles = new HashSet<>();
+	}
+
+	public static final NumericConstants EMPTY = new NumericConstants(new int[0], new long[0], new int[0], new long[0]);
+
+	private final int[] ints;
+	private final long[] longs;
+	private final int[] floats;
+	private final long[] doubles;
+}